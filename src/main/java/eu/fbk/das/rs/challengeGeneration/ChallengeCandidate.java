@@ -0,0 +1,221 @@
+package eu.fbk.das.rs.challengeGeneration;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+
+/**
+ * Challenge proposed to a player by recommendation system, with primitive
+ * fields read and written by generation, valuation and filtering. Only
+ * candidates selected for output are converted to {@link ChallengeDataDTO}.
+ *
+ * Baseline and percentage are NaN for challenges without them, difficulty is
+ * 0 and wi NaN until candidate is valuated and filtered
+ */
+public class ChallengeCandidate {
+
+	public static final String PERCENTAGE_INCREMENT = "percentageIncrement";
+	public static final String ABSOLUTE_INCREMENT = "absoluteIncrement";
+
+	private static final String BONUS_POINT_TYPE = "green leaves";
+	private static final double BONUS_SCORE = 100d;
+	private static final String PERIOD = "weekly";
+
+	private final String modelName;
+	private final String counterName;
+	private final double baseline;
+	private final double target;
+	private final double percentage;
+	private int difficulty;
+	private double wi = Double.NaN;
+	private double bonusScore;
+	private final ChallengeDataDTO source;
+
+	private ChallengeCandidate(String modelName, String counterName,
+			double baseline, double target, double percentage,
+			double bonusScore, ChallengeDataDTO source) {
+		this.modelName = modelName;
+		this.counterName = counterName;
+		this.baseline = baseline;
+		this.target = target;
+		this.percentage = percentage;
+		this.bonusScore = bonusScore;
+		this.source = source;
+	}
+
+	/**
+	 * @param mode
+	 * @param baseline
+	 *            last week score of mode
+	 * @param percentage
+	 *            improvement over baseline
+	 * @return challenge to improve mode score by percentage
+	 */
+	public static ChallengeCandidate percentageIncrement(String mode,
+			double baseline, double percentage) {
+		// calculating the improvement of last week activity
+		double target = percentage * baseline + baseline;
+		if (mode.endsWith("_Trips")) {
+			target = Math.round(target);
+		}
+		return new ChallengeCandidate(PERCENTAGE_INCREMENT, mode, baseline,
+				target, percentage, BONUS_SCORE, null);
+	}
+
+	/**
+	 * @param mode
+	 * @return challenge to try mode once
+	 */
+	public static ChallengeCandidate tryOnce(String mode) {
+		return new ChallengeCandidate(ABSOLUTE_INCREMENT, mode, Double.NaN, 1,
+				Double.NaN, BONUS_SCORE, null);
+	}
+
+	/**
+	 * Read candidate from challenge data, {@link #toDTO(String, Date, Date)}
+	 * writes difficulty, bonus score and wi back to the given challenge and
+	 * returns it
+	 *
+	 * @param challenge
+	 * @return candidate with fields of challenge data
+	 */
+	public static ChallengeCandidate of(ChallengeDataDTO challenge) {
+		if (challenge == null) {
+			throw new IllegalArgumentException("challenge must be not null");
+		}
+		Map<String, Object> data = challenge.getData();
+		ChallengeCandidate candidate = new ChallengeCandidate(
+				challenge.getModelName(), (String) data.get("counterName"),
+				number(data.get("baseline")), number(data.get("target")),
+				number(data.get("percentage")), number(data.get("bonusScore")),
+				challenge);
+		if (data.get("difficulty") instanceof Integer) {
+			candidate.difficulty = (Integer) data.get("difficulty");
+		}
+		candidate.wi = number(data.get("wi"));
+		return candidate;
+	}
+
+	/**
+	 * @param challengeNamePrefix
+	 * @param start
+	 * @param end
+	 * @return challenge of candidate, with a new instance name, or challenge
+	 *         candidate was read from, with difficulty, bonus score and wi of
+	 *         candidate written in its data. Prefix and dates are not used for
+	 *         a candidate read from a challenge
+	 */
+	public ChallengeDataDTO toDTO(String challengeNamePrefix, Date start,
+			Date end) {
+		if (source != null) {
+			Map<String, Object> data = source.getData();
+			if (difficulty > 0) {
+				data.put("difficulty", difficulty);
+			}
+			if (!Double.isNaN(bonusScore)) {
+				data.put("bonusScore", bonusScore);
+			}
+			if (!Double.isNaN(wi)) {
+				data.put("wi", wi);
+			}
+			return source;
+		}
+		boolean tryOnce = !isPercentageIncrement();
+		ChallengeDataDTO cdd = new ChallengeDataDTO();
+		cdd.setModelName(modelName);
+		cdd.setInstanceName(challengeNamePrefix + counterName
+				+ (tryOnce ? "_try_" : "_") + UUID.randomUUID());
+		cdd.setStart(start);
+		cdd.setEnd(end);
+		Map<String, Object> data = new HashMap<String, Object>();
+		if (tryOnce) {
+			data.put("target", (int) target);
+		} else {
+			data.put("target", target);
+		}
+		data.put("bonusPointType", BONUS_POINT_TYPE);
+		data.put("bonusScore", bonusScore);
+		if (!Double.isNaN(baseline)) {
+			data.put("baseline", baseline);
+		}
+		data.put("counterName", counterName);
+		data.put("periodName", PERIOD);
+		if (!Double.isNaN(percentage)) {
+			data.put("percentage", percentage);
+		}
+		data.put("challengeName", challengeNamePrefix + counterName
+				+ (tryOnce ? "_try" : "_" + percentage));
+		if (difficulty > 0) {
+			data.put("difficulty", difficulty);
+		}
+		if (!Double.isNaN(wi)) {
+			data.put("wi", wi);
+		}
+		cdd.setData(data);
+		return cdd;
+	}
+
+	public boolean isPercentageIncrement() {
+		return PERCENTAGE_INCREMENT.equals(modelName);
+	}
+
+	public String getModelName() {
+		return modelName;
+	}
+
+	public String getCounterName() {
+		return counterName;
+	}
+
+	public double getBaseline() {
+		return baseline;
+	}
+
+	public double getTarget() {
+		return target;
+	}
+
+	public double getPercentage() {
+		return percentage;
+	}
+
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	public void setDifficulty(int difficulty) {
+		this.difficulty = difficulty;
+	}
+
+	public double getWi() {
+		return wi;
+	}
+
+	public void setWi(double wi) {
+		this.wi = wi;
+	}
+
+	public double getBonusScore() {
+		return bonusScore;
+	}
+
+	public void setBonusScore(double bonusScore) {
+		this.bonusScore = bonusScore;
+	}
+
+	/**
+	 * @return challenge candidate was read from, null if candidate was
+	 *         generated
+	 */
+	public ChallengeDataDTO getSource() {
+		return source;
+	}
+
+	private static double number(Object value) {
+		return value instanceof Number ? ((Number) value).doubleValue()
+				: Double.NaN;
+	}
+}
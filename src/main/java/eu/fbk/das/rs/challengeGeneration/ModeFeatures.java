@@ -0,0 +1,122 @@
+package eu.fbk.das.rs.challengeGeneration;
+
+import java.util.Set;
+
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+
+/**
+ * Current weekly score of every mode for every player, extracted from a
+ * {@link GameSnapshot} in a single pass over players. Modes and players are
+ * numbered by their position in mode and player dictionaries, and scores are
+ * kept in a dense matrix indexed first by mode and then by player, with NaN
+ * where player doesn't have the mode point concept
+ */
+public class ModeFeatures {
+
+	private static final String PERIOD = "weekly";
+
+	private final String[] modes;
+	private final String[] players;
+	private final double[][] scores;
+
+	private ModeFeatures(String[] modes, String[] players, double[][] scores) {
+		this.modes = modes;
+		this.players = players;
+		this.scores = scores;
+	}
+
+	/**
+	 * @param snapshot
+	 * @param modes
+	 *            point concepts of modes, in dictionary order
+	 * @param playerIds
+	 *            players to extract, null for every player of snapshot
+	 * @return features of selected players, in snapshot order
+	 */
+	public static ModeFeatures extract(GameSnapshot snapshot, String[] modes,
+			Set<String> playerIds) {
+		if (snapshot == null || modes == null) {
+			throw new IllegalArgumentException(
+					"snapshot and modes must be not null");
+		}
+		int[] rows = new int[snapshot.size()];
+		int n = 0;
+		for (int row = 0; row < snapshot.size(); row++) {
+			if (playerIds == null
+					|| playerIds.contains(snapshot.getPlayerId(row))) {
+				rows[n++] = row;
+			}
+		}
+		double[][] totals = new double[modes.length][];
+		double[][] weekly = new double[modes.length][];
+		for (int m = 0; m < modes.length; m++) {
+			totals[m] = snapshot.getScores(modes[m]);
+			weekly[m] = snapshot.getPeriodScores(modes[m], PERIOD,
+					PeriodScoreType.CURRENT);
+		}
+		String[] players = new String[n];
+		double[][] scores = new double[modes.length][n];
+		for (int p = 0; p < n; p++) {
+			int row = rows[p];
+			players[p] = snapshot.getPlayerId(row);
+			for (int m = 0; m < modes.length; m++) {
+				if (totals[m] == null || Double.isNaN(totals[m][row])) {
+					scores[m][p] = Double.NaN;
+				} else {
+					scores[m][p] = weekly[m] != null ? weekly[m][row] : 0d;
+				}
+			}
+		}
+		return new ModeFeatures(modes.clone(), players, scores);
+	}
+
+	/**
+	 * @return number of players
+	 */
+	public int size() {
+		return players.length;
+	}
+
+	/**
+	 * @return number of modes
+	 */
+	public int getModeCount() {
+		return modes.length;
+	}
+
+	/**
+	 * @param mode
+	 *            index of mode in dictionary
+	 * @return point concept of mode
+	 */
+	public String getMode(int mode) {
+		return modes[mode];
+	}
+
+	/**
+	 * @param player
+	 *            index of player in dictionary
+	 * @return playerId
+	 */
+	public String getPlayerId(int player) {
+		return players[player];
+	}
+
+	/**
+	 * @param mode
+	 * @param player
+	 * @return current weekly score, NaN if player doesn't have the mode
+	 */
+	public double getScore(int mode, int player) {
+		return scores[mode][player];
+	}
+
+	/**
+	 * @param mode
+	 * @return current weekly score of every player, must not be modified
+	 */
+	public double[] getScores(int mode) {
+		return scores[mode];
+	}
+}
@@ -5,11 +5,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -19,20 +19,24 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
+import eu.fbk.das.rs.sortfilter.Leaderboard;
 import eu.fbk.das.rs.sortfilter.LeaderboardPosition;
 import eu.fbk.das.rs.sortfilter.RecommendationSystemChallengeFilteringAndSorting;
 import eu.fbk.das.rs.valuator.RecommendationSystemChallengeValuator;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.FileGameStateSource;
+import eu.trentorise.game.challenges.rest.GameStateIterator;
+import eu.trentorise.game.challenges.rest.GameStateSource;
 import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
-import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.rest.RestGameStateSource;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.snapshot.GameSnapshotStore;
 import eu.trentorise.game.challenges.util.ExcelUtil;
+import eu.trentorise.game.challenges.util.JsonUtil;
 
 /**
  * Recommandation System main class, requires running Gamification Engine in
@@ -49,6 +53,7 @@ public class RecommendationSystem {
 	private RecommendationSystemChallengeGeneration generator;
 	private RecommendationSystemChallengeValuator valuator;
 	private RecommendationSystemChallengeFilteringAndSorting filtering;
+	private GameSnapshotStore snapshotStore;
 
 	public RecommendationSystem(RecommendationSystemConfig configuration) {
 		this.configuration = configuration;
@@ -69,8 +74,8 @@ public class RecommendationSystem {
 	 * 
 	 * @return a {@link Map} of generated challenges, where key is playerId and
 	 *         value is a {@link List} of {@link ChallengeDataDTO}
-	 * @throws NullPointerException
-	 *             when data from gamification engine is null
+	 * @throws IllegalStateException
+	 *             when data from gamification engine cannot be read
 	 */
 	public Map<String, List<ChallengeDataDTO>> recommendation(String host,
 			String context, String username, String password, String gameId,
@@ -78,12 +83,50 @@ public class RecommendationSystem {
 		facade = new GamificationEngineRestFacade(host + context, username,
 				password);
 		logger.debug("Reading game data from gamification engine");
-		List<Content> gameData = facade.readGameState(gameId);
-		if (gameData == null) {
-			throw new NullPointerException(
-					"No game data from Gamification Engine");
+		return recommendation(new RestGameStateSource(facade, gameId, 0),
+				gameId, start, end);
+	}
+
+	/**
+	 * Generate challenges reading players from a game state source, like a
+	 * dump of game state saved on filesystem
+	 * 
+	 * @param source
+	 * @param gameId
+	 * @param start
+	 * @param end
+	 * @return a {@link Map} of generated challenges, where key is playerId and
+	 *         value is a {@link List} of {@link ChallengeDataDTO}
+	 * @throws IllegalStateException
+	 *             when game state cannot be read
+	 * @see FileGameStateSource
+	 */
+	public Map<String, List<ChallengeDataDTO>> recommendation(
+			GameStateSource source, String gameId, Date start, Date end) {
+		if (source == null || gameId == null) {
+			throw new IllegalArgumentException(
+					"source and gameId must be not null");
 		}
-		return recommendation(gameData, start, end);
+		if (snapshotStore != null) {
+			logger.debug("Refreshing game snapshot of " + gameId);
+			return recommendation(snapshotStore.refresh(gameId, source),
+					start, end);
+		}
+		// stream players and keep only scores of the ones used by
+		// recommendation
+		GameSnapshot.Builder snapshot = new GameSnapshot.Builder();
+		GameStateIterator players = source.stream();
+		try {
+			while (players.hasNext()) {
+				Content c = players.next();
+				if (isSelected(c)) {
+					snapshot.add(c);
+				}
+			}
+		} finally {
+			players.close();
+		}
+		return recommendation(snapshot.build(), start, end);
 	}
 
 	/**
@@ -107,39 +150,59 @@ public class RecommendationSystem {
 		if (gameData == null) {
 			throw new IllegalArgumentException("gameData must be not null");
 		}
-		List<Content> listofContent = new ArrayList<Content>();
+		// read players scores once, shared by generation, valuation and
+		// leaderboard
+		GameSnapshot.Builder snapshot = new GameSnapshot.Builder();
 		for (Content c : gameData) {
-			if (configuration.isUserfiltering()) {
-				if (configuration.getPlayerIds().contains(c.getPlayerId())) {
-					listofContent.add(c);
-				}
-			} else {
-				listofContent.add(c);
+			if (isSelected(c)) {
+				snapshot.add(c);
 			}
 		}
+		return recommendation(snapshot.build(), start, end);
+	}
+
+	/**
+	 * Generate challenges using {@link RecommendationSystemChallengeGeneration}
+	 * then {@link RecommendationSystemChallengeValuator} and
+	 * {@link RecommendationSystemChallengeFilteringAndSorting} modules
+	 * 
+	 * @param snapshot
+	 *            game snapshot, only players selected by user filtering
+	 *            configuration are used
+	 * @param start
+	 * @param end
+	 * @return a {@link Map} of generated challenges, where key is playerId and
+	 *         value is a {@link List} of {@link ChallengeDataDTO}
+	 */
+	public Map<String, List<ChallengeDataDTO>> recommendation(
+			GameSnapshot snapshot, Date start, Date end) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must be not null");
+		}
+		RecommendationSystemChallengeGeneration.checkPeriod(start, end);
+		snapshot = select(snapshot);
 		logger.debug("Generating challenges");
-		Map<String, List<ChallengeDataDTO>> challengeCombinations = generator
-				.generate(listofContent, start, end);
-		Map<String, List<ChallengeDataDTO>> evaluatedChallenges = valuator
-				.valuate(challengeCombinations, listofContent);
+		// candidates are converted to challenges only when selected
+		Map<String, List<ChallengeCandidate>> challengeCombinations;
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			challengeCombinations = generator.generateCandidates(snapshot, pool);
+		} finally {
+			pool.shutdown();
+		}
+		Map<String, List<ChallengeCandidate>> evaluatedChallenges = valuator
+				.valuateCandidates(challengeCombinations, snapshot);
 
 		// build a leaderboard, for now is the current, to be parameterized for
 		// weekly or general leaderboard
-		List<LeaderboardPosition> leaderboard = buildLeaderBoard(listofContent);
-		Collections.sort(leaderboard);
-		int index = 0;
-		for (LeaderboardPosition pos : leaderboard) {
-			pos.setIndex(index);
-			index++;
-		}
+		Leaderboard leaderboard = new Leaderboard(buildLeaderBoard(snapshot));
 
 		// filtering
 		logger.debug("Filtering challenges");
-		Map<String, List<ChallengeDataDTO>> filteredChallenges = filtering
-				.filterAndSort(evaluatedChallenges, leaderboard);
-
-		filteredChallenges = filtering.removeDuplicates(filteredChallenges);
+		Map<String, List<ChallengeCandidate>> filteredChallenges = filtering
+				.filterAndSortCandidates(evaluatedChallenges, leaderboard);
 
+		String prefix = configuration.getChallengeNamePrefix();
 		Map<String, Integer> count = new HashMap<String, Integer>();
 
 		// select challenges and avoid duplicate mode
@@ -155,22 +218,22 @@ public class RecommendationSystem {
 			// filter used modes
 			List<String> usedModes = new ArrayList<String>();
 
-			for (ChallengeDataDTO dto : filteredChallenges.get(key)) {
+			for (ChallengeCandidate c : filteredChallenges.get(key)) {
 
 				if (configuration.isSelecttoptwo()) {
 					if (count.get(key) < 2) {
-						String counter = (String) dto.getData().get(
-								"counterName");
+						String counter = c.getCounterName();
 						if (counter != null && !usedModes.contains(counter)) {
 							usedModes.add(counter);
 							count.put(key, count.get(key) + 1);
-							toWriteChallenge.get(key).add(dto);
+							toWriteChallenge.get(key).add(
+									c.toDTO(prefix, start, end));
 						}
 					} else {
 						break;
 					}
 				} else {
-					toWriteChallenge.get(key).add(dto);
+					toWriteChallenge.get(key).add(c.toDTO(prefix, start, end));
 				}
 			}
 		}
@@ -178,22 +241,59 @@ public class RecommendationSystem {
 		return toWriteChallenge;
 	}
 
+	/**
+	 * @return snapshot of players used by recommendation system, the given one
+	 *         if all players are used
+	 */
+	private GameSnapshot select(GameSnapshot snapshot) {
+		if (!configuration.isUserfiltering()) {
+			return snapshot;
+		}
+		GameSnapshot.Builder selected = new GameSnapshot.Builder();
+		for (int row = 0; row < snapshot.size(); row++) {
+			if (configuration.getPlayerIds().contains(snapshot.getPlayerId(row))) {
+				selected.add(snapshot, row);
+			}
+		}
+		return selected.size() == snapshot.size() ? snapshot : selected
+				.build();
+	}
+
+	/**
+	 * @param snapshotStore
+	 *            store used to read game state when recommendation reads from
+	 *            gamification engine, null to read whole game state every
+	 *            time
+	 */
+	public void setSnapshotStore(GameSnapshotStore snapshotStore) {
+		this.snapshotStore = snapshotStore;
+	}
+
+	/**
+	 * @return true if player is used by recommendation system, according to
+	 *         user filtering configuration
+	 */
+	private boolean isSelected(Content c) {
+		return !configuration.isUserfiltering()
+				|| configuration.getPlayerIds().contains(c.getPlayerId());
+	}
+
 	/**
 	 * Build game leaderboard using players green leaves's points
 	 * 
-	 * @param gameData
+	 * @param snapshot
 	 * @return
 	 */
-	private List<LeaderboardPosition> buildLeaderBoard(List<Content> gameData) {
+	private List<LeaderboardPosition> buildLeaderBoard(GameSnapshot snapshot) {
 		List<LeaderboardPosition> result = new ArrayList<LeaderboardPosition>();
-		for (Content content : gameData) {
-			for (PointConcept pc : content.getState().getPointConcept()) {
-				if (pc.getName().equals("green leaves")) {
-					Integer score = (int) Math.round(pc
-							.getPeriodCurrentScore("weekly"));
-					result.add(new LeaderboardPosition(score, content
-							.getPlayerId()));
-				}
+		double[] weekly = snapshot.getPeriodScores("green leaves", "weekly",
+				PeriodScoreType.CURRENT);
+		for (int row = 0; row < snapshot.size(); row++) {
+			if (snapshot.hasConcept(row, "green leaves")) {
+				Integer score = (int) Math.round(weekly != null ? weekly[row]
+						: 0d);
+				result.add(new LeaderboardPosition(score, snapshot
+						.getPlayerId(row)));
 			}
 		}
 		return result;
@@ -243,16 +343,13 @@ public class RecommendationSystem {
 		logger.info("written reportGeneratedChallenges.xlsx");
 
 		// print configuration
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
-		mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
-
 		FileOutputStream oout;
 
 		try {
 			oout = new FileOutputStream(new File(
 					"recommendationSystemConfiguration.json"));
-			IOUtils.write(mapper.writeValueAsString(configuration), oout);
+			IOUtils.write(JsonUtil.FIELDS_WRITER
+					.writeValueAsString(configuration), oout);
 
 			oout.flush();
 			logger.info("written recommendationSystemConfiguration.json");
@@ -3,16 +3,20 @@ package eu.fbk.das.rs.challengeGeneration;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 import eu.trentorise.game.challenges.rest.Content;
-import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.RangeTask;
 
 /**
  * RecommendationSystem challenge generation module: generate all possible
@@ -22,11 +26,11 @@ public class RecommendationSystemChallengeGeneration {
 
 	private static final Logger logger = LogManager
 			.getLogger(RecommendationSystem.class);
+	/**
+	 * players generated by a single task
+	 */
+	private static final int THRESHOLD = 1024;
 
-	// define a variable that the player should improve its mode
-	private double improvementValue = 0;
-	// define a temporary variable to save the improvement
-	private double tmpValueimprovment = 0;
 	// configuration
 	private RecommendationSystemConfig configuration;
 
@@ -52,6 +56,65 @@ public class RecommendationSystemChallengeGeneration {
 		if (input == null) {
 			throw new IllegalArgumentException("Input must be not null");
 		}
+		return generate(GameSnapshot.build(input), start, end);
+	}
+
+	/**
+	 * Generate challenges reading players weekly scores from a snapshot, using
+	 * a {@link ForkJoinPool} with a thread for every available processor
+	 * 
+	 * @param snapshot
+	 * @param start
+	 * @param end
+	 * @return generated challenges by playerId
+	 */
+	public Map<String, List<ChallengeDataDTO>> generate(GameSnapshot snapshot,
+			Date start, Date end) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return generate(snapshot, start, end, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Generate challenges reading players weekly scores from a snapshot
+	 * 
+	 * @param snapshot
+	 * @param start
+	 * @param end
+	 * @param pool
+	 * @return generated challenges by playerId
+	 * @see #generateCandidates(GameSnapshot, ForkJoinPool)
+	 */
+	public Map<String, List<ChallengeDataDTO>> generate(GameSnapshot snapshot,
+			Date start, Date end, ForkJoinPool pool) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("Input must be not null");
+		}
+		checkPeriod(start, end);
+		Map<String, List<ChallengeCandidate>> candidates = generateCandidates(
+				snapshot, pool);
+		Map<String, List<ChallengeDataDTO>> output = new HashMap<String, List<ChallengeDataDTO>>();
+		for (Map.Entry<String, List<ChallengeCandidate>> entry : candidates
+				.entrySet()) {
+			List<ChallengeDataDTO> challenges = new ArrayList<ChallengeDataDTO>(
+					entry.getValue().size());
+			for (ChallengeCandidate candidate : entry.getValue()) {
+				challenges.add(candidate.toDTO(
+						configuration.getChallengeNamePrefix(), start, end));
+			}
+			output.put(entry.getKey(), challenges);
+		}
+		return output;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if start or end are null, or start is not before end
+	 */
+	static void checkPeriod(Date start, Date end) {
 		if (start == null || end == null) {
 			throw new IllegalArgumentException(
 					"Start and end date for challenges must be not null");
@@ -64,119 +127,113 @@ public class RecommendationSystemChallengeGeneration {
 			throw new IllegalArgumentException(
 					"Start date for challenges must be before end of challenges");
 		}
-		Map<String, List<ChallengeDataDTO>> output = new HashMap<String, List<ChallengeDataDTO>>();
-		HashMap<String, HashMap<String, Double>> modeValues = new HashMap<String, HashMap<String, Double>>();
-		HashMap<String, Double> playerScore = new HashMap<>();
-		for (Content content : input) {
-			// filter users
-			if (configuration.isUserfiltering()) {
-				if (configuration.getPlayerIds()
-						.contains(content.getPlayerId())) {
-					modeValues = buildModeValues(modeValues, playerScore,
-							content);
-				}
-			} else {
-				modeValues = buildModeValues(modeValues, playerScore, content);
-			}
-			playerScore.clear();
-		}
+	}
 
-		int playersNum = 0;
-		for (String mode : modeValues.keySet()) {
-			for (String playerId : modeValues.get(mode).keySet()) {
-				if (output.get(playerId) == null) {
-					output.put(playerId, new ArrayList<ChallengeDataDTO>());
-				}
-				Double modeCounter = modeValues.get(mode).get(playerId);
-				if (modeCounter > 0) {
-
-					// generate different types of challenges by percentage
-					for (int i = 0; i < configuration.getPercentage().length; i++) {
-						// calculating the improvement of last week activity
-						tmpValueimprovment = configuration.getPercentage()[i]
-								* modeCounter;
-						if (mode.endsWith("_Trips")) {
-							improvementValue = tmpValueimprovment + modeCounter;
-							improvementValue = Math.round(improvementValue);
-						} else {
-							improvementValue = tmpValueimprovment + modeCounter;
-						}
-						playersNum++;
-						ChallengeDataDTO cdd = new ChallengeDataDTO();
-						cdd.setModelName("percentageIncrement");
-						cdd.setInstanceName(configuration
-								.getChallengeNamePrefix()
-								+ mode
-								+ "_"
-								+ UUID.randomUUID());
-						cdd.setStart(start);
-						cdd.setEnd(end);
-						Map<String, Object> data = new HashMap<String, Object>();
-						data.put("target", improvementValue);
-						data.put("bonusPointType", "green leaves");
-						data.put("bonusScore", 100d);
-						data.put("baseline", modeCounter);
-						data.put("counterName", mode);
-						data.put("periodName", "weekly");
-						data.put("percentage", configuration.getPercentage()[i]);
-						data.put("challengeName",
-								configuration.getChallengeNamePrefix() + mode
-										+ "_"
-										+ configuration.getPercentage()[i]);
-						cdd.setData(data);
-						output.get(playerId).add(cdd);
-					}
-				} else {
-					if (configuration.isDefaultMode(mode)) {
-						playersNum++;
-						// build a try once
-						ChallengeDataDTO cdd = new ChallengeDataDTO();
-						cdd.setModelName("absoluteIncrement");
-						cdd.setInstanceName(configuration
-								.getChallengeNamePrefix()
-								+ mode
-								+ "_try_"
-								+ UUID.randomUUID());
-						cdd.setStart(start);
-						cdd.setEnd(end);
-						Map<String, Object> data = new HashMap<String, Object>();
-						data.put("target", 1);
-						data.put("bonusPointType", "green leaves");
-						data.put("bonusScore", 100d);
-						data.put("counterName", mode);
-						data.put("periodName", "weekly");
-						data.put("challengeName",
-								configuration.getChallengeNamePrefix() + mode
-										+ "_try");
-						cdd.setData(data);
-						output.get(playerId).add(cdd);
-					}
-				}
+	/**
+	 * Generate challenge candidates reading players weekly scores from a
+	 * snapshot. Scores are first extracted in {@link ModeFeatures}, then
+	 * candidates are generated by ranges of players evaluated as independent
+	 * tasks
+	 * 
+	 * @param snapshot
+	 * @param pool
+	 * @return generated candidates by playerId
+	 */
+	public Map<String, List<ChallengeCandidate>> generateCandidates(
+			GameSnapshot snapshot, ForkJoinPool pool) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("Input must be not null");
+		}
+		if (pool == null) {
+			throw new IllegalArgumentException("pool must be not null");
+		}
+		// filter users
+		Set<String> playerIds = null;
+		if (configuration.isUserfiltering()) {
+			playerIds = new HashSet<String>(configuration.getPlayerIds());
+		}
+		ModeFeatures features = ModeFeatures.extract(snapshot,
+				configuration.getDefaultMode(), playerIds);
+		boolean[] tryOnce = new boolean[features.getModeCount()];
+		for (int m = 0; m < tryOnce.length; m++) {
+			tryOnce[m] = configuration.isDefaultMode(configuration
+					.getDefaultMode()[m]);
+		}
+		Map<String, List<ChallengeCandidate>> output = pool
+				.invoke(new RangeTask<Map<String, List<ChallengeCandidate>>>(
+						new Generation(features, tryOnce), 0, features.size(),
+						THRESHOLD));
+		if (logger.isDebugEnabled()) {
+			int playersNum = 0;
+			for (List<ChallengeCandidate> challenges : output.values()) {
+				playersNum += challenges.size();
 			}
+			logger.debug("players used from challenge generation : "
+					+ playersNum);
 		}
-		logger.debug("players used from challenge generation : " + playersNum);
 		return output;
 	}
 
-	private HashMap<String, HashMap<String, Double>> buildModeValues(
-			HashMap<String, HashMap<String, Double>> modeValues,
-			HashMap<String, Double> playerScore, Content content) {
-		// retrieving the players' last week data "weekly"
-		for (int i = 0; i < configuration.getDefaultMode().length; i++) {
-
-			String mode = configuration.getDefaultMode()[i];
-			for (PointConcept pc : content.getState().getPointConcept()) {
-				if (pc.getName().equals(mode)) {
-					Double score = pc.getPeriodCurrentScore("weekly");
-					playerScore.put(content.getPlayerId(), score);
+	/**
+	 * Generate candidates of a player, for every mode player has
+	 */
+	private void generate(ModeFeatures features, boolean[] tryOnce,
+			int player, Map<String, List<ChallengeCandidate>> output) {
+		List<ChallengeCandidate> challenges = null;
+		for (int m = 0; m < features.getModeCount(); m++) {
+			double modeCounter = features.getScore(m, player);
+			// players without the mode point concept are skipped
+			if (Double.isNaN(modeCounter)) {
+				continue;
+			}
+			if (challenges == null) {
+				challenges = new ArrayList<ChallengeCandidate>();
+				output.put(features.getPlayerId(player), challenges);
+			}
+			String mode = features.getMode(m);
+			if (modeCounter > 0) {
+				// generate different types of challenges by percentage
+				for (int i = 0; i < configuration.getPercentage().length; i++) {
+					challenges.add(ChallengeCandidate.percentageIncrement(mode,
+							modeCounter, configuration.getPercentage()[i]));
 				}
+			} else if (tryOnce[m]) {
+				// build a try once
+				challenges.add(ChallengeCandidate.tryOnce(mode));
 			}
-			if (modeValues.get(mode) == null) {
-				modeValues.put(mode, new HashMap<String, Double>());
+		}
+	}
+
+	/**
+	 * Generate candidates of a range of players, ranges are joined merging
+	 * their candidates by playerId
+	 */
+	private class Generation implements
+			RangeTask.Range<Map<String, List<ChallengeCandidate>>> {
+		private final ModeFeatures features;
+		private final boolean[] tryOnce;
+
+		private Generation(ModeFeatures features, boolean[] tryOnce) {
+			this.features = features;
+			this.tryOnce = tryOnce;
+		}
+
+		@Override
+		public Map<String, List<ChallengeCandidate>> compute(int from, int to) {
+			Map<String, List<ChallengeCandidate>> output = new HashMap<String, List<ChallengeCandidate>>();
+			for (int player = from; player < to; player++) {
+				generate(features, tryOnce, player, output);
 			}
-			modeValues.get(mode).putAll(playerScore);
+			return output;
+		}
+
+		@Override
+		public Map<String, List<ChallengeCandidate>> merge(
+				Map<String, List<ChallengeCandidate>> left,
+				Map<String, List<ChallengeCandidate>> right) {
+			left.putAll(right);
+			return left;
 		}
-		return modeValues;
 	}
 
 }
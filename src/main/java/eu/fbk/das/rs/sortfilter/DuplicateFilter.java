@@ -0,0 +1,146 @@
+package eu.fbk.das.rs.sortfilter;
+
+import java.util.Arrays;
+
+import eu.fbk.das.rs.challengeGeneration.ChallengeCandidate;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+
+/**
+ * Set of challenges of a player keyed by model name, counter name and target,
+ * to keep only the first challenge of every key. Challenges without a numeric
+ * target have a NaN target and share the same key. Challenges are either
+ * {@link ChallengeDataDTO} or {@link ChallengeCandidate}. Key of a challenge
+ * is read and hashed once, keys are kept in an open addressing table with
+ * linear probing. A filter is reused for every player, clearing it in between
+ * only the slots used by the player
+ */
+final class DuplicateFilter {
+
+	private static final int INITIAL_CAPACITY = 32;
+
+	/**
+	 * index of key plus one, 0 for empty slots
+	 */
+	private int[] table = new int[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY / 2];
+	/**
+	 * slot of table of every key
+	 */
+	private int[] slots = new int[INITIAL_CAPACITY / 2];
+	private String[] models = new String[INITIAL_CAPACITY / 2];
+	private Object[] counters = new Object[INITIAL_CAPACITY / 2];
+	private double[] targets = new double[INITIAL_CAPACITY / 2];
+	private int size;
+
+	/**
+	 * @param challenge
+	 * @return true if no challenge with the same key was added since last
+	 *         clear
+	 */
+	boolean add(ChallengeDataDTO challenge) {
+		return add(challenge.getModelName(),
+				challenge.getData().get("counterName"),
+				target(challenge.getData().get("target")));
+	}
+
+	/**
+	 * @param candidate
+	 * @return true if no candidate with the same key was added since last
+	 *         clear
+	 */
+	boolean add(ChallengeCandidate candidate) {
+		return add(candidate.getModelName(), candidate.getCounterName(),
+				candidate.getTarget() == 0 ? 0d : candidate.getTarget());
+	}
+
+	private boolean add(String model, Object counter, double target) {
+		int hash = hash(model, counter, target);
+		int mask = table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int key = table[slot] - 1;
+			if (key < 0) {
+				break;
+			}
+			if (hashes[key] == hash && equal(targets[key], target)
+					&& equal(models[key], model)
+					&& equal(counters[key], counter)) {
+				return false;
+			}
+		}
+		if (size == hashes.length) {
+			grow();
+		}
+		hashes[size] = hash;
+		models[size] = model;
+		counters[size] = counter;
+		targets[size] = target;
+		size++;
+		slots[size - 1] = insert(hash, size);
+		return true;
+	}
+
+	void clear() {
+		for (int key = 0; key < size; key++) {
+			table[slots[key]] = 0;
+		}
+		Arrays.fill(models, 0, size, null);
+		Arrays.fill(counters, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * @return slot of entry
+	 */
+	private int insert(int hash, int entry) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = entry;
+		return slot;
+	}
+
+	/**
+	 * Double table size, keeping it at most half full
+	 */
+	private void grow() {
+		int capacity = hashes.length * 2;
+		hashes = Arrays.copyOf(hashes, capacity);
+		slots = new int[capacity];
+		models = Arrays.copyOf(models, capacity);
+		counters = Arrays.copyOf(counters, capacity);
+		targets = Arrays.copyOf(targets, capacity);
+		table = new int[capacity * 2];
+		for (int key = 0; key < size; key++) {
+			slots[key] = insert(hashes[key], key + 1);
+		}
+	}
+
+	private static double target(Object target) {
+		double t = target instanceof Number ? ((Number) target).doubleValue()
+				: Double.NaN;
+		// 0.0 and -0.0 are the same target
+		return t == 0 ? 0d : t;
+	}
+
+	private static int hash(String model, Object counter, double target) {
+		long bits = Double.doubleToLongBits(target);
+		int h = (model != null ? model.hashCode() : 0) * 31
+				+ (counter != null ? counter.hashCode() : 0);
+		h = h * 31 + (int) (bits ^ (bits >>> 32));
+		// spread high bits, table index uses low ones
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return true if targets are equal, missing targets (NaN) are all equal
+	 */
+	private static boolean equal(double a, double b) {
+		return a == b || Double.isNaN(a) && Double.isNaN(b);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
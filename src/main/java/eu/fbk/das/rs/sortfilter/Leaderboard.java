@@ -0,0 +1,107 @@
+package eu.fbk.das.rs.sortfilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Leaderboard built once from players positions, sorted by decreasing score.
+ * Rank of a player is found through a hash index, and scores are kept in a
+ * primitive array to find by binary search the nearest position with a better
+ * score
+ */
+public class Leaderboard {
+
+	private final List<LeaderboardPosition> positions;
+	private final Map<String, Integer> ranks;
+	private final int[] scores;
+
+	/**
+	 * Create leaderboard, positions are sorted and their index set to their
+	 * rank. Sort is stable, players with the same score keep given order
+	 *
+	 * @param positions
+	 * @throws IllegalArgumentException
+	 *             if positions or one of their scores are null
+	 */
+	public Leaderboard(List<LeaderboardPosition> positions) {
+		if (positions == null) {
+			throw new IllegalArgumentException("positions must be not null");
+		}
+		this.positions = new ArrayList<LeaderboardPosition>(positions);
+		for (LeaderboardPosition pos : this.positions) {
+			if (pos.getScore() == null) {
+				throw new IllegalArgumentException("score must be not null");
+			}
+		}
+		Collections.sort(this.positions);
+		ranks = new HashMap<String, Integer>(this.positions.size() * 2);
+		scores = new int[this.positions.size()];
+		for (int rank = 0; rank < scores.length; rank++) {
+			LeaderboardPosition pos = this.positions.get(rank);
+			pos.setIndex(rank);
+			scores[rank] = pos.getScore();
+			if (!ranks.containsKey(pos.getPlayerId())) {
+				ranks.put(pos.getPlayerId(), rank);
+			}
+		}
+	}
+
+	public int size() {
+		return scores.length;
+	}
+
+	/**
+	 * @param rank
+	 * @return position of rank, first one is 0
+	 */
+	public LeaderboardPosition get(int rank) {
+		return positions.get(rank);
+	}
+
+	/**
+	 * @param playerId
+	 * @return rank of player, -1 if player is not in leaderboard
+	 */
+	public int rank(String playerId) {
+		Integer rank = ranks.get(playerId);
+		return rank != null ? rank : -1;
+	}
+
+	/**
+	 * @param rank
+	 * @return score of rank
+	 */
+	public int getScore(int rank) {
+		return scores[rank];
+	}
+
+	/**
+	 * @param score
+	 * @return rank of the lowest score greater than score, -1 if no position
+	 *         has a greater score
+	 */
+	public int betterRank(int score) {
+		// first rank with a score not greater than score
+		int low = 0;
+		int high = scores.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (scores[middle] > score) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * @return positions sorted by rank
+	 */
+	public List<LeaderboardPosition> getPositions() {
+		return Collections.unmodifiableList(positions);
+	}
+}
@@ -30,14 +30,12 @@ public class LeaderboardPosition implements Comparable<LeaderboardPosition> {
 		this.playerId = playerId;
 	}
 
+	/**
+	 * Positions are sorted by decreasing score
+	 */
 	@Override
 	public int compareTo(LeaderboardPosition o) {
-		if (this.score == o.getScore()) {
-			return 0;
-		} else if (this.getScore() > o.getScore()) {
-			return -1;
-		}
-		return 1;
+		return o.getScore().compareTo(this.getScore());
 	}
 
 	public Integer getIndex() {
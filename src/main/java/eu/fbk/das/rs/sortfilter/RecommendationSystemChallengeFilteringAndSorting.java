@@ -2,14 +2,15 @@ package eu.fbk.das.rs.sortfilter;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import eu.fbk.das.rs.challengeGeneration.ChallengeCandidate;
 import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 
@@ -18,6 +19,36 @@ public class RecommendationSystemChallengeFilteringAndSorting {
 	private static final Logger logger = LogManager
 			.getLogger(RecommendationSystemChallengeFilteringAndSorting.class);
 
+	/**
+	 * Same order of {@link DifficultyWiComparator}
+	 */
+	private static final Comparator<ChallengeCandidate> DIFFICULTY_WI = new Comparator<ChallengeCandidate>() {
+		@Override
+		public int compare(ChallengeCandidate o1, ChallengeCandidate o2) {
+			// sorting the challenges based on less difficulty and WI
+			if (o1.getDifficulty() != o2.getDifficulty()) {
+				return o1.getDifficulty() < o2.getDifficulty() ? -1 : 1;
+			}
+			return Double.compare(o2.getWi(), o1.getWi());
+		}
+	};
+
+	/**
+	 * Same order of {@link DifficultyPrizeComparator}
+	 */
+	private static final Comparator<ChallengeCandidate> DIFFICULTY_PRIZE = new Comparator<ChallengeCandidate>() {
+		@Override
+		public int compare(ChallengeCandidate o1, ChallengeCandidate o2) {
+			if (o1.getDifficulty() != o2.getDifficulty()) {
+				return o1.getDifficulty() < o2.getDifficulty() ? -1 : 1;
+			}
+			if (o1.getBonusScore() != o2.getBonusScore()) {
+				return Double.compare(o2.getBonusScore(), o1.getBonusScore());
+			}
+			return Double.compare(o2.getWi(), o1.getWi());
+		}
+	};
+
 	private RecommendationSystemConfig configuration;
 
 	/**
@@ -37,158 +68,187 @@ public class RecommendationSystemChallengeFilteringAndSorting {
 		logger.debug("RecommendationSystemChallengeFilteringAndSorting init complete");
 	}
 
+	/**
+	 * @see #filterAndSort(Map, Leaderboard)
+	 */
 	public Map<String, List<ChallengeDataDTO>> filterAndSort(
 			Map<String, List<ChallengeDataDTO>> evaluatedChallenges,
 			List<LeaderboardPosition> leaderboard) {
+		return filterAndSort(evaluatedChallenges, new Leaderboard(leaderboard));
+	}
+
+	/**
+	 * Sort challenges of every player, challenges whose prize let player
+	 * overtake the nearest player with a better score come first. Duplicates
+	 * are removed as {@link #removeDuplicates(Map)} does: of the challenges of
+	 * a player with the same model name, counter name and target only the
+	 * first one in sorted order is returned. Lists of evaluatedChallenges are
+	 * not changed, apart from the wi written in data of every challenge
+	 * 
+	 * @param evaluatedChallenges
+	 * @param leaderboard
+	 * @return sorted challenges by playerId, without duplicates
+	 * @see #filterAndSortCandidates(Map, Leaderboard)
+	 */
+	public Map<String, List<ChallengeDataDTO>> filterAndSort(
+			Map<String, List<ChallengeDataDTO>> evaluatedChallenges,
+			Leaderboard leaderboard) {
+		if (evaluatedChallenges == null || leaderboard == null) {
+			throw new IllegalArgumentException(
+					"challenges and leaderboard must be not null");
+		}
 		Map<String, List<ChallengeDataDTO>> result = new HashMap<String, List<ChallengeDataDTO>>();
-		Double wi = 0.0;
-		for (String playerId : evaluatedChallenges.keySet()) {
-			// creating two list for the challenges that can improve the player
-			// in the leader board and not improving
-			List<ChallengeDataDTO> improvingLeaderboard = new ArrayList<ChallengeDataDTO>();
-			List<ChallengeDataDTO> notImprovingLeaderboard = new ArrayList<ChallengeDataDTO>();
-			for (ChallengeDataDTO challenge : evaluatedChallenges.get(playerId)) {
-				Double baseline = (Double) challenge.getData().get("baseline");
-				Double target = 0.0;
-				if (challenge.getData().get("target") instanceof Integer) {
-					target = new Double((Integer) challenge.getData().get(
-							"target"));
-				} else {
-					target = (Double) challenge.getData().get("target");
-				}
-				Integer weight = configuration.getWeight((String) challenge
-						.getData().get("counterName"));
-				Double percentageImprovment = 0.0;
-				if (baseline != null) {
-					if (challenge.getModelName().equals("percentageIncrement")) {
-						Double p = (Double) challenge.getData().get(
-								"percentage");
-						percentageImprovment = p;
-					} else {
-						percentageImprovment = Math.round(Math.abs(baseline
-								- target)
-								* 100.0 / baseline) / 100.0;
-					}
-				} else {
-					percentageImprovment = 1.0;
-				}
-				Double prize = (Double) challenge.getData().get("bonusScore");
-				// calculating the WI for each mode based on weight of Mode and
-				// improvement percentage
-				wi = percentageImprovment * weight;
-				challenge.getData().put("wi", wi);
-				// finding the position of the player in the leader board
-				LeaderboardPosition position = findPosition(leaderboard,
-						playerId);
-				if (position.getIndex() == 0) {
-					// all the challenges;
-					improvingLeaderboard.add(challenge);
-				} else {
-					LeaderboardPosition pos = findScoreMoreThanMe(leaderboard,
-							position.getIndex(), position.getScore());
-					if (prize + position.getScore() > pos.getScore()) {
-						// I like this challenge, because improve my position
-						// into the leader board
-						improvingLeaderboard.add(challenge);
-					} else {
-						notImprovingLeaderboard.add(challenge);
-
-					}
-				}
+		DuplicateFilter duplicates = new DuplicateFilter();
+		for (Map.Entry<String, List<ChallengeDataDTO>> entry : evaluatedChallenges
+				.entrySet()) {
+			List<ChallengeCandidate> candidates = new ArrayList<ChallengeCandidate>(
+					entry.getValue().size());
+			for (ChallengeDataDTO challenge : entry.getValue()) {
+				candidates.add(ChallengeCandidate.of(challenge));
 			}
-			// make some initialization for result data structure
-			if (result.get(playerId) == null) {
-				result.put(playerId, new ArrayList<ChallengeDataDTO>());
+			List<ChallengeCandidate> sorted = filterAndSort(entry.getKey(),
+					candidates, leaderboard, duplicates);
+			for (ChallengeCandidate candidate : candidates) {
+				// writes wi back to challenge, duplicates too
+				candidate.toDTO(null, null, null);
 			}
-			// sorting both lists
-			Collections
-					.sort(improvingLeaderboard, new DifficultyWiComparator());
-			Collections.sort(notImprovingLeaderboard,
-					new DifficultyPrizeComparator());
-
-			// add for first the improving leaderboard challenges
-			if (!improvingLeaderboard.isEmpty()) {
-				result.get(playerId).addAll(improvingLeaderboard);
-			}
-			if (!notImprovingLeaderboard.isEmpty()) {
-				result.get(playerId).addAll(notImprovingLeaderboard);
-
+			List<ChallengeDataDTO> challenges = new ArrayList<ChallengeDataDTO>(
+					sorted.size());
+			for (ChallengeCandidate candidate : sorted) {
+				challenges.add(candidate.getSource());
 			}
+			result.put(entry.getKey(), challenges);
 		}
 		logger.debug("Filtering and sorting complete for "
 				+ result.keySet().size() + " players");
 		return result;
 	}
 
-	private LeaderboardPosition findScoreMoreThanMe(
-			List<LeaderboardPosition> leaderboard, Integer index, Integer score) {
-		for (int i = index; i >= 0; i--) {
-			if (leaderboard.get(i).getScore() > score) {
-				return leaderboard.get(i);
-			}
+	/**
+	 * Sort candidates of every player, candidates whose prize let player
+	 * overtake the nearest player with a better score come first. Duplicates
+	 * are removed, keeping the first candidate of every model name, counter
+	 * name and target
+	 * 
+	 * @param candidates
+	 *            valuated candidates by playerId
+	 * @param leaderboard
+	 * @return sorted candidates by playerId
+	 */
+	public Map<String, List<ChallengeCandidate>> filterAndSortCandidates(
+			Map<String, List<ChallengeCandidate>> candidates,
+			Leaderboard leaderboard) {
+		if (candidates == null || leaderboard == null) {
+			throw new IllegalArgumentException(
+					"candidates and leaderboard must be not null");
 		}
-		// in a game with no score or where all have the same value, we'll get a
-		// null pointer exception
-		return leaderboard.get(index);
+		Map<String, List<ChallengeCandidate>> result = new HashMap<String, List<ChallengeCandidate>>();
+		DuplicateFilter duplicates = new DuplicateFilter();
+		for (Map.Entry<String, List<ChallengeCandidate>> entry : candidates
+				.entrySet()) {
+			result.put(entry.getKey(), filterAndSort(entry.getKey(),
+					entry.getValue(), leaderboard, duplicates));
+		}
+		logger.debug("Filtering and sorting complete for "
+				+ result.keySet().size() + " players");
+		return result;
 	}
 
-	private LeaderboardPosition findPosition(
-			List<LeaderboardPosition> leaderboard, String playerId) {
-		Integer currentIndex = 0;
-		for (LeaderboardPosition pos : leaderboard) {
-			if (playerId == pos.getPlayerId()) {
-				pos.setIndex(currentIndex);
-				return pos;
+	private List<ChallengeCandidate> filterAndSort(String playerId,
+			List<ChallengeCandidate> candidates, Leaderboard leaderboard,
+			DuplicateFilter duplicates) {
+		// finding the position of the player in the leader board, players
+		// not in leader board have no score
+		int rank = leaderboard.rank(playerId);
+		int score = rank >= 0 ? leaderboard.getScore(rank) : 0;
+		// score of the nearest player with a better score, in a game with
+		// no score or where all have the same value it is player score
+		int better = score;
+		if (rank != 0) {
+			int betterRank = leaderboard.betterRank(score);
+			if (betterRank >= 0) {
+				better = leaderboard.getScore(betterRank);
+			}
+		}
+		// creating two list for the challenges that can improve the player
+		// in the leader board and not improving
+		List<ChallengeCandidate> improvingLeaderboard = new ArrayList<ChallengeCandidate>();
+		List<ChallengeCandidate> notImprovingLeaderboard = new ArrayList<ChallengeCandidate>();
+		for (ChallengeCandidate challenge : candidates) {
+			double baseline = challenge.getBaseline();
+			int weight = configuration.getWeight(challenge.getCounterName());
+			double percentageImprovment;
+			if (!Double.isNaN(baseline)) {
+				if (challenge.isPercentageIncrement()) {
+					percentageImprovment = challenge.getPercentage();
+				} else {
+					percentageImprovment = Math.round(Math.abs(baseline
+							- challenge.getTarget())
+							* 100.0 / baseline) / 100.0;
+				}
+			} else {
+				percentageImprovment = 1.0;
+			}
+			// calculating the WI for each mode based on weight of Mode and
+			// improvement percentage
+			challenge.setWi(percentageImprovment * weight);
+			if (rank == 0) {
+				// all the challenges;
+				improvingLeaderboard.add(challenge);
+			} else if (challenge.getBonusScore() + score > better) {
+				// I like this challenge, because improve my position
+				// into the leader board
+				improvingLeaderboard.add(challenge);
 			} else {
-				currentIndex++;
+				notImprovingLeaderboard.add(challenge);
 			}
 		}
-		return null;
+		// sorting both lists
+		Collections.sort(improvingLeaderboard, DIFFICULTY_WI);
+		Collections.sort(notImprovingLeaderboard, DIFFICULTY_PRIZE);
+
+		// add for first the improving leaderboard challenges, keeping only the
+		// first challenge of duplicates
+		List<ChallengeCandidate> sorted = new ArrayList<ChallengeCandidate>(
+				improvingLeaderboard.size() + notImprovingLeaderboard.size());
+		duplicates.clear();
+		for (ChallengeCandidate challenge : improvingLeaderboard) {
+			if (duplicates.add(challenge)) {
+				sorted.add(challenge);
+			}
+		}
+		for (ChallengeCandidate challenge : notImprovingLeaderboard) {
+			if (duplicates.add(challenge)) {
+				sorted.add(challenge);
+			}
+		}
+		return sorted;
 	}
 
+	/**
+	 * Remove challenges of a player with the same model name, counter name
+	 * and target of a previous one
+	 * 
+	 * @param filteredChallenges
+	 * @return filteredChallenges, with lists of players changed in place
+	 */
 	public Map<String, List<ChallengeDataDTO>> removeDuplicates(
 			Map<String, List<ChallengeDataDTO>> filteredChallenges) {
-		List<ChallengeDataDTO> challengeIdToRemove = new ArrayList<ChallengeDataDTO>();
-		for (String key : filteredChallenges.keySet()) {
-
-			Iterator<ChallengeDataDTO> iter = filteredChallenges.get(key)
-					.iterator();
-			while (iter.hasNext()) {
-				ChallengeDataDTO dto = iter.next();
-				Iterator<ChallengeDataDTO> innerIter = filteredChallenges.get(
-						key).iterator();
-				int count = 0;
-				while (innerIter.hasNext()) {
-					ChallengeDataDTO idto = innerIter.next();
-
-					if (dto.getModelName().equals(idto.getModelName())
-							&& dto.getData().get("counterName")
-									.equals(idto.getData().get("counterName"))) {
-						double t = 0;
-						double ti = 0;
-						if (dto.getData().get("target") instanceof Double) {
-							t = (Double) dto.getData().get("target");
-						} else {
-							t = (Integer) dto.getData().get("target");
-						}
-						if (idto.getData().get("target") instanceof Double) {
-							ti = (Double) idto.getData().get("target");
-						} else {
-							ti = (Integer) idto.getData().get("target");
-						}
-						if (t == ti) {
-							count++;
-						}
-					}
-					if (count > 1) {
-						challengeIdToRemove.add(idto);
-						count = 1;
-					}
+		DuplicateFilter duplicates = new DuplicateFilter();
+		List<ChallengeDataDTO> kept = new ArrayList<ChallengeDataDTO>();
+		for (List<ChallengeDataDTO> challenges : filteredChallenges.values()) {
+			duplicates.clear();
+			kept.clear();
+			for (ChallengeDataDTO challenge : challenges) {
+				if (duplicates.add(challenge)) {
+					kept.add(challenge);
 				}
-
 			}
-			filteredChallenges.get(key).removeAll(challengeIdToRemove);
-			challengeIdToRemove.clear();
+			// removing one by one would shift the tail of list every time
+			if (kept.size() < challenges.size()) {
+				challenges.clear();
+				challenges.addAll(kept);
+			}
 		}
 		return filteredChallenges;
 	}
@@ -22,8 +22,18 @@ public class DifficultyCalculator {
 		if (quartiles == null || baseline == null || target == null) {
 			throw new IllegalArgumentException("All input must be not null");
 		}
-		if (quartiles.get(4) == null || quartiles.get(7) == null
-				|| quartiles.get(9) == null) {
+		return computeDifficulty(zones(quartiles), baseline, target);
+	}
+
+	/**
+	 * @param quartiles
+	 * @return upper bounds of difficulty zones, computed once for a mode
+	 * @throws IllegalArgumentException
+	 *             if quartiles 4, 7 or 9 are not defined
+	 */
+	public static double[] zones(Map<Integer, Double> quartiles) {
+		if (quartiles == null || quartiles.get(4) == null
+				|| quartiles.get(7) == null || quartiles.get(9) == null) {
 			throw new IllegalArgumentException(
 					"Quartiles that must be defined: 4,7,9");
 		}
@@ -36,11 +46,26 @@ public class DifficultyCalculator {
 		values[3] = quartiles.get(9) + virtualValue;
 		values[4] = quartiles.get(9) + virtualValue * 2;
 		values[5] = quartiles.get(9) + virtualValue * 3;
+		return values;
+	}
 
-		Integer zone = computeZone(values, baseline);
-		Integer targetZone = computeZone(values, target);
-
-		Integer diffZone = targetZone - zone;
+	/**
+	 * @param zones
+	 *            upper bounds of difficulty zones
+	 * @param baseline
+	 * @param target
+	 * @return computed difficulty value for given input
+	 * @throws IllegalArgumentException
+	 *             if baseline or target are NaN
+	 * @see #zones(Map)
+	 */
+	public static int computeDifficulty(double[] zones, double baseline,
+			double target) {
+		if (Double.isNaN(baseline) || Double.isNaN(target)) {
+			throw new IllegalArgumentException(
+					"baseline and target must be numbers");
+		}
+		int diffZone = computeZone(zones, target) - computeZone(zones, baseline);
 		if (diffZone == 0) {
 			return EASY;
 		}
@@ -53,23 +78,13 @@ public class DifficultyCalculator {
 		return VERY_HARD;
 	}
 
-	private static Integer computeZone(double[] values, Double baseline) {
-		if (baseline <= values[0]) {
-			return 1;
-		} else if (baseline > values[0] && baseline <= values[1]) {
-			return 2;
-		} else if (baseline > values[1] && baseline <= values[2]) {
-			return 3;
-		} else if (baseline > values[2] && baseline <= values[3]) {
-			return 4;
-		} else if (baseline > values[3] && baseline <= values[4]) {
-			return 5;
-		} else if (baseline > values[4] && baseline <= values[5]) {
-			return 6;
-		} else if (baseline > values[5]) {
-			return 7;
+	private static int computeZone(double[] values, double baseline) {
+		for (int i = 0; i < values.length; i++) {
+			if (baseline <= values[i]) {
+				return i + 1;
+			}
 		}
-		return null;
+		return values.length + 1;
 	}
 
 }
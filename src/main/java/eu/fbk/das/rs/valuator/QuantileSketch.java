@@ -0,0 +1,255 @@
+package eu.fbk.das.rs.valuator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.math.Quantiles;
+
+/**
+ * Mergeable quantile sketch of a stream of values. Up to an exact limit values are kept in a
+ * primitive array and quantiles are computed exactly, as {@link Quantiles} does. Past the limit
+ * values are summarized by compactors in the style of KLL: every level keeps at most k values,
+ * each standing for 2^level values of the stream, and a full level is sorted and every other
+ * value promoted to the next level. Memory is then O(k log(n/k)) and the rank error of a
+ * quantile is a small fraction of n.
+ *
+ * Sketches filled from different shards of the same stream can be merged.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_K = 256;
+    public static final int DEFAULT_EXACT_LIMIT = 1 << 17;
+
+    private final int k;
+    private final int exactLimit;
+    private final Random random = new Random(0x5eed);
+
+    private long count;
+    /**
+     * values while sketch is exact, null afterwards
+     */
+    private double[] exact = new double[16];
+    private int exactSize;
+    private double[][] levels = new double[0][];
+    private int[] sizes = new int[0];
+
+    /**
+     * Create a sketch with {@link #DEFAULT_K} values per level, exact up to
+     * {@link #DEFAULT_EXACT_LIMIT} values
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K, DEFAULT_EXACT_LIMIT);
+    }
+
+    /**
+     * @param k values kept in every level, higher is more accurate
+     * @param exactLimit number of values up to which quantiles are exact
+     * @throws IllegalArgumentException if k is lower than 2 or exact limit is negative
+     */
+    public QuantileSketch(int k, int exactLimit) {
+        if (k < 2) {
+            throw new IllegalArgumentException("k must be at least 2");
+        }
+        if (exactLimit < 0) {
+            throw new IllegalArgumentException("exact limit must be not negative");
+        }
+        this.k = k;
+        this.exactLimit = exactLimit;
+    }
+
+    public void add(double value) {
+        count++;
+        insert(value);
+    }
+
+    /**
+     * Add values of another sketch, that is left unchanged
+     *
+     * @param other
+     */
+    public void merge(QuantileSketch other) {
+        if (other == null) {
+            throw new IllegalArgumentException("sketch must be not null");
+        }
+        count += other.count;
+        if (other.exact != null) {
+            for (int i = 0; i < other.exactSize; i++) {
+                insert(other.exact[i]);
+            }
+            return;
+        }
+        if (exact != null) {
+            compress();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                push(h, other.levels[h][i]);
+            }
+        }
+    }
+
+    /**
+     * @return number of values added
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return true if quantiles are computed on every value
+     */
+    public boolean isExact() {
+        return exact != null;
+    }
+
+    /**
+     * @param scale
+     * @param indexes
+     * @return quantiles of indexes on given scale by index, interpolated between values as
+     *         {@link Quantiles} does
+     * @throws IllegalArgumentException if sketch is empty
+     */
+    public Map<Integer, Double> quantiles(int scale, int... indexes) {
+        if (count == 0) {
+            throw new IllegalArgumentException("Cannot calculate quantiles of an empty dataset");
+        }
+        if (exact != null) {
+            return Quantiles.scale(scale).indexes(indexes)
+                    .computeInPlace(Arrays.copyOf(exact, exactSize));
+        }
+        Items items = items();
+        Map<Integer, Double> result = new HashMap<Integer, Double>();
+        for (int index : indexes) {
+            if (index < 0 || index > scale) {
+                throw new IllegalArgumentException("index must be between 0 and scale");
+            }
+            // position of quantile between first and last value
+            double position = (double) index * (count - 1) / scale;
+            long lower = (long) Math.floor(position);
+            double value = items.valueAt(lower);
+            if (position > lower) {
+                value += (position - lower) * (items.valueAt(lower + 1) - value);
+            }
+            result.put(index, value);
+        }
+        return result;
+    }
+
+    private void insert(double value) {
+        if (exact != null) {
+            if (exactSize < exactLimit) {
+                if (exactSize == exact.length) {
+                    exact = Arrays.copyOf(exact, Math.min(exactLimit, exactSize * 2));
+                }
+                exact[exactSize++] = value;
+                return;
+            }
+            compress();
+        }
+        push(0, value);
+    }
+
+    /**
+     * Move exact values to compactors
+     */
+    private void compress() {
+        double[] values = exact;
+        int size = exactSize;
+        exact = null;
+        exactSize = 0;
+        for (int i = 0; i < size; i++) {
+            push(0, values[i]);
+        }
+    }
+
+    private void push(int level, double value) {
+        if (level >= levels.length) {
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            levels[level] = new double[k];
+        }
+        if (sizes[level] == k) {
+            compact(level);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    /**
+     * Promote every other value of a sorted level, starting at random offset. With an odd
+     * number of values the largest stays on the level, so total weight is kept
+     */
+    private void compact(int level) {
+        double[] values = levels[level];
+        int size = sizes[level];
+        Arrays.sort(values, 0, size);
+        int even = size & ~1;
+        sizes[level] = 0;
+        double kept = values[size - 1];
+        for (int i = random.nextBoolean() ? 1 : 0; i < even; i += 2) {
+            push(level + 1, values[i]);
+        }
+        if (even < size) {
+            // level array is not changed by promotion to next level
+            levels[level][sizes[level]++] = kept;
+        }
+    }
+
+    /**
+     * @return values of every level with their weight, sorted by value
+     */
+    private Items items() {
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            Arrays.sort(levels[h], 0, sizes[h]);
+            n += sizes[h];
+        }
+        double[] values = new double[n];
+        long[] weights = new long[n];
+        int[] cursors = new int[levels.length];
+        // merge sorted levels
+        for (int i = 0; i < n; i++) {
+            int min = -1;
+            for (int h = 0; h < levels.length; h++) {
+                if (cursors[h] < sizes[h] && (min < 0
+                        || levels[h][cursors[h]] < levels[min][cursors[min]])) {
+                    min = h;
+                }
+            }
+            values[i] = levels[min][cursors[min]++];
+            weights[i] = 1L << min;
+        }
+        return new Items(values, weights);
+    }
+
+    private static class Items {
+        private final double[] values;
+        /**
+         * cumulative weight up to every value included
+         */
+        private final long[] cumulative;
+
+        private Items(double[] values, long[] weights) {
+            this.values = values;
+            cumulative = new long[weights.length];
+            long sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                sum += weights[i];
+                cumulative[i] = sum;
+            }
+        }
+
+        /**
+         * @param rank zero based
+         * @return approximate value of rank
+         */
+        private double valueAt(long rank) {
+            int i = Arrays.binarySearch(cumulative, rank + 1);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return values[Math.min(i, values.length - 1)];
+        }
+    }
+}
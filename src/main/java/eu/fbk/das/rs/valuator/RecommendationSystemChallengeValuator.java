@@ -1,7 +1,5 @@
 package eu.fbk.das.rs.valuator;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,15 +7,12 @@ import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.common.math.Quantiles;
-
+import eu.fbk.das.rs.challengeGeneration.ChallengeCandidate;
 import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
 import eu.fbk.das.rs.challengeGeneration.SingleModeConfig;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 import eu.trentorise.game.challenges.rest.Content;
-import eu.trentorise.game.challenges.rest.PointConcept;
-import eu.trentorise.game.challenges.rest.PointConcept.PeriodInstanceImpl;
-import eu.trentorise.game.challenges.rest.PointConcept.PeriodInternal;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
 
 public class RecommendationSystemChallengeValuator {
 
@@ -57,73 +52,122 @@ public class RecommendationSystemChallengeValuator {
 
     public Map<String, List<ChallengeDataDTO>> valuate(
             Map<String, List<ChallengeDataDTO>> combinations, List<Content> input) {
+        return valuate(combinations, GameSnapshot.build(input));
+    }
+
+    /**
+     * Valuate challenges difficulty and prize using mode scores distribution read from a
+     * snapshot
+     * 
+     * @param combinations
+     * @param snapshot
+     * @return valuated challenges
+     * @see #valuateCandidates(Map, GameSnapshot)
+     */
+    public Map<String, List<ChallengeDataDTO>> valuate(
+            Map<String, List<ChallengeDataDTO>> combinations, GameSnapshot snapshot) {
+        Map<String, double[]> modeZones = zones(snapshot);
+        for (List<ChallengeDataDTO> challenges : combinations.values()) {
+            for (ChallengeDataDTO challenge : challenges) {
+                ChallengeCandidate candidate = ChallengeCandidate.of(challenge);
+                if (valuate(candidate, modeZones)) {
+                    // writes difficulty and prize back to challenge
+                    candidate.toDTO(null, null, null);
+                }
+            }
+        }
+        logger.info("Challenge valuation completed ");
+        return combinations;
+    }
+
+    /**
+     * Valuate candidates difficulty and prize using mode scores distribution read from a
+     * snapshot, summarized by a {@link QuantileSketch} for every mode
+     * 
+     * @param candidates
+     * @param snapshot
+     * @return valuated candidates
+     */
+    public Map<String, List<ChallengeCandidate>> valuateCandidates(
+            Map<String, List<ChallengeCandidate>> candidates, GameSnapshot snapshot) {
+        Map<String, double[]> modeZones = zones(snapshot);
+        for (List<ChallengeCandidate> challenges : candidates.values()) {
+            for (ChallengeCandidate candidate : challenges) {
+                valuate(candidate, modeZones);
+            }
+        }
+        logger.info("Challenge valuation completed ");
+        return candidates;
+    }
 
+    /**
+     * @param snapshot
+     * @return difficulty zones of every mode, from the percentiles of mode scores from start to
+     *         now
+     */
+    private Map<String, double[]> zones(GameSnapshot snapshot) {
+        Map<String, double[]> modeZones = new HashMap<String, double[]>();
         for (int i = 0; i < configuration.getDefaultMode().length; i++) {
             String mode = configuration.getDefaultMode()[i];
-            List<Double> activePlayersvalues = new ArrayList<Double>();
-            for (Content content : input) {
-                for (PointConcept pc : content.getState().getPointConcept()) {
-                    // Adding filter for users
-                    // if
-                    // (RecommendationSystemConfig.getPlayerIds().contains(content.getPlayerId()))
-                    // {
-                    if (pc.getName().equals(mode)) {
-                        for (String period : pc.getPeriods().keySet()) {
-                            PeriodInternal periodInstance = pc.getPeriods().get(period);
-                            for (PeriodInstanceImpl p : periodInstance.getInstances().values()) {
-                                if (p.getScore() > 0) {
-                                    activePlayersvalues.add(p.getScore());
-                                }
-                            }
-                        }
-                    }
-                }
+            modeZones.put(mode,
+                    DifficultyCalculator.zones(sketch(snapshot, mode).quantiles(10, 4, 7, 9)));
+        }
+        return modeZones;
+    }
+
+    /**
+     * @return true if candidate has been valuated, false if its mode or model are not
+     *         valuated or it has no baseline or target
+     */
+    private boolean valuate(ChallengeCandidate candidate, Map<String, double[]> modeZones) {
+        String counterName = candidate.getCounterName();
+        double[] zones = modeZones.get(counterName);
+        if (zones == null) {
+            return false;
+        }
+        if (candidate.isPercentageIncrement()) {
+            if (Double.isNaN(candidate.getBaseline()) || Double.isNaN(candidate.getTarget())) {
+                // challenge read without baseline or target
+                return false;
             }
-            Collections.sort(activePlayersvalues);
-
-            // finding the percentiles of mode walk "weekly" from start to
-            // now
-            Map<Integer, Double> quartiles =
-                    Quantiles.scale(10).indexes(4, 7, 9).compute(activePlayersvalues);
-
-            for (String playerId : combinations.keySet()) {
-
-                List<ChallengeDataDTO> challenges = combinations.get(playerId);
-
-                for (ChallengeDataDTO challenge : challenges) {
-                    String counterName = (String) challenge.getData().get("counterName");
-                    if (counterName.equals(mode)) {
-                        if (challenge.getModelName() == "percentageIncrement") {
-                            Double baseline = (Double) challenge.getData().get("baseline");
-                            Double target = (Double) challenge.getData().get("target");
-                            Integer difficulty = DifficultyCalculator.computeDifficulty(quartiles,
-                                    baseline, target);
-                            // + ", target=" + target + " difficulty="
-                            // + difficulty);
-                            challenge.getData().put("difficulty", difficulty);
-
-                            double d = (double) challenge.getData().get("percentage");
-
-                            Double prize = calculatePrize(difficulty, d, counterName);
-                            challenge.getData().put("bonusScore", prize);
-                        } else if (challenge.getModelName() == "absoluteIncrement") {
-                            challenge.getData().put("difficulty", DifficultyCalculator.MEDIUM);
-                            Double tryOnceBonus = prizeMatrixMap.get(counterName).getTryOncePrize(
-                                    RecommendationSystemConfig.PRIZE_MATRIX_TRY_ONCE_ROW_INDEX,
-                                    RecommendationSystemConfig.PRIZE_MATRIX_TRY_ONCE_COL_INDEX);
-                            challenge.getData().put("bonusScore", tryOnceBonus);
-                        }
+            int difficulty = DifficultyCalculator.computeDifficulty(zones,
+                    candidate.getBaseline(), candidate.getTarget());
+            candidate.setDifficulty(difficulty);
+            candidate.setBonusScore(
+                    calculatePrize(difficulty, candidate.getPercentage(), counterName));
+            return true;
+        }
+        if (ChallengeCandidate.ABSOLUTE_INCREMENT.equals(candidate.getModelName())) {
+            candidate.setDifficulty(DifficultyCalculator.MEDIUM);
+            candidate.setBonusScore(prizeMatrixMap.get(counterName).getTryOncePrize(
+                    RecommendationSystemConfig.PRIZE_MATRIX_TRY_ONCE_ROW_INDEX,
+                    RecommendationSystemConfig.PRIZE_MATRIX_TRY_ONCE_COL_INDEX));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param snapshot
+     * @param mode
+     * @return distribution of positive scores of every period instance of mode, filled in one
+     *         pass over instance scores
+     */
+    private static QuantileSketch sketch(GameSnapshot snapshot, String mode) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (String period : snapshot.getPeriods(mode)) {
+            for (double[] instance : snapshot.getInstanceScores(mode, period)) {
+                for (double score : instance) {
+                    if (score > 0) {
+                        sketch.add(score);
                     }
                 }
-                combinations.put(playerId, challenges);
             }
         }
-        logger.info("Challenge valuation completed ");
-        return combinations;
-
+        return sketch;
     }
 
-    private Double calculatePrize(Integer difficulty, double percent, String modeName) {
+    private Double calculatePrize(int difficulty, double percent, String modeName) {
         // TODO: config!
         int y = 0;
         if (percent == 0.1) {
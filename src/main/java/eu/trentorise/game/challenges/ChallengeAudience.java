@@ -0,0 +1,258 @@
+package eu.trentorise.game.challenges;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import eu.trentorise.game.challenges.api.Constants;
+import eu.trentorise.game.challenges.util.BatchMatcher;
+import eu.trentorise.game.challenges.util.ChallengeRuleRow;
+import eu.trentorise.game.challenges.util.RangeTask;
+
+/**
+ * Audience of every challenge of a definition file, without generating any
+ * challenge: players matching every challenge, players who would get it once
+ * the limit of challenges per player of {@link ChallengesRulesGenerator} is
+ * applied in definition order, and overlaps between challenges. Players are
+ * counted in ranges evaluated as independent tasks, every task with its own
+ * counters and no allocation per player
+ */
+public class ChallengeAudience {
+
+	private static final int THRESHOLD = 4096;
+
+	private final List<ChallengeRuleRow> challenges;
+	private final int limit;
+	private final Counts counts;
+
+	private ChallengeAudience(List<ChallengeRuleRow> challenges, int limit,
+			Counts counts) {
+		this.challenges = challenges;
+		this.limit = limit;
+		this.counts = counts;
+	}
+
+	/**
+	 * Estimate audience with the limit of challenges per player of
+	 * {@link ChallengesRulesGenerator}, using a {@link ForkJoinPool} with a
+	 * thread for every available processor
+	 *
+	 * @param matches
+	 * @return audience of every challenge
+	 */
+	public static ChallengeAudience estimate(BatchMatcher.Result matches) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return estimate(matches,
+					ChallengesRulesGenerator.challengeLimitNumber, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @param matches
+	 *            players eligible for every challenge
+	 * @param limit
+	 *            maximum number of challenges for a player, assigned in
+	 *            definition order
+	 * @param pool
+	 * @return audience of every challenge
+	 */
+	public static ChallengeAudience estimate(BatchMatcher.Result matches,
+			int limit, ForkJoinPool pool) {
+		if (matches == null || pool == null) {
+			throw new IllegalArgumentException(
+					"matches and pool must be not null");
+		}
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must be not negative");
+		}
+		Counts counts = pool.invoke(new RangeTask<Counts>(new Audience(
+				matches, limit), 0, matches.size(), THRESHOLD));
+		return new ChallengeAudience(matches.getChallenges(), limit, counts);
+	}
+
+	/**
+	 * @return challenges in definition order
+	 */
+	public List<ChallengeRuleRow> getChallenges() {
+		return challenges;
+	}
+
+	/**
+	 * @param challenge
+	 *            index of challenge in definition order
+	 * @return players matching challenge criteria
+	 */
+	public int getMatched(int challenge) {
+		return counts.matched[challenge];
+	}
+
+	/**
+	 * @param challenge
+	 *            index of challenge in definition order
+	 * @return players who would get challenge, after the limit of challenges
+	 *         per player
+	 */
+	public int getAssigned(int challenge) {
+		return counts.assigned[challenge];
+	}
+
+	/**
+	 * @param challenge
+	 * @param other
+	 * @return players matching both challenges
+	 */
+	public int getOverlap(int challenge, int other) {
+		if (challenge == other) {
+			return counts.matched[challenge];
+		}
+		return challenge < other ? counts.overlap[challenge][other]
+				: counts.overlap[other][challenge];
+	}
+
+	/**
+	 * @param challenge
+	 * @return players matching challenge and at least another one
+	 */
+	public int getShared(int challenge) {
+		return counts.shared[challenge];
+	}
+
+	/**
+	 * @return number of players by number of challenges they match
+	 */
+	public int[] getPlayersByMatches() {
+		return counts.byMatches.clone();
+	}
+
+	/**
+	 * @return human readable audience of every challenge, with overlap
+	 *         statistics
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CHALLENGE_NAME;MATCHED;ASSIGNED;CAPPED;SHARED;MAX_OVERLAP_WITH");
+		sb.append(Constants.LINE_SEPARATOR);
+		int assigned = 0;
+		for (int i = 0; i < challenges.size(); i++) {
+			int max = -1;
+			for (int j = 0; j < challenges.size(); j++) {
+				if (j != i
+						&& getOverlap(i, j) > 0
+						&& (max < 0 || getOverlap(i, j) > getOverlap(i, max))) {
+					max = j;
+				}
+			}
+			sb.append(challenges.get(i).getName() + ";" + getMatched(i) + ";"
+					+ getAssigned(i) + ";" + (getMatched(i) - getAssigned(i))
+					+ ";" + getShared(i) + ";"
+					+ (max < 0 ? "" : challenges.get(max).getName() + " ("
+							+ getOverlap(i, max) + ")"));
+			sb.append(Constants.LINE_SEPARATOR);
+			assigned += getAssigned(i);
+		}
+		sb.append("Challenges assigned: " + assigned + ", limit per player: "
+				+ limit);
+		sb.append(Constants.LINE_SEPARATOR);
+		sb.append("Players by number of matching challenges:");
+		for (int k = 0; k < counts.byMatches.length; k++) {
+			if (counts.byMatches[k] > 0) {
+				sb.append(" " + k + "=" + counts.byMatches[k]);
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return report();
+	}
+
+	/**
+	 * Counters of a range of players, summed when ranges are joined
+	 */
+	private static class Counts {
+		private final int[] matched;
+		private final int[] assigned;
+		private final int[] shared;
+		/**
+		 * upper triangle only, first index lower than second
+		 */
+		private final int[][] overlap;
+		private final int[] byMatches;
+
+		private Counts(int challenges) {
+			matched = new int[challenges];
+			assigned = new int[challenges];
+			shared = new int[challenges];
+			overlap = new int[challenges][challenges];
+			byMatches = new int[challenges + 1];
+		}
+
+		private void add(Counts other) {
+			for (int i = 0; i < matched.length; i++) {
+				matched[i] += other.matched[i];
+				assigned[i] += other.assigned[i];
+				shared[i] += other.shared[i];
+				for (int j = i + 1; j < matched.length; j++) {
+					overlap[i][j] += other.overlap[i][j];
+				}
+			}
+			for (int k = 0; k < byMatches.length; k++) {
+				byMatches[k] += other.byMatches[k];
+			}
+		}
+	}
+
+	/**
+	 * Count players of a range
+	 */
+	private static class Audience implements RangeTask.Range<Counts> {
+		private final BatchMatcher.Result matches;
+		private final int limit;
+
+		private Audience(BatchMatcher.Result matches, int limit) {
+			this.matches = matches;
+			this.limit = limit;
+		}
+
+		@Override
+		public Counts compute(int from, int to) {
+			Counts counts = new Counts(matches.getChallenges().size());
+			BitSet challenges = new BitSet(matches.getChallenges().size());
+			for (int row = from; row < to; row++) {
+				count(matches.getChallenges(row, challenges), counts);
+			}
+			return counts;
+		}
+
+		@Override
+		public Counts merge(Counts left, Counts right) {
+			left.add(right);
+			return left;
+		}
+
+		private void count(BitSet challenges, Counts counts) {
+			int matching = challenges.cardinality();
+			counts.byMatches[matching]++;
+			int n = 0;
+			for (int i = challenges.nextSetBit(0); i >= 0; i = challenges
+					.nextSetBit(i + 1)) {
+				counts.matched[i]++;
+				// challenges are generated in definition order
+				if (n++ < limit) {
+					counts.assigned[i]++;
+				}
+				if (matching > 1) {
+					counts.shared[i]++;
+					for (int j = challenges.nextSetBit(i + 1); j >= 0; j = challenges
+							.nextSetBit(j + 1)) {
+						counts.overlap[i][j]++;
+					}
+				}
+			}
+		}
+	}
+}
@@ -1,10 +1,14 @@
 package eu.trentorise.game.challenges;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -20,13 +24,17 @@ import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
 import eu.trentorise.game.challenges.api.Constants;
 import eu.trentorise.game.challenges.exception.UndefinedChallengeException;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
-import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.FileGameStateSource;
+import eu.trentorise.game.challenges.rest.GameStateSource;
 import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
+import eu.trentorise.game.challenges.rest.RestGameStateSource;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.snapshot.GameSnapshotStore;
+import eu.trentorise.game.challenges.util.BatchMatcher;
 import eu.trentorise.game.challenges.util.CalendarUtil;
 import eu.trentorise.game.challenges.util.ChallengeRuleRow;
 import eu.trentorise.game.challenges.util.ChallengeRules;
 import eu.trentorise.game.challenges.util.ChallengeRulesLoader;
-import eu.trentorise.game.challenges.util.Matcher;
 
 /**
  * Command line tool for challenge generation, requires in input</br> -
@@ -69,54 +77,90 @@ public class ChallengeGeneratorTool {
 		String username = "";
 		String password = "";
 		String filterIds = "";
+		String snapshotDir = null;
+		String stateFile = null;
 		Boolean useRecommendationSystem = Boolean.FALSE;
 		Boolean useFiltering = Boolean.FALSE;
+		boolean dryRun = false;
+		// option values are positional arguments, in this order, of given
+		// options only
+		Iterator<String> values = cmd.getArgList().iterator();
 		if (cmd.hasOption("host")) {
-			host = cmd.getArgList().get(0);
-		} else {
-			printHelp();
-			return;
+			host = next(values);
 		}
 		if (cmd.hasOption("gameId")) {
-			gameId = cmd.getArgList().get(1);
-		} else {
-			printHelp();
-			return;
+			gameId = next(values);
 		}
 		if (cmd.hasOption("input")) {
-			input = cmd.getArgList().get(2);
-		} else {
-			printHelp();
-			return;
+			input = next(values);
 		}
 		if (cmd.hasOption("output")) {
-			output = cmd.getArgList().get(3);
+			output = next(values);
 		}
 		if (cmd.hasOption("username")) {
-			username = cmd.getArgList().get(4);
+			username = next(values);
 		}
 		if (cmd.hasOption("password")) {
-			password = cmd.getArgList().get(5);
+			password = next(values);
 		}
 		if (cmd.hasOption("useRecommendationSystem")) {
-			useRecommendationSystem = Boolean.valueOf(cmd.getArgList().get(6));
+			useRecommendationSystem = Boolean.valueOf(next(values));
 		}
 		if (cmd.hasOption("enableFiltering")) {
-			useFiltering = Boolean.valueOf(cmd.getArgList().get(7));
+			useFiltering = Boolean.valueOf(next(values));
 		}
 		if (cmd.hasOption("filterIds")) {
-			filterIds = cmd.getArgList().get(8);
+			filterIds = next(values);
+		}
+		if (cmd.hasOption("snapshotDir")) {
+			snapshotDir = cmd.getOptionValue("snapshotDir");
+		}
+		if (cmd.hasOption("stateFile")) {
+			stateFile = cmd.getOptionValue("stateFile");
+		}
+		if (cmd.hasOption("dryRun")) {
+			dryRun = true;
+		}
+		if (host == null || gameId == null || input == null || output == null
+				|| username == null || password == null || filterIds == null) {
+			// an option without its value
+			printHelp();
+			return;
+		}
+		// gamification engine is needed unless game state is read from a
+		// dump, or a dry run uses the stored snapshot of game
+		boolean stored = dryRun && snapshotDir != null && !gameId.isEmpty();
+		if (stateFile == null && !stored
+				&& (host.isEmpty() || gameId.isEmpty())) {
+			printHelp();
+			return;
 		}
 		// call generation
-		generate(host, gameId, input, output, username, password, filterIds,
-				useRecommendationSystem, useFiltering);
+		if (dryRun) {
+			dryRun(host, gameId, input, username, password, stateFile,
+					snapshotDir);
+		} else if (stateFile != null) {
+			replay(stateFile, gameId, input, output, filterIds,
+					useRecommendationSystem, useFiltering, snapshotDir);
+		} else {
+			generate(host, gameId, input, output, username, password,
+					filterIds, useRecommendationSystem, useFiltering,
+					snapshotDir);
+		}
+	}
+
+	/**
+	 * @return next positional argument, null if there are no more
+	 */
+	private static String next(Iterator<String> values) {
+		return values.hasNext() ? values.next() : null;
 	}
 
 	private static void printHelp() {
 		helpFormatter
 				.printHelp(
 						"challengeGeneratorTool",
-						"-host <host> -gameId <gameId> -input <input csv file> -template <template directory> [-output output file] [-username -password] -useRecommendationSystem <true/false> -filterIds <list of filter ids comma separated>",
+						"[-host <host> -gameId <gameId>] -input <input csv file> -template <template directory> [-output output file] [-username -password] -useRecommendationSystem <true/false> -filterIds <list of filter ids comma separated> [-snapshotDir <game snapshot directory>] [-stateFile <game state dump file or directory, instead of host>] [-dryRun]",
 						options, "");
 	}
 
@@ -136,7 +180,171 @@ public class ChallengeGeneratorTool {
 	public static void generate(String host, String gameId, String input,
 			String output, String username, String password, String filterIds,
 			Boolean useRecommendationSystem, Boolean useFiltering) {
-		// load
+		generate(host, gameId, input, output, username, password, filterIds,
+				useRecommendationSystem, useFiltering, null);
+	}
+
+	/**
+	 * Generate challenges starting from input file, reusing game snapshot
+	 * stored in snapshotDir
+	 * 
+	 * @param snapshotDir
+	 *            directory of game snapshots, null to read whole game state
+	 * @see GameSnapshotStore
+	 */
+	public static void generate(String host, String gameId, String input,
+			String output, String username, String password, String filterIds,
+			Boolean useRecommendationSystem, Boolean useFiltering,
+			String snapshotDir) {
+		ChallengeRules challengeDefinition = load(input);
+		if (challengeDefinition != null) {
+			generate(host, gameId, challengeDefinition, username, password,
+					output, filterIds, useRecommendationSystem, useFiltering,
+					snapshotDir);
+		}
+	}
+
+	/**
+	 * Generate challenges starting from input file, reading players from a
+	 * dump of game state instead of gamification engine
+	 * 
+	 * @param stateFile
+	 *            dump of game state, as single JSON file or directory of JSON
+	 *            pages
+	 * @param gameId
+	 *            game of generated challenges, empty to use the game of
+	 *            players in dump
+	 * @param input
+	 * @param output
+	 * @param filterIds
+	 * @param useRecommendationSystem
+	 * @param useFiltering
+	 * @param snapshotDir
+	 *            directory of game snapshots, null to read whole game state
+	 * @see FileGameStateSource
+	 */
+	public static void replay(String stateFile, String gameId, String input,
+			String output, String filterIds, Boolean useRecommendationSystem,
+			Boolean useFiltering, String snapshotDir) {
+		ChallengeRules challengeDefinition = load(input);
+		if (challengeDefinition == null) {
+			return;
+		}
+		FileGameStateSource source;
+		try {
+			source = new FileGameStateSource(new File(stateFile));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return;
+		}
+		System.out.println("Reading game state dump " + stateFile);
+		generate(source, gameId, challengeDefinition, output, filterIds,
+				useRecommendationSystem, useFiltering, snapshotDir);
+	}
+
+	/**
+	 * Print how many players every challenge of input file would reach,
+	 * without generating any challenge
+	 * 
+	 * @param host
+	 * @param gameId
+	 * @param input
+	 * @param username
+	 * @param password
+	 * @param stateFile
+	 *            dump of game state to read instead of gamification engine,
+	 *            null to contact host
+	 * @param snapshotDir
+	 *            directory of game snapshots, null to read whole game state.
+	 *            Without host and stateFile the stored snapshot of game is
+	 *            used as it is
+	 * @see #dryRun(GameStateSource, String, ChallengeRules, String)
+	 */
+	public static void dryRun(String host, String gameId, String input,
+			String username, String password, String stateFile,
+			String snapshotDir) {
+		ChallengeRules challengeDefinition = load(input);
+		if (challengeDefinition == null) {
+			return;
+		}
+		if (stateFile == null && (host == null || host.isEmpty())
+				&& snapshotDir != null) {
+			GameSnapshot snapshot = new GameSnapshotStore(new File(
+					snapshotDir)).load(gameId);
+			if (snapshot == null || snapshot.size() == 0) {
+				System.err.println("No stored snapshot of game " + gameId
+						+ " in " + snapshotDir);
+				return;
+			}
+			System.out.println("Using stored snapshot of game " + gameId);
+			dryRun(snapshot, challengeDefinition, new StringBuilder());
+			return;
+		}
+		GameStateSource source;
+		if (stateFile != null) {
+			try {
+				source = new FileGameStateSource(new File(stateFile));
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				return;
+			}
+		} else {
+			source = new RestGameStateSource(facade(host, username, password),
+					gameId, 0);
+		}
+		dryRun(source, gameId, challengeDefinition, snapshotDir);
+	}
+
+	/**
+	 * Match challenges and apply the limit of challenges per player, as
+	 * generation would, without creating challenges or writing files
+	 * 
+	 * @param source
+	 *            game state, from gamification engine or from a dump
+	 * @param gameId
+	 * @param challengeDefinitions
+	 * @param snapshotDir
+	 *            directory of game snapshots, null to read whole game state
+	 * @return log of dry run, with audience of every challenge
+	 * @see ChallengeAudience
+	 */
+	public static String dryRun(GameStateSource source, String gameId,
+			ChallengeRules challengeDefinitions, String snapshotDir) {
+		StringBuilder log = new StringBuilder();
+		GameSnapshot snapshot = read(source, gameId, snapshotDir, log);
+		if (snapshot == null) {
+			return log.toString();
+		}
+		return dryRun(snapshot, challengeDefinitions, log);
+	}
+
+	private static String dryRun(GameSnapshot snapshot,
+			ChallengeRules challengeDefinitions, StringBuilder log) {
+		long start = System.currentTimeMillis();
+		ChallengeAudience audience;
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			BatchMatcher.Result matches = new BatchMatcher(
+					challengeDefinitions).match(snapshot, pool);
+			audience = ChallengeAudience.estimate(matches,
+					ChallengesRulesGenerator.challengeLimitNumber, pool);
+		} finally {
+			pool.shutdown();
+		}
+		String msg = "Dry run, no challenge generated: "
+				+ challengeDefinitions.getChallenges().size()
+				+ " challenges matched against " + snapshot.size()
+				+ " players in " + (System.currentTimeMillis() - start)
+				+ " ms" + Constants.LINE_SEPARATOR + audience.report();
+		System.out.println(msg);
+		log.append(msg + Constants.LINE_SEPARATOR);
+		return log.toString();
+	}
+
+	/**
+	 * @return challenge definitions of input file, null if error
+	 */
+	private static ChallengeRules load(String input) {
 		ChallengeRules challengeDefinition;
 		try {
 			challengeDefinition = ChallengeRulesLoader.load(input);
@@ -144,16 +352,15 @@ public class ChallengeGeneratorTool {
 			String msg = "Error in challenge definition loading for " + input
 					+ ": " + e1.getMessage();
 			System.err.println(msg);
-			return;
+			return null;
 		}
 		if (challengeDefinition == null) {
 			String msg = "Error in loading : " + input;
 			System.out.println(msg);
-			return;
+			return null;
 		}
 		System.out.println("Challenge definition file: " + input);
-		generate(host, gameId, challengeDefinition, username, password, output,
-				filterIds, useRecommendationSystem, useFiltering);
+		return challengeDefinition;
 	}
 
 	/**
@@ -173,46 +380,128 @@ public class ChallengeGeneratorTool {
 			ChallengeRules challengeDefinitions, String username,
 			String password, String output, String filterIds,
 			Boolean useRecommendationSystem, Boolean useFiltering) {
+		return generate(host, gameId, challengeDefinitions, username,
+				password, output, filterIds, useRecommendationSystem,
+				useFiltering, null);
+	}
+
+	/**
+	 * Generate challenges starting from a {@link ChallengeRules}, reusing game
+	 * snapshot stored in snapshotDir
+	 * 
+	 * @param snapshotDir
+	 *            directory of game snapshots, null to read whole game state
+	 * @see GameSnapshotStore
+	 */
+	public static String generate(String host, String gameId,
+			ChallengeRules challengeDefinitions, String username,
+			String password, String output, String filterIds,
+			Boolean useRecommendationSystem, Boolean useFiltering,
+			String snapshotDir) {
 		String log = "";
 		// get users from gamification engine
-		GamificationEngineRestFacade facade;
+		GamificationEngineRestFacade facade = facade(host, username, password);
+		String msg = "Contacting gamification engine on host " + host;
+		System.out.println(msg);
+		log += msg + Constants.LINE_SEPARATOR;
+		return log
+				+ generate(new RestGameStateSource(facade, gameId, 0), gameId,
+						challengeDefinitions, output, filterIds,
+						useRecommendationSystem, useFiltering, snapshotDir);
+	}
+
+	private static GamificationEngineRestFacade facade(String host,
+			String username, String password) {
 		if (username != null && password != null && !username.isEmpty()
 				&& !password.isEmpty()) {
-			facade = new GamificationEngineRestFacade(host + "gengine/",
+			return new GamificationEngineRestFacade(host + "gengine/",
 					username, password);
-		} else {
-			facade = new GamificationEngineRestFacade(host + "gengine/");
-
 		}
-		String msg = "Contacting gamification engine on host " + host;
-		System.out.println(msg);
-		log += msg + Constants.LINE_SEPARATOR;
-		List<Content> users = null;
+		return new GamificationEngineRestFacade(host + "gengine/");
+	}
 
+	/**
+	 * Read players of game, appending messages to log
+	 * 
+	 * @return snapshot of players, null if game state cannot be read or
+	 *         game has no players
+	 */
+	private static GameSnapshot read(GameStateSource source, String gameId,
+			String snapshotDir, StringBuilder log) {
+		String msg;
+		// players scores are read once for recommendation system and all
+		// challenges
+		GameSnapshot snapshot = null;
 		try {
-			users = facade.readGameState(gameId);
+			if (snapshotDir != null) {
+				GameSnapshotStore store = new GameSnapshotStore(new File(
+						snapshotDir));
+				snapshot = store.refresh(gameId, source);
+				msg = "Game snapshot refreshed in " + snapshotDir
+						+ ", reused pages: " + store.getReusedPages()
+						+ ", parsed pages: " + store.getParsedPages();
+				System.out.println(msg);
+				log.append(msg + Constants.LINE_SEPARATOR);
+			} else {
+				snapshot = GameSnapshot.build(source.read());
+			}
 		} catch (Exception e) {
-			msg = "Error in reading game state from host " + host
+			msg = "Error in reading game state from " + source
 					+ " for gameId " + gameId + " error: " + e.getMessage();
 			System.err.println(msg);
-			log += msg + Constants.LINE_SEPARATOR;
-			return log;
+			log.append(msg + Constants.LINE_SEPARATOR);
+			return null;
 		}
-		if (users == null || users.isEmpty()) {
+		if (snapshot == null || snapshot.size() == 0) {
 			msg = "Warning: no users for game " + gameId;
 			System.err.println(msg);
-			log += msg + Constants.LINE_SEPARATOR;
+			log.append(msg + Constants.LINE_SEPARATOR);
+			return null;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Generate challenges starting from a {@link ChallengeRules}, reading
+	 * players from a game state source. When generation stops early output
+	 * file is deleted, report keeps lines written so far
+	 * 
+	 * @param source
+	 *            game state, from gamification engine or from a dump
+	 * @param gameId
+	 * @param challengeDefinitions
+	 * @param output
+	 * @param filterIds
+	 * @param useRecommendationSystem
+	 * @param useFiltering
+	 * @param snapshotDir
+	 *            directory of game snapshots, null to read whole game state
+	 * @see RestGameStateSource
+	 * @see FileGameStateSource
+	 */
+	public static String generate(GameStateSource source, String gameId,
+			ChallengeRules challengeDefinitions, String output,
+			String filterIds, Boolean useRecommendationSystem,
+			Boolean useFiltering, String snapshotDir) {
+		StringBuilder read = new StringBuilder();
+		GameSnapshot snapshot = read(source, gameId, snapshotDir, read);
+		String log = read.toString();
+		if (snapshot == null) {
 			return log;
 		}
-		msg = "Start date "
+		if (gameId == null || gameId.isEmpty()) {
+			// dump replayed without gameId
+			gameId = snapshot.getGameId(0);
+		}
+		String msg = "Start date "
 				+ sdf.format(CalendarUtil.getStart().getTime())
 				+ Constants.LINE_SEPARATOR
 				+ "End date "
 				+ sdf.format(CalendarUtil.getEnd().getTime())
 				+ Constants.LINE_SEPARATOR
-				+ "Reading game from gamification engine game state for gameId: "
+				+ "Reading game state for gameId: "
 				+ gameId + Constants.LINE_SEPARATOR + "Users in game: "
-				+ users.size();
+				+ snapshot.size();
 		System.out.println(msg);
 		log += msg + Constants.LINE_SEPARATOR;
 		ChallengesRulesGenerator crg;
@@ -225,69 +514,78 @@ public class ChallengeGeneratorTool {
 			log += msg + Constants.LINE_SEPARATOR;
 			return log;
 		}
-		// recommandationsystem integration
-		if (useRecommendationSystem) {
-			RecommendationSystem rs = new RecommendationSystem(
-					new RecommendationSystemConfig(useFiltering, filterIds));
-			Map<String, List<ChallengeDataDTO>> rsChallenges = rs
-					.recommendation(users, CalendarUtil.getStart().getTime(),
-							CalendarUtil.getEnd().getTime());
-			if (rsChallenges == null
-					|| (rsChallenges != null && rsChallenges.isEmpty())) {
-				msg = "Warning: no challenges generated using recommendation system, even if is enabled";
-				System.out.println(msg);
-				log += msg + Constants.LINE_SEPARATOR;
-				return log;
+		try {
+			// recommandationsystem integration
+			if (useRecommendationSystem) {
+				RecommendationSystem rs = new RecommendationSystem(
+						new RecommendationSystemConfig(useFiltering,
+								filterIds));
+				Map<String, List<ChallengeDataDTO>> rsChallenges = rs
+						.recommendation(snapshot, CalendarUtil.getStart()
+								.getTime(), CalendarUtil.getEnd().getTime());
+				if (rsChallenges == null
+						|| (rsChallenges != null && rsChallenges.isEmpty())) {
+					msg = "Warning: no challenges generated using recommendation system, even if is enabled";
+					System.out.println(msg);
+					log += msg + Constants.LINE_SEPARATOR;
+					return log;
+				}
+				try {
+					crg.setChallenges(rsChallenges, gameId);
+					msg = "Generated challenges using recommandation system for "
+							+ rsChallenges.size() + " players";
+					System.out.println(msg);
+					log += msg + Constants.LINE_SEPARATOR;
+					// write configuration file to filesystem
+					rs.writeToFile(rsChallenges);
+				} catch (IOException e) {
+					msg = "Error in challenge generation : " + e.getMessage();
+					System.err.println(msg);
+					log += msg + Constants.LINE_SEPARATOR;
+					return log;
+				}
+			}
+			// match all challenges at once, then generate them in definition
+			// order
+			BatchMatcher.Result matches = new BatchMatcher(
+					challengeDefinitions).match(snapshot);
+			List<ChallengeRuleRow> challengeSpecs = matches.getChallenges();
+			for (int i = 0; i < challengeSpecs.size(); i++) {
+				ChallengeRuleRow challengeSpec = challengeSpecs.get(i);
+				BitSet rows = matches.getPlayers(i);
+				if (rows.isEmpty()) {
+					msg = "Warning: no users for challenge : "
+							+ challengeSpec.getName();
+					System.out.println(msg);
+					log += msg + Constants.LINE_SEPARATOR;
+					continue;
+				}
+				try {
+					crg.generateChallenges(challengeSpec, snapshot, rows,
+							CalendarUtil.getStart().getTime(), CalendarUtil
+									.getEnd().getTime());
+				} catch (UndefinedChallengeException | IOException e) {
+					msg = "Error in challenge generation : " + e.getMessage();
+					System.err.println(msg);
+					log += msg + Constants.LINE_SEPARATOR;
+					return log;
+				}
 			}
 			try {
-				crg.setChallenges(rsChallenges, gameId);
-				msg = "Generated challenges using recommandation system for "
-						+ rsChallenges.size() + " players";
+				crg.writeChallengesToFile();
+				msg = "Challenges generated and written report file generated-rules-report.csv , "
+						+ output + " ready to be uploaded";
 				System.out.println(msg);
 				log += msg + Constants.LINE_SEPARATOR;
-				// write configuration file to filesystem
-				rs.writeToFile(rsChallenges);
-			} catch (IOException e) {
-				msg = "Error in challenge generation : " + e.getMessage();
-				System.err.println(msg);
-				log += msg + Constants.LINE_SEPARATOR;
 				return log;
-			}
-		}
-		// generate challenges
-		for (ChallengeRuleRow challengeSpec : challengeDefinitions
-				.getChallenges()) {
-			Matcher matcher = new Matcher(challengeSpec);
-			List<Content> filteredUsers = matcher.match(users);
-			if (filteredUsers.isEmpty()) {
-				msg = "Warning: no users for challenge : "
-						+ challengeSpec.getName();
-				System.out.println(msg);
-				log += msg + Constants.LINE_SEPARATOR;
-				continue;
-			}
-			try {
-				crg.generateChallenges(challengeSpec, filteredUsers,
-						CalendarUtil.getStart().getTime(), CalendarUtil
-								.getEnd().getTime());
-			} catch (UndefinedChallengeException | IOException e) {
-				msg = "Error in challenge generation : " + e.getMessage();
-				System.err.println(msg);
+			} catch (IOException e) {
+				msg = "Error in writing challenges to file";
 				log += msg + Constants.LINE_SEPARATOR;
 				return log;
 			}
-		}
-		try {
-			crg.writeChallengesToFile();
-			msg = "Challenges generated and written report file generated-rules-report.csv , "
-					+ output + " ready to be uploaded";
-			System.out.println(msg);
-			log += msg + Constants.LINE_SEPARATOR;
-			return log;
-		} catch (IOException e) {
-			msg = "Error in writing challenges to file";
-			log += msg + Constants.LINE_SEPARATOR;
-			return log;
+		} finally {
+			// no-op once challenges are written
+			crg.abort();
 		}
 	}
 
@@ -309,6 +607,15 @@ public class ChallengeGeneratorTool {
 				.desc("username for gamification engine").build());
 		options.addOption(Option.builder("password")
 				.desc("password for gamification engine").build());
+		options.addOption(Option.builder("snapshotDir").hasArg()
+				.desc("directory where game snapshots are kept between runs")
+				.build());
+		options.addOption(Option.builder("stateFile").hasArg()
+				.desc("game state dump, as JSON file or directory of JSON pages, used instead of gamification engine")
+				.build());
+		options.addOption(Option.builder("dryRun")
+				.desc("print how many players every challenge would reach, without generating challenges")
+				.build());
 		helpFormatter = new HelpFormatter();
 	}
 
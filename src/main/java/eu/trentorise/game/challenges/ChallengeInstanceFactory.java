@@ -10,18 +10,44 @@ import eu.trentorise.game.challenges.exception.UndefinedChallengeException;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 import eu.trentorise.game.challenges.rest.BadgeCollectionConcept;
 import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
 
 public class ChallengeInstanceFactory {
 
     public ChallengeDataDTO createChallenge(String chType, Map<String, Object> params, Content user)
             throws UndefinedChallengeException {
+        return createChallenge(chType, params, user, null, -1);
+    }
+
+    /**
+     * Create a challenge for a player of a snapshot
+     * 
+     * @param chType
+     * @param params
+     * @param snapshot
+     * @param row
+     *     row of player in snapshot
+     * @return challenge
+     * @throws UndefinedChallengeException
+     */
+    public ChallengeDataDTO createChallenge(String chType, Map<String, Object> params,
+            GameSnapshot snapshot, int row) throws UndefinedChallengeException {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot must be not null");
+        }
+        return createChallenge(chType, params, null, snapshot, row);
+    }
+
+    private ChallengeDataDTO createChallenge(String chType, Map<String, Object> params,
+            Content user, GameSnapshot snapshot, int row) throws UndefinedChallengeException {
         switch (chType) {
             case Constants.ABSOLUTEINCREMENT:
                 return buildAbsoluteIncrement(params);
             case Constants.PERCENTAGEINCREMENT:
                 return buildPercentageIncrement(params);
             case Constants.NEXTBADGE:
-                return buildNextBadge(params, user);
+                return buildNextBadge(params, user, snapshot, row);
             case Constants.COMPLETEBADGECOLLECTION:
                 return buildCompleteBadgeCollection(params, user);
             case Constants.SURVEY:
@@ -71,7 +97,8 @@ public class ChallengeInstanceFactory {
         return cdd;
     }
 
-    private ChallengeDataDTO buildNextBadge(Map<String, Object> params, Content user) {
+    private ChallengeDataDTO buildNextBadge(Map<String, Object> params, Content user,
+            GameSnapshot snapshot, int row) {
         ChallengeDataDTO cdd = new ChallengeDataDTO();
         cdd.setModelName(Constants.NEXTBADGE);
         cdd.setInstanceName(params.get(Constants.NAME) + "_" + UUID.randomUUID());
@@ -83,8 +110,10 @@ public class ChallengeInstanceFactory {
         data.put(Constants.BONUS_SCORE,
                 Double.valueOf(params.get(Constants.BONUS_SCORE).toString()));
         data.put(Constants.BADGECOLLECTIONNAME, params.get(Constants.GOAL_TYPE));
+        String collection = (String) params.get(Constants.GOAL_TYPE);
         data.put(Constants.INITIAL_BADGE_NUMBER,
-                getCurrentBadgeCollectionSize(user, (String) params.get(Constants.GOAL_TYPE)));
+                user != null ? getCurrentBadgeCollectionSize(user, collection)
+                        : Integer.valueOf(Math.max(0, snapshot.badgeCount(row, collection))));
 
         cdd.setData(data);
         return cdd;
@@ -166,10 +195,19 @@ public class ChallengeInstanceFactory {
 
 
 
+    /**
+     * Same lookup of {@link GameSnapshot#badgeCount(int, String)}: names are
+     * case insensitive and the first collection with a given name wins
+     */
     private Integer getCurrentBadgeCollectionSize(Content user, String name) {
+        String key = PointConcept.normalizeName(name);
+        if (key == null || user.getState() == null
+                || user.getState().getBadgeCollectionConcept() == null) {
+            return 0;
+        }
         for (BadgeCollectionConcept bc : user.getState().getBadgeCollectionConcept()) {
-            if (bc.getName().equals(name)) {
-                return bc.getBadgeEarned().size();
+            if (key.equals(PointConcept.normalizeName(bc.getName()))) {
+                return bc.getBadgeEarned() != null ? bc.getBadgeEarned().size() : 0;
             }
         }
         return 0;
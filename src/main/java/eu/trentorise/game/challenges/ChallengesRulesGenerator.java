@@ -1,61 +1,112 @@
 package eu.trentorise.game.challenges;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import eu.trentorise.game.challenges.api.Constants;
 import eu.trentorise.game.challenges.exception.UndefinedChallengeException;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 import eu.trentorise.game.challenges.model.ChallengeDataInternalDto;
 import eu.trentorise.game.challenges.rest.Content;
-import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
 import eu.trentorise.game.challenges.util.ChallengeRuleRow;
-import eu.trentorise.game.challenges.util.ChallengeRulesLoader;
-import eu.trentorise.game.challenges.util.PointConceptUtil;
+import eu.trentorise.game.challenges.util.JsonUtil;
+import eu.trentorise.game.challenges.util.RangeTask;
 
 /**
- * Generate rules for challenges
+ * Generate rules for challenges. Challenges of a specification are created for
+ * all its players in parallel, splitting players in ranges; a player gets at
+ * most {@link #challengeLimitNumber} challenges, in the order specifications
+ * are generated. Generated challenges and report lines are in players order,
+ * whatever the number of threads.
+ *
+ * Challenges and report lines are written as soon as a chunk of players is
+ * generated, so memory used doesn't grow with the number of challenges
  */
 public class ChallengesRulesGenerator {
 
 	private static final Logger logger = LogManager
-			.getLogger(ChallengeRulesLoader.class);
-	private static final int challengeLimitNumber = 2;
+			.getLogger(ChallengesRulesGenerator.class);
+	/**
+	 * maximum number of challenges generated for a player
+	 */
+	static final int challengeLimitNumber = 2;
+	/**
+	 * players generated by a single task
+	 */
+	private static final int THRESHOLD = 1024;
+	/**
+	 * players generated before writing their challenges
+	 */
+	private static final int CHUNK = 16 * THRESHOLD;
 
 	private ChallengeInstanceFactory factory;
 	// private Map<String, Map<String, Object>> playerIdCustomData;
-	private StringBuffer reportBuffer;
 
 	private final String reportHeader = "PLAYER;CHALLENGE_NAME;CHALLENGE_TYPE;GOAL_TYPE;BASELINE_VALUE;TARGET_VALUE;PRIZE;POINT_TYPE;CH_ID"
 			+ Constants.LINE_SEPARATOR;
-	private FileOutputStream fout;
-	private Map<String, Integer> challengeMap;
-	private FileOutputStream oout;
-	private List<ChallengeDataInternalDto> challenges;
+	private BufferedWriter report;
+	private ConcurrentMap<String, AtomicInteger> challengeMap;
+	private JsonGenerator output;
+	private final File outputFile;
+	/**
+	 * true once files are complete
+	 */
+	private boolean completed;
+	private int written;
+	private final ForkJoinPool pool;
 
 	public ChallengesRulesGenerator(ChallengeInstanceFactory factory,
 			String reportName, String outputName) throws IOException {
+		this(factory, reportName, outputName, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * @param factory
+	 * @param reportName
+	 * @param outputName
+	 * @param parallelism
+	 *            number of threads generating challenges
+	 * @throws IOException
+	 */
+	public ChallengesRulesGenerator(ChallengeInstanceFactory factory,
+			String reportName, String outputName, int parallelism)
+			throws IOException {
 		this.factory = factory;
-		this.challenges = new ArrayList<ChallengeDataInternalDto>();
+		this.pool = new ForkJoinPool(parallelism);
+		this.outputFile = new File(outputName);
 		// prepare report output
-		fout = new FileOutputStream(reportName);
-		oout = new FileOutputStream(outputName);
+		report = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(reportName)));
+		output = JsonUtil.generator(new BufferedOutputStream(
+				new FileOutputStream(outputName)));
+		output.writeStartArray();
 		// write header
-		IOUtils.write(reportHeader, fout);
+		report.write(reportHeader);
 		// init challenge map
-		challengeMap = new HashMap<String, Integer>();
+		challengeMap = new ConcurrentHashMap<String, AtomicInteger>();
 		logger.debug("ChallengesRulesGenerator - created");
 	}
 
@@ -71,160 +122,264 @@ public class ChallengesRulesGenerator {
 	public void generateChallenges(ChallengeRuleRow challengeSpec,
 			List<Content> users, Date startDate, Date endDate)
 			throws UndefinedChallengeException, IOException {
+		BitSet rows = new BitSet(users.size());
+		rows.set(0, users.size());
+		generateChallenges(challengeSpec, GameSnapshot.build(users), rows,
+				startDate, endDate);
+	}
+
+	/**
+	 * Generate rules starting from a challenge specification for a set of
+	 * players of a snapshot
+	 * 
+	 * @param challengeSpec
+	 * @param snapshot
+	 * @param rows
+	 *            rows of players in snapshot
+	 * @param startDate
+	 * @param endDate
+	 * @throws UndefinedChallengeException
+	 * @throws IOException
+	 */
+	public void generateChallenges(ChallengeRuleRow challengeSpec,
+			GameSnapshot snapshot, BitSet rows, Date startDate, Date endDate)
+			throws UndefinedChallengeException, IOException {
 		logger.debug("ChallengesRulesGenerator - started");
-		this.reportBuffer = new StringBuffer();
+		int[] players = new int[rows.cardinality()];
+		int n = 0;
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows
+				.nextSetBit(row + 1)) {
+			players[n++] = row;
+		}
+		Generation generation = new Generation(challengeSpec, snapshot,
+				players, startDate, endDate);
+		for (int from = 0; from < players.length; from += CHUNK) {
+			Generated generated = pool.invoke(new RangeTask<Generated>(
+					generation, from, Math.min(players.length, from + CHUNK),
+					THRESHOLD));
+			if (generated.error != null) {
+				throw generated.error;
+			}
+			for (ChallengeDataInternalDto cdit : generated.challenges) {
+				write(cdit);
+			}
+			// write report to file
+			report.append(generated.report);
+		}
+	}
+
+	private void write(ChallengeDataInternalDto cdit) throws IOException {
+		JsonUtil.CHALLENGE_WRITER.writeValue(output, cdit);
+		written++;
+	}
+
+	/**
+	 * Create challenge for a player, if player hasn't reached the limit of
+	 * challenges
+	 * 
+	 * @return generated challenge, null if player has reached the limit
+	 */
+	private ChallengeDataInternalDto generate(ChallengeRuleRow challengeSpec,
+			GameSnapshot snapshot, int row, Date startDate, Date endDate,
+			StringBuilder report) throws UndefinedChallengeException {
+		String playerId = snapshot.getPlayerId(row);
+		// create a challenge for user only under a specific limit
+		if (!reserveChallenge(playerId)) {
+			return null;
+		}
+		boolean created = false;
+		try {
+			ChallengeDataInternalDto cdit = createChallenge(challengeSpec,
+					snapshot, row, startDate, endDate, report);
+			created = true;
+			return cdit;
+		} finally {
+			if (!created) {
+				// slot reserved for a challenge never created
+				releaseChallenge(playerId);
+			}
+		}
+	}
 
+	private ChallengeDataInternalDto createChallenge(
+			ChallengeRuleRow challengeSpec, GameSnapshot snapshot, int row,
+			Date startDate, Date endDate, StringBuilder report)
+			throws UndefinedChallengeException {
+		String playerId = snapshot.getPlayerId(row);
 		Map<String, Object> params = new HashMap<String, Object>();
 		Double targetValue = 0d;
 		Double baseLineValue = 0d;
-		// get right challenge
-		for (Content user : users) {
-			// create a challenge for user only under a specific limit
-			if (getChallenges(user.getPlayerId()) < challengeLimitNumber) {
-				params.put(Constants.NAME,
-						StringUtils.trim(challengeSpec.getName()));
-				params.put(Constants.BONUS_POINT_TYPE,
-						StringUtils.trim(challengeSpec.getPointType()));
-				params.put(Constants.BONUS_SCORE, challengeSpec.getBonus());
-				params.put(Constants.PERIOD_NAME, "weekly");
-				params.put(Constants.GOAL_TYPE,
-						StringUtils.trim(challengeSpec.getGoalType()));
-				params.put(Constants.START_DATE, startDate);
-				params.put(Constants.END_DATE, endDate);
-				if (challengeSpec.getTarget() != null) {
-					if (challengeSpec.getTarget() instanceof String) {
-						// speecial case for leaderboardPosition challenge
-						if (((String) challengeSpec.getTarget())
-								.contains(Constants.MIN_MAX_SEPARATOR)) {
-							params.put(Constants.TARGET,
-									challengeSpec.getTarget());
-						}
-					} else {
-						params.put(Constants.TARGET, challengeSpec.getTarget());
-						if (challengeSpec.getTarget() instanceof Double) {
-							targetValue = (Double) challengeSpec.getTarget();
-						} else {
-							String v = (String) challengeSpec.getTarget();
-							if (!v.isEmpty()) {
-								targetValue = Double.valueOf(v);
-							}
-						}
-					}
+		params.put(Constants.NAME, StringUtils.trim(challengeSpec.getName()));
+		params.put(Constants.BONUS_POINT_TYPE,
+				StringUtils.trim(challengeSpec.getPointType()));
+		params.put(Constants.BONUS_SCORE, challengeSpec.getBonus());
+		params.put(Constants.PERIOD_NAME, "weekly");
+		params.put(Constants.GOAL_TYPE,
+				StringUtils.trim(challengeSpec.getGoalType()));
+		params.put(Constants.START_DATE, startDate);
+		params.put(Constants.END_DATE, endDate);
+		if (challengeSpec.getTarget() != null) {
+			if (challengeSpec.getTarget() instanceof String) {
+				// speecial case for leaderboardPosition challenge
+				if (((String) challengeSpec.getTarget())
+						.contains(Constants.MIN_MAX_SEPARATOR)) {
+					params.put(Constants.TARGET, challengeSpec.getTarget());
 				}
-				if (challengeSpec.getBaselineVar() != null
-						&& !challengeSpec.getBaselineVar().isEmpty()) {
-					// for percentage challenges, calculate current baseline and
-					// correct target or use the max value
-					if (!challengeSpec.getBaselineVar().endsWith(".max")) {
-						baseLineValue = getPointConceptCurrentValue(user,
-								challengeSpec.getBaselineVar(), "weekly");
-					} else {
-						baseLineValue = getPointConceptCurrentValue(user,
-								challengeSpec.getBaselineVar(), "weekly");
-					}
-					params.put(Constants.BASELINE, baseLineValue);
-					targetValue = baseLineValue * (1.0d + targetValue);
-					targetValue = Double.valueOf(Math.round(targetValue));
-					if (targetValue < 1) {
-						targetValue = 1.0d;
+			} else {
+				params.put(Constants.TARGET, challengeSpec.getTarget());
+				if (challengeSpec.getTarget() instanceof Double) {
+					targetValue = (Double) challengeSpec.getTarget();
+				} else {
+					String v = (String) challengeSpec.getTarget();
+					if (!v.isEmpty()) {
+						targetValue = Double.valueOf(v);
 					}
-					params.put(Constants.TARGET, targetValue);
 				}
-
-				ChallengeDataDTO cdd = factory.createChallenge(
-						challengeSpec.getModelName(), params, user);
-				ChallengeDataInternalDto cdit = new ChallengeDataInternalDto();
-				cdit.setPlayerId(user.getPlayerId());
-				cdit.setGameId(user.getGameId());
-				cdit.setDto(cdd);
-				challenges.add(cdit);
-
-				reportBuffer.append(user.getPlayerId()
-						+ ";"
-						+ challengeSpec.getName()
-						+ ";"
-						+ challengeSpec.getModelName()
-						+ ";"
-						+ challengeSpec.getGoalType()
-						+ ";"
-						+ (Double.compare(baseLineValue, 0d) == 0 ? ""
-								: baseLineValue) + ";" + targetValue + ";"
-						+ challengeSpec.getBonus() + ";"
-						+ challengeSpec.getPointType() + ";"
-						+ cdd.getInstanceName() + Constants.LINE_SEPARATOR);
-
-				// increase challenge number for user
-				increaseChallenge(user.getPlayerId());
 			}
 		}
-		// write report to file
-		IOUtils.write(reportBuffer.toString(), fout);
+		if (challengeSpec.getBaselineVar() != null
+				&& !challengeSpec.getBaselineVar().isEmpty()) {
+			// for percentage challenges, calculate current baseline and
+			// correct target or use the max value
+			baseLineValue = getPointConceptCurrentValue(snapshot, row,
+					challengeSpec.getBaselineVar(), "weekly");
+			params.put(Constants.BASELINE, baseLineValue);
+			targetValue = baseLineValue * (1.0d + targetValue);
+			targetValue = Double.valueOf(Math.round(targetValue));
+			if (targetValue < 1) {
+				targetValue = 1.0d;
+			}
+			params.put(Constants.TARGET, targetValue);
+		}
+
+		ChallengeDataDTO cdd = factory.createChallenge(
+				challengeSpec.getModelName(), params, snapshot, row);
+		ChallengeDataInternalDto cdit = new ChallengeDataInternalDto();
+		cdit.setPlayerId(playerId);
+		cdit.setGameId(snapshot.getGameId(row));
+		cdit.setDto(cdd);
+
+		report.append(playerId
+				+ ";"
+				+ challengeSpec.getName()
+				+ ";"
+				+ challengeSpec.getModelName()
+				+ ";"
+				+ challengeSpec.getGoalType()
+				+ ";"
+				+ (Double.compare(baseLineValue, 0d) == 0 ? "" : baseLineValue)
+				+ ";" + targetValue + ";" + challengeSpec.getBonus() + ";"
+				+ challengeSpec.getPointType() + ";" + cdd.getInstanceName()
+				+ Constants.LINE_SEPARATOR);
+		return cdit;
 	}
 
-	private Double getPointConceptCurrentValue(Content user,
-			String baselineVar, String periodName) {
+	private Double getPointConceptCurrentValue(GameSnapshot snapshot,
+			int row, String baselineVar, String periodName) {
 		if (StringUtils.isEmpty(baselineVar)) {
 			throw new IllegalArgumentException(
 					"baselineVar must be a not null and not empty string");
 		}
-		String names[] = new String[3];
 		if (baselineVar.contains(".")) {
-			names = baselineVar.split("\\.");
-		}
-
-		for (PointConcept pc : user.getState().getPointConcept()) {
-			if (baselineVar.contains(".")) {
-				if (pc.getName().equalsIgnoreCase(names[0])) {
-					if (names[2].equalsIgnoreCase("current")) {
-						return pc.getPeriodCurrentScore(names[1]);
-					} else if (names[2].equalsIgnoreCase("previous")) {
-						return pc.getPeriodPreviousScore(names[1]);
-					} else if (names[2].equalsIgnoreCase("max")) {
-						return PointConceptUtil.getScoreMax(user, names[0],
-								names[1]);
-					}
-				}
-
-			} else if (pc.getName().equalsIgnoreCase(baselineVar)) {
-				return pc.getPeriodCurrentScore(periodName);
+			String[] names = baselineVar.split("\\.");
+			PeriodScoreType type = names.length < 3 ? null : PeriodScoreType
+					.fromString(names[2]);
+			if (type == null) {
+				return 0d;
 			}
+			return snapshot.periodScore(row, names[0], names[1], type);
 		}
-		return 0d;
+		return snapshot.periodScore(row, baselineVar, periodName,
+				PeriodScoreType.CURRENT);
 	}
 
-	private int getChallenges(String playerId) {
-		if (!challengeMap.containsKey(playerId)) {
-			return 0;
+	private AtomicInteger challengeCount(String playerId) {
+		AtomicInteger count = challengeMap.get(playerId);
+		if (count == null) {
+			AtomicInteger created = new AtomicInteger();
+			count = challengeMap.putIfAbsent(playerId, created);
+			if (count == null) {
+				count = created;
+			}
 		}
-		return challengeMap.get(playerId);
+		return count;
 	}
 
 	private void increaseChallenge(String playerId) {
-		if (!challengeMap.containsKey(playerId)) {
-			challengeMap.put(playerId, 1);
-		} else {
-			challengeMap.put(playerId, challengeMap.get(playerId) + 1);
+		challengeCount(playerId).incrementAndGet();
+	}
+
+	/**
+	 * Count a new challenge for player, only if it is under the limit
+	 * 
+	 * @return true if player can have a new challenge
+	 */
+	private boolean reserveChallenge(String playerId) {
+		AtomicInteger count = challengeCount(playerId);
+		while (true) {
+			int current = count.get();
+			if (current >= challengeLimitNumber) {
+				return false;
+			}
+			if (count.compareAndSet(current, current + 1)) {
+				return true;
+			}
 		}
 	}
 
+	private void releaseChallenge(String playerId) {
+		challengeCount(playerId).decrementAndGet();
+	}
+
 	private void closeStream() throws IOException {
-		if (fout != null) {
-			fout.close();
+		try {
+			if (report != null) {
+				report.close();
+			}
+		} finally {
+			try {
+				// close stream
+				if (output != null) {
+					output.close();
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Stop generation without completing files: report is flushed with lines
+	 * written so far, challenges file is deleted so that a partial one is
+	 * never uploaded. Nothing happens if files are already complete
+	 */
+	public void abort() {
+		if (completed) {
+			return;
 		}
-		// close stream
-		if (oout != null) {
-			oout.close();
+		try {
+			closeStream();
+		} catch (IOException e) {
+			logger.error("error in closing generated files", e);
+		}
+		if (outputFile.exists() && !outputFile.delete()) {
+			logger.warn("cannot delete partial challenges file " + outputFile);
 		}
 	}
 
+	/**
+	 * Complete challenges and report files, challenges are already written
+	 * while they are generated
+	 * 
+	 * @throws IOException
+	 */
 	public void writeChallengesToFile() throws IOException {
-		// write json file
-		ObjectMapper mapper = new ObjectMapper();
-		//
-		IOUtils.write(mapper.writeValueAsString(challenges), oout);
+		// complete json file
+		output.writeEndArray();
 		logger.debug("ChallengesRulesGenerator - completed - written challenges "
-				+ challenges.size());
+				+ written);
 		closeStream();
+		completed = true;
 	}
 
 	/**
@@ -237,9 +392,6 @@ public class ChallengesRulesGenerator {
 	 */
 	public void setChallenges(Map<String, List<ChallengeDataDTO>> rsChallenges,
 			String gameId) throws IOException {
-		if (reportBuffer == null) {
-			reportBuffer = new StringBuffer();
-		}
 		// update generated challenges list
 		for (String playerId : rsChallenges.keySet()) {
 			if (rsChallenges.get(playerId) != null) {
@@ -249,32 +401,27 @@ public class ChallengesRulesGenerator {
 					cdit.setGameId(gameId);
 					cdit.setDto(challenge);
 					increaseChallenge(playerId);
-					// buffer
-					reportBuffer
-							.append(playerId
-									+ ";"
-									+ challenge.getData().get("challengeName")
-									+ ";"
-									+ challenge.getModelName()
-									+ ";"
-									+ "goalType"
-									+ ";"
-									+ (challenge.getData().containsKey(
-											"baseline") ? challenge.getData()
-											.get("baseline") : 0) + ";"
-									+ (challenge.getData().get("target")) + ";"
-									+ challenge.getData().get("bonusScore")
-									+ ";"
-									+ challenge.getData().get("bonusPointType")
-									+ ";" + challenge.getInstanceName()
-									+ Constants.LINE_SEPARATOR);
+					// report
+					report.append(playerId
+							+ ";"
+							+ challenge.getData().get("challengeName")
+							+ ";"
+							+ challenge.getModelName()
+							+ ";"
+							+ "goalType"
+							+ ";"
+							+ (challenge.getData().containsKey("baseline") ? challenge
+									.getData().get("baseline") : 0) + ";"
+							+ (challenge.getData().get("target")) + ";"
+							+ challenge.getData().get("bonusScore") + ";"
+							+ challenge.getData().get("bonusPointType") + ";"
+							+ challenge.getInstanceName()
+							+ Constants.LINE_SEPARATOR);
 					removeUnusedData(cdit);
-					challenges.add(cdit);
+					write(cdit);
 				}
 			}
 		}
-		// write to the file
-		IOUtils.write(reportBuffer.toString(), fout);
 	}
 
 	private void removeUnusedData(ChallengeDataInternalDto cdit) {
@@ -290,4 +437,67 @@ public class ChallengesRulesGenerator {
 			}
 		}
 	}
+
+	/**
+	 * Challenges and report lines of a range of players, in players order
+	 */
+	private static class Generated {
+		private final List<ChallengeDataInternalDto> challenges = new ArrayList<ChallengeDataInternalDto>();
+		private final StringBuilder report = new StringBuilder();
+		private UndefinedChallengeException error;
+
+		private void add(Generated other) {
+			challenges.addAll(other.challenges);
+			report.append(other.report);
+			if (error == null) {
+				error = other.error;
+			}
+		}
+	}
+
+	/**
+	 * Generate challenges of a specification for a range of players
+	 */
+	private class Generation implements RangeTask.Range<Generated> {
+		private final ChallengeRuleRow challengeSpec;
+		private final GameSnapshot snapshot;
+		private final int[] players;
+		private final Date startDate;
+		private final Date endDate;
+
+		private Generation(ChallengeRuleRow challengeSpec,
+				GameSnapshot snapshot, int[] players, Date startDate,
+				Date endDate) {
+			this.challengeSpec = challengeSpec;
+			this.snapshot = snapshot;
+			this.players = players;
+			this.startDate = startDate;
+			this.endDate = endDate;
+		}
+
+		@Override
+		public Generated compute(int from, int to) {
+			Generated result = new Generated();
+			for (int i = from; i < to; i++) {
+				try {
+					ChallengeDataInternalDto cdit = generate(challengeSpec,
+							snapshot, players[i], startDate, endDate,
+							result.report);
+					if (cdit != null) {
+						result.challenges.add(cdit);
+					}
+				} catch (UndefinedChallengeException e) {
+					result.error = e;
+					break;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public Generated merge(Generated left, Generated right) {
+			left.add(right);
+			return left;
+		}
+	}
 }
@@ -0,0 +1,245 @@
+package eu.trentorise.game.challenges;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Append only journal of challenges assigned by {@link UploaderTool}, one
+ * instance name per line. The journal of an input file is kept next to it and
+ * named after the hash of host, gameId and input content, so that an
+ * interrupted upload can be resumed skipping challenges already assigned,
+ * while a regenerated input file, or the same one uploaded to another host or
+ * game, never reuses the journal of a previous upload.
+ *
+ * Writes are synced to disk every {@link #SYNC_BATCH} instance names or
+ * {@link #SYNC_MILLIS} milliseconds, whichever comes first, by a timer even
+ * if no challenge is assigned in the meantime, and on close: after a crash at
+ * most the last batch is assigned again.
+ *
+ * A journal is never overwritten: a new upload of an input file whose
+ * journal exists is refused, it must be resumed.
+ */
+public class UploadJournal implements Closeable {
+
+	public static final int SYNC_BATCH = 256;
+	public static final long SYNC_MILLIS = 1000;
+
+	private static final String EXTENSION = ".journal";
+
+	private final File file;
+	private final Set<String> assigned;
+	private final FileOutputStream out;
+	private final Writer writer;
+	private final Timer timer = new Timer("upload-journal-sync", true);
+	private int pending;
+	private long lastSync = System.currentTimeMillis();
+	/**
+	 * failure of last sync by timer, thrown by next append or close
+	 */
+	private IOException syncError;
+
+	private UploadJournal(File file, Set<String> assigned, FileOutputStream out) {
+		this.file = file;
+		this.assigned = assigned;
+		this.out = out;
+		writer = new BufferedWriter(new OutputStreamWriter(out,
+				StandardCharsets.UTF_8));
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				syncPending();
+			}
+		}, SYNC_MILLIS, SYNC_MILLIS);
+	}
+
+	/**
+	 * @param input
+	 *            challenges file
+	 * @param host
+	 *            host challenges are uploaded to
+	 * @param gameId
+	 *            game challenges are uploaded to
+	 * @return journal file of the upload of input to game on host
+	 * @throws IOException
+	 *             if input cannot be read
+	 */
+	public static File file(File input, String host, String gameId)
+			throws IOException {
+		if (input == null || host == null || gameId == null) {
+			throw new IllegalArgumentException(
+					"input, host and gameId must be not null");
+		}
+		return new File(input.getAbsoluteFile().getParentFile(), "upload-"
+				+ hash(input, host, gameId) + EXTENSION);
+	}
+
+	/**
+	 * Open journal of the upload of input file to game on host
+	 *
+	 * @param input
+	 *            challenges file
+	 * @param host
+	 * @param gameId
+	 * @param resume
+	 *            true to load challenges already assigned and append to
+	 *            journal, false to start a new journal
+	 * @return journal of upload
+	 * @throws FileAlreadyExistsException
+	 *             if resume is false and the upload has a journal already
+	 * @throws IOException
+	 */
+	public static UploadJournal open(File input, String host, String gameId,
+			boolean resume) throws IOException {
+		File file = file(input, host, gameId);
+		Set<String> assigned = new HashSet<String>();
+		FileOutputStream out;
+		if (resume && file.exists()) {
+			byte[] content = Files.readAllBytes(file.toPath());
+			// a line not terminated was being written on a crash
+			int valid = content.length;
+			while (valid > 0 && content[valid - 1] != '\n') {
+				valid--;
+			}
+			for (String name : new String(content, 0, valid,
+					StandardCharsets.UTF_8).split("\n")) {
+				if (!name.isEmpty()) {
+					assigned.add(name);
+				}
+			}
+			out = new FileOutputStream(file, true);
+			out.getChannel().truncate(valid);
+		} else if (file.exists()) {
+			throw new FileAlreadyExistsException(file.getPath(), null,
+					"an upload of input was already started");
+		} else {
+			out = new FileOutputStream(file);
+		}
+		return new UploadJournal(file, assigned, out);
+	}
+
+	/**
+	 * @return journal file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @param instanceName
+	 * @return true if challenge was assigned by a previous upload
+	 */
+	public boolean isAssigned(String instanceName) {
+		return assigned.contains(instanceName);
+	}
+
+	/**
+	 * @return number of challenges assigned by previous uploads
+	 */
+	public int getAssigned() {
+		return assigned.size();
+	}
+
+	/**
+	 * Record an assigned challenge, syncing batch to disk when it is full
+	 *
+	 * @param instanceName
+	 * @throws IOException
+	 */
+	public synchronized void append(String instanceName) throws IOException {
+		throwSyncError();
+		writer.write(instanceName);
+		writer.write('\n');
+		pending++;
+		if (pending >= SYNC_BATCH
+				|| System.currentTimeMillis() - lastSync >= SYNC_MILLIS) {
+			sync();
+		}
+	}
+
+	/**
+	 * Write recorded challenges to disk
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		writer.flush();
+		out.getChannel().force(false);
+		pending = 0;
+		lastSync = System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		timer.cancel();
+		try {
+			throwSyncError();
+			sync();
+		} finally {
+			writer.close();
+		}
+	}
+
+	private synchronized void syncPending() {
+		if (pending == 0 || syncError != null) {
+			return;
+		}
+		try {
+			sync();
+		} catch (IOException e) {
+			syncError = e;
+		}
+	}
+
+	private void throwSyncError() throws IOException {
+		if (syncError != null) {
+			IOException e = syncError;
+			syncError = null;
+			throw e;
+		}
+	}
+
+	private static String hash(File input, String host, String gameId)
+			throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		// a line break can't be part of host or gameId
+		digest.update((host + '\n' + gameId + '\n')
+				.getBytes(StandardCharsets.UTF_8));
+		InputStream in = new FileInputStream(input);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
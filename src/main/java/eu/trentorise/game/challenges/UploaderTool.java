@@ -1,9 +1,19 @@
 package eu.trentorise.game.challenges;
 
-import java.io.FileInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.ws.rs.ProcessingException;
 
@@ -15,24 +25,35 @@ import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.io.IOUtils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.databind.MappingIterator;
 
 import eu.trentorise.game.challenges.api.Constants;
 import eu.trentorise.game.challenges.model.ChallengeDataInternalDto;
 import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
+import eu.trentorise.game.challenges.util.JsonUtil;
 
 /**
  * Uploader tool get a json file created from {@link ChallengeGeneratorTool} and
  * upload into Gamification engine using {@link GamificationEngineRestFacade}.
  * Options: </br></br> - input json input file </br> - host host for
  * gamification engine</br> - gameId unique indentifier for game into
- * gamification engine
+ * gamification engine</br> - connections number of assignment requests in
+ * flight</br> - resume skip challenges assigned by a previous upload of the
+ * same file to the same host and game, recorded in its {@link UploadJournal}
  */
 public class UploaderTool {
 
+	/**
+	 * Default number of assignment requests in flight
+	 */
+	public static final int DEFAULT_CONNECTIONS = 8;
+
+	/**
+	 * Throughput is printed every time this number of challenges is assigned
+	 */
+	private static final int PROGRESS = 1000;
+
 	private static Options options;
 	private static HelpFormatter helpFormatter;
 
@@ -84,20 +105,90 @@ public class UploaderTool {
 		if (cmd.hasOption("password")) {
 			password = cmd.getArgList().get(4);
 		}
+		int connections = DEFAULT_CONNECTIONS;
+		if (cmd.hasOption("connections")) {
+			try {
+				connections = Integer.parseInt(cmd
+						.getOptionValue("connections"));
+			} catch (NumberFormatException e) {
+				connections = 0;
+			}
+			if (connections < 1) {
+				System.err.println("connections must be a positive number: "
+						+ cmd.getOptionValue("connections"));
+				printHelp();
+				return;
+			}
+		}
+		boolean resume = cmd.hasOption("resume");
 		// call generation
-		upload(host, gameId, input, username, password);
+		upload(host, gameId, input, username, password, connections,
+				"report.csv", resume);
 	}
 
 	private static void printHelp() {
 		helpFormatter
 				.printHelp(
 						"challengeUploader",
-						"-host <host> -gameId <gameId> -input <input json file> [-username -password ] ",
+						"-host <host> -gameId <gameId> -input <input json file> [-username -password ] [-connections <requests in flight>] [-resume]",
 						options, "");
 	}
 
+	/**
+	 * Upload challenges of input file with {@link #DEFAULT_CONNECTIONS}
+	 * requests in flight, writing report.csv in current directory
+	 *
+	 * @see #upload(String, String, String, String, String, int, String)
+	 */
 	public static String upload(String host, String gameId, String input,
 			String username, String password) {
+		return upload(host, gameId, input, username, password,
+				DEFAULT_CONNECTIONS, "report.csv", false);
+	}
+
+	/**
+	 * Upload challenges of input file from the beginning
+	 *
+	 * @see #upload(String, String, String, String, String, int, String,
+	 *      boolean)
+	 */
+	public static String upload(String host, String gameId, String input,
+			String username, String password, int connections, String report) {
+		return upload(host, gameId, input, username, password, connections,
+				report, false);
+	}
+
+	/**
+	 * Upload challenges of input file, read one challenge at a time while
+	 * previous ones are uploaded. At most connections assignment requests are
+	 * in flight, over a pool of as many keep alive connections. Upload stops
+	 * on first failed assignment, after requests already in flight complete.
+	 * Assigned challenges are written to report and to the
+	 * {@link UploadJournal} of upload as they complete, and throughput is
+	 * printed every {@link #PROGRESS} assignments
+	 *
+	 * @param host
+	 * @param gameId
+	 * @param input
+	 *            challenges file created by {@link ChallengeGeneratorTool}
+	 * @param username
+	 * @param password
+	 * @param connections
+	 *            maximum number of assignment requests in flight
+	 * @param report
+	 *            report file of assigned challenges
+	 * @param resume
+	 *            true to skip challenges in journal of upload, assigned by a
+	 *            previous upload of the same file to the same host and game,
+	 *            and append to report
+	 * @return log of upload
+	 */
+	public static String upload(String host, String gameId, String input,
+			String username, String password, int connections, String report,
+			boolean resume) {
+		if (connections < 1) {
+			throw new IllegalArgumentException("connections must be positive");
+		}
 		String log = "";
 		String msg = "";
 		if (input == null) {
@@ -106,6 +197,12 @@ public class UploaderTool {
 			System.err.println(msg);
 			return log;
 		}
+		// size of keep alive pool of http connections, read on first
+		// connection
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections",
+					String.valueOf(connections));
+		}
 		GamificationEngineRestFacade challengeAssignFacade;
 		if (username != null && password != null && !username.isEmpty()
 				&& !password.isEmpty()) {
@@ -116,75 +213,113 @@ public class UploaderTool {
 					+ "data/game/");
 		}
 		msg = "Uploading on host " + host + " for gameId " + gameId
-				+ " for file " + input;
+				+ " for file " + input + " with " + connections
+				+ " connections";
 		System.out.println(msg);
 		log += msg + Constants.LINE_SEPARATOR;
-		// read input file
-		ObjectMapper mapper = new ObjectMapper();
-		TypeFactory typeFactory = mapper.getTypeFactory();
-		String jsonString;
-		List<ChallengeDataInternalDto> challenges = null;
+		// read input file one challenge at a time
+		MappingIterator<ChallengeDataInternalDto> challenges;
 		try {
-			jsonString = IOUtils.toString(new FileInputStream(input));
-			challenges = mapper.readValue(jsonString, typeFactory
-					.constructCollectionType(List.class,
-							ChallengeDataInternalDto.class));
-
+			challenges = JsonUtil.CHALLENGE_READER.readValues(new File(input));
 		} catch (IOException e1) {
 			msg = "Error in reading input file for uploader " + input;
 			log += msg + Constants.LINE_SEPARATOR;
 			return log;
 		}
-		msg = "Read challenges " + challenges.size();
-
-		int tot = 0;
-		StringBuffer buffer = new StringBuffer();
-		buffer.append("CHALLENGE_NAME;CHALLENGE_TYPE_NAME;PLAYER_ID"
-				+ Constants.LINE_SEPARATOR);
-		msg = "Read challenges " + challenges.size();
-		System.out.println(msg);
-		log += msg + Constants.LINE_SEPARATOR;
-		boolean r = false;
-		// upload every challenge
-		for (ChallengeDataInternalDto ch : challenges) {
-			// upload and assign challenge
-			tot++;
-			try {
-				r = challengeAssignFacade.assignChallengeToPlayer(ch.getDto(),
-						ch.getGameId(), ch.getPlayerId());
-			} catch (ProcessingException e) {
-				msg = "Error on uploading challenge on gamification engine "
-						+ e.getMessage();
-				System.out.println(msg);
-				log += msg + Constants.LINE_SEPARATOR;
-				return log;
-			}
-			if (!r) {
-				msg = "Error in uploading challenge instance "
-						+ ch.getDto().getInstanceName();
-				System.out.println(msg);
-				log += msg + Constants.LINE_SEPARATOR;
-				return log;
-			} else {
-				System.out.println("Inserted challenge with Id "
-						+ ch.getDto().getInstanceName());
-				buffer.append(ch.getDto().getInstanceName() + ";");
-				buffer.append(ch.getDto().getModelName() + ";");
-				buffer.append(ch.getPlayerId() + ";" + Constants.LINE_SEPARATOR);
-			}
+		UploadJournal journal;
+		try {
+			journal = UploadJournal.open(new File(input), host, gameId,
+					resume);
+		} catch (FileAlreadyExistsException e) {
+			closeQuietly(challenges);
+			msg = "Upload of " + input + " was already started, journal "
+					+ e.getFile() + " exists: use -resume to continue it";
+			System.out.println(msg);
+			log += msg + Constants.LINE_SEPARATOR;
+			return log;
+		} catch (IOException e) {
+			closeQuietly(challenges);
+			msg = "Error in opening upload journal of " + input;
+			System.out.println(msg);
+			log += msg + Constants.LINE_SEPARATOR;
+			return log;
+		}
+		if (resume) {
+			msg = "Resuming upload, challenges already assigned "
+					+ journal.getAssigned();
+			System.out.println(msg);
+			log += msg + Constants.LINE_SEPARATOR;
 		}
+		BufferedWriter writer;
 		try {
-			FileOutputStream out = new FileOutputStream("report.csv");
-			IOUtils.write(buffer.toString(), out);
-			if (out != null) {
-				out.close();
+			boolean append = resume && new File(report).exists();
+			writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(report, append),
+					StandardCharsets.UTF_8));
+			if (!append) {
+				writer.write("CHALLENGE_NAME;CHALLENGE_TYPE_NAME;PLAYER_ID"
+						+ Constants.LINE_SEPARATOR);
 			}
 		} catch (IOException e) {
-			msg = "Error in writing report.csv file";
+			closeQuietly(challenges);
+			closeQuietly(journal);
+			msg = "Error in writing " + report + " file";
 			System.out.println(msg);
 			log += msg + Constants.LINE_SEPARATOR;
 			return log;
 		}
+		Upload upload = new Upload(challengeAssignFacade, connections, writer,
+				journal);
+		int tot = 0;
+		int skipped = 0;
+		String error = null;
+		try {
+			// upload every challenge not assigned yet
+			while (upload.getError() == null && challenges.hasNextValue()) {
+				ChallengeDataInternalDto ch = challenges.nextValue();
+				if (journal.isAssigned(ch.getDto().getInstanceName())) {
+					skipped++;
+					continue;
+				}
+				upload.submit(ch);
+				tot++;
+			}
+		} catch (IOException e) {
+			error = "Error in reading input file for uploader " + input;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = "Upload interrupted";
+		} finally {
+			upload.await();
+			closeQuietly(challenges);
+		}
+		try {
+			journal.close();
+		} catch (IOException e) {
+			if (error == null) {
+				error = "Error in writing upload journal "
+						+ journal.getFile();
+			}
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			if (error == null) {
+				error = "Error in writing " + report + " file";
+			}
+		}
+		if (upload.getError() != null) {
+			error = upload.getError();
+		}
+		msg = "Read challenges " + (tot + skipped) + ", skipped " + skipped
+				+ ", " + upload.getThroughput();
+		System.out.println(msg);
+		log += msg + Constants.LINE_SEPARATOR;
+		if (error != null) {
+			System.out.println(error);
+			log += error + Constants.LINE_SEPARATOR;
+			return log;
+		}
 		msg = "Inserted challenges " + tot + Constants.LINE_SEPARATOR
 				+ "Challenges upload completed";
 		System.out.println(msg);
@@ -192,6 +327,173 @@ public class UploaderTool {
 		return log;
 	}
 
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing to do, input was already read
+		}
+	}
+
+	/**
+	 * Assignment requests of an upload: a {@link Semaphore} bounds requests
+	 * in flight, so challenges are read from input only as fast as they are
+	 * uploaded. First error stops the upload
+	 */
+	private static class Upload {
+		private final GamificationEngineRestFacade facade;
+		private final ExecutorService executor;
+		private final Semaphore inFlight;
+		private final Writer report;
+		private final UploadJournal journal;
+		private final Throughput throughput = new Throughput();
+		private final AtomicReference<String> error = new AtomicReference<String>();
+
+		private Upload(GamificationEngineRestFacade facade, int connections,
+				Writer report, UploadJournal journal) {
+			this.facade = facade;
+			this.report = report;
+			this.journal = journal;
+			executor = Executors.newFixedThreadPool(connections);
+			inFlight = new Semaphore(connections);
+		}
+
+		private void submit(final ChallengeDataInternalDto ch)
+				throws InterruptedException {
+			inFlight.acquire();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						assign(ch);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		}
+
+		private void assign(ChallengeDataInternalDto ch) {
+			if (error.get() != null) {
+				return;
+			}
+			long start = System.nanoTime();
+			boolean r;
+			try {
+				r = facade.assignChallengeToPlayer(ch.getDto(), ch.getGameId(),
+						ch.getPlayerId());
+			} catch (ProcessingException e) {
+				error.compareAndSet(null,
+						"Error on uploading challenge on gamification engine "
+								+ e.getMessage());
+				return;
+			} catch (RuntimeException e) {
+				// thrown on a pool thread it would be lost by executor
+				error.compareAndSet(null, "Error in uploading challenge instance "
+						+ ch.getDto().getInstanceName() + ": " + e.getMessage());
+				return;
+			}
+			if (!r) {
+				error.compareAndSet(null,
+						"Error in uploading challenge instance "
+								+ ch.getDto().getInstanceName());
+				return;
+			}
+			int assigned = throughput.record(System.nanoTime() - start);
+			try {
+				journal.append(ch.getDto().getInstanceName());
+			} catch (IOException e) {
+				error.compareAndSet(null, "Error in writing upload journal "
+						+ journal.getFile());
+				return;
+			}
+			try {
+				synchronized (report) {
+					report.write(ch.getDto().getInstanceName() + ";"
+							+ ch.getDto().getModelName() + ";"
+							+ ch.getPlayerId() + ";"
+							+ Constants.LINE_SEPARATOR);
+				}
+			} catch (IOException e) {
+				error.compareAndSet(null, "Error in writing report file");
+			}
+			if (assigned % PROGRESS == 0) {
+				System.out.println(throughput);
+			}
+		}
+
+		/**
+		 * Wait for requests in flight
+		 */
+		private void await() {
+			executor.shutdown();
+			try {
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					// assignment requests still in flight
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+			}
+		}
+
+		private String getError() {
+			return error.get();
+		}
+
+		private Throughput getThroughput() {
+			return throughput;
+		}
+	}
+
+	/**
+	 * Assignments per second since creation and latency percentiles, from a
+	 * histogram of latencies with a bucket for every millisecond
+	 */
+	private static class Throughput {
+		private static final int MAX_MILLIS = 60000;
+
+		private final long start = System.nanoTime();
+		private final int[] histogram = new int[MAX_MILLIS + 1];
+		private int count;
+
+		/**
+		 * @param latency
+		 *            in nanoseconds
+		 * @return number of recorded assignments
+		 */
+		private synchronized int record(long latency) {
+			histogram[(int) Math.min(TimeUnit.NANOSECONDS.toMillis(latency),
+					MAX_MILLIS)]++;
+			return ++count;
+		}
+
+		/**
+		 * @param p
+		 *            between 0 and 1
+		 * @return latency in milliseconds not exceeded by p of assignments
+		 */
+		private synchronized int percentile(double p) {
+			int rank = Math.max(1, (int) Math.ceil(p * count));
+			int seen = 0;
+			for (int i = 0; i < histogram.length; i++) {
+				seen += histogram[i];
+				if (seen >= rank) {
+					return i;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public synchronized String toString() {
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long rate = seconds > 0 ? Math.round(count / seconds) : 0;
+			return "assigned " + count + ", " + rate + " req/s, latency p50 "
+					+ percentile(0.5) + " ms, p99 " + percentile(0.99) + " ms";
+		}
+	}
+
 	private static void init() {
 		options = new Options();
 		options.addOption(Option.builder("help").desc("display this help")
@@ -206,6 +508,12 @@ public class UploaderTool {
 				.desc("username for gamification engine").build());
 		options.addOption(Option.builder("password")
 				.desc("password for gamification engine").build());
+		options.addOption(Option.builder("connections").hasArg()
+				.desc("assignment requests in flight, default "
+						+ DEFAULT_CONNECTIONS).build());
+		options.addOption(Option.builder("resume")
+				.desc("skip challenges assigned by a previous upload of the same input file")
+				.build());
 		helpFormatter = new HelpFormatter();
 	}
 
@@ -2,6 +2,7 @@
 package eu.trentorise.game.challenges.rest;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Generated;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
@@ -31,6 +32,8 @@ public class Content {
     private CustomData customData;
     @JsonIgnore
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
+    @JsonIgnore
+    private volatile PointConceptIndex pointConceptIndex;
 
     /**
      * 
@@ -90,6 +93,7 @@ public class Content {
     @JsonProperty("state")
     public void setState(State state) {
         this.state = state;
+        this.pointConceptIndex = null;
     }
 
     /**
@@ -112,6 +116,61 @@ public class Content {
         this.customData = customData;
     }
 
+    /**
+     * Find point concept by name, in constant time
+     * 
+     * @param name
+     *     point concept name, case insensitive
+     * @return
+     *     the {@link PointConcept}, null if player doesn't have it
+     * @see PointConcept#normalizeName(String)
+     */
+    public PointConcept getPointConcept(String name) {
+        if (name == null || state == null) {
+            return null;
+        }
+        List<PointConcept> concepts = state.getPointConcept();
+        if (concepts == null) {
+            return null;
+        }
+        // rebuild index when state concepts have been bound again, an index
+        // is never changed once published
+        PointConceptIndex index = pointConceptIndex;
+        if (index == null || index.concepts != concepts) {
+            index = new PointConceptIndex(concepts);
+            pointConceptIndex = index;
+        }
+        return index.byName.get(PointConcept.normalizeName(name));
+    }
+
+    /**
+     * 
+     * @param name
+     *     point concept name
+     * @return
+     *     total score of point concept, 0 if player doesn't have it
+     */
+    public Double score(String name) {
+        PointConcept pc = getPointConcept(name);
+        return pc != null ? pc.getScore() : 0d;
+    }
+
+    /**
+     * 
+     * @param name
+     *     point concept name
+     * @param period
+     *     period identifier, i.e. weekly
+     * @param type
+     *     score to read
+     * @return
+     *     requested period score, 0 if player doesn't have point concept or period
+     */
+    public Double periodScore(String name, String period, PeriodScoreType type) {
+        PointConcept pc = getPointConcept(name);
+        return pc != null ? pc.getPeriodScore(period, type) : 0d;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -122,4 +181,26 @@ public class Content {
         this.additionalProperties.put(name, value);
     }
 
+    /**
+     * Point concepts of a state by normalized name
+     */
+    private static final class PointConceptIndex {
+
+        private final List<PointConcept> concepts;
+        private final Map<String, PointConcept> byName;
+
+        private PointConceptIndex(List<PointConcept> concepts) {
+            Map<String, PointConcept> index = new HashMap<String, PointConcept>();
+            for (PointConcept pc : concepts) {
+                String key = PointConcept.normalizeName(pc.getName());
+                // first concept with a given name wins, as in linear search
+                if (key != null && !index.containsKey(key)) {
+                    index.put(key, pc);
+                }
+            }
+            this.concepts = concepts;
+            this.byName = index;
+        }
+    }
+
 }
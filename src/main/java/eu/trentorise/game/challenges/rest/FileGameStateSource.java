@@ -0,0 +1,150 @@
+package eu.trentorise.game.challenges.rest;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Game state read from a dump of gamification engine state/{gameId} response:
+ * a single JSON file, or a directory with a JSON file for every page. Pages
+ * of a directory are ordered by file name, comparing numbers in names by
+ * value so that page-2.json comes before page-10.json
+ */
+public class FileGameStateSource extends GameStateSource {
+
+	private static final String EXTENSION = ".json";
+	private static final int KEY_DIGEST_BYTES = 8;
+
+	private final File dump;
+	private final File[] pages;
+
+	/**
+	 * @param dump
+	 *            JSON file or directory of JSON files
+	 * @throws IllegalArgumentException
+	 *             if dump doesn't exist or is a directory without JSON files
+	 */
+	public FileGameStateSource(File dump) {
+		if (dump == null) {
+			throw new IllegalArgumentException("dump must be not null");
+		}
+		this.dump = dump;
+		if (dump.isDirectory()) {
+			pages = dump.listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.toLowerCase().endsWith(EXTENSION);
+				}
+			});
+			if (pages == null || pages.length == 0) {
+				throw new IllegalArgumentException("game state dump " + dump
+						+ " has no " + EXTENSION + " pages or cannot be read");
+			}
+			Arrays.sort(pages, new PageOrder());
+		} else if (dump.isFile()) {
+			pages = new File[] { dump };
+		} else {
+			throw new IllegalArgumentException("game state dump " + dump
+					+ " doesn't exist");
+		}
+	}
+
+	@Override
+	public InputStream openPage(int page) throws FileNotFoundException {
+		if (page < 1 || page > pages.length) {
+			return null;
+		}
+		return new BufferedInputStream(new FileInputStream(pages[page - 1]));
+	}
+
+	/**
+	 * Snapshots of a dump are kept apart from the ones of the live game, and
+	 * from the ones of other dumps of the same game: key is made of gameId
+	 * and of the SHA-256 digest of dump path
+	 */
+	@Override
+	public String getSnapshotKey(String gameId) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(
+					dump.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+		StringBuilder key = new StringBuilder();
+		if (gameId != null && !gameId.isEmpty()) {
+			key.append(gameId).append('-');
+		}
+		key.append("dump-");
+		for (int i = 0; i < KEY_DIGEST_BYTES; i++) {
+			key.append(String.format("%02x", digest[i] & 0xff));
+		}
+		return key.toString();
+	}
+
+	@Override
+	public int getPages() {
+		return pages.length;
+	}
+
+	@Override
+	public String toString() {
+		return "dump " + dump;
+	}
+
+	/**
+	 * Order file names comparing sequences of digits by their value
+	 */
+	private static class PageOrder implements Comparator<File> {
+
+		@Override
+		public int compare(File f1, File f2) {
+			String a = f1.getName();
+			String b = f2.getName();
+			int i = 0;
+			int j = 0;
+			while (i < a.length() && j < b.length()) {
+				char ca = a.charAt(i);
+				char cb = b.charAt(j);
+				if (Character.isDigit(ca) && Character.isDigit(cb)) {
+					int endA = digits(a, i);
+					int endB = digits(b, j);
+					String na = a.substring(i, endA).replaceFirst("^0+(?=.)",
+							"");
+					String nb = b.substring(j, endB).replaceFirst("^0+(?=.)",
+							"");
+					int result = na.length() != nb.length() ? na.length()
+							- nb.length() : na.compareTo(nb);
+					if (result != 0) {
+						return result;
+					}
+					i = endA;
+					j = endB;
+				} else {
+					if (ca != cb) {
+						return ca - cb;
+					}
+					i++;
+					j++;
+				}
+			}
+			return (a.length() - i) - (b.length() - j);
+		}
+
+		private static int digits(String s, int from) {
+			int end = from;
+			while (end < s.length() && Character.isDigit(s.charAt(end))) {
+				end++;
+			}
+			return end;
+		}
+	}
+}
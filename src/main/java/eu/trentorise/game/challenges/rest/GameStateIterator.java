@@ -0,0 +1,184 @@
+package eu.trentorise.game.challenges.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+/**
+ * Iterate over players of a game state one {@link Content} at a time. Every
+ * {@link Paginator} page is parsed incrementally, so at most one player is
+ * bound at a time and the page is never materialized as a whole. Iterator
+ * must be closed when it is not read until the end, to release the page
+ * being read
+ */
+public class GameStateIterator implements Iterator<Content>, Closeable {
+
+	private static final Logger logger = LogManager
+			.getLogger(GameStateIterator.class);
+
+	private static final String CONTENT = "content";
+	private static final String LAST = "last";
+
+	/**
+	 * A source of game state pages in {@link Paginator} JSON format
+	 */
+	public interface PageSource {
+		/**
+		 * @param page
+		 *            page number, first page is 1
+		 * @return page content, null if page doesn't exist
+		 * @throws IOException
+		 */
+		public InputStream openPage(int page) throws IOException;
+	}
+
+	private final PageSource source;
+	private JsonParser parser;
+	private int page;
+	private boolean inContent;
+	private boolean pageHasContent;
+	private Boolean last;
+	private boolean done;
+	private boolean lastPage;
+	private Content next;
+
+	public GameStateIterator(PageSource source) {
+		if (source == null) {
+			throw new IllegalArgumentException("source cannot be null");
+		}
+		this.source = source;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !done) {
+			next = advance();
+		}
+		return next != null;
+	}
+
+	@Override
+	public Content next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Content result = next;
+		next = null;
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Close page being read, no more players are returned after close
+	 */
+	@Override
+	public void close() {
+		done = true;
+		next = null;
+		closeQuietly();
+	}
+
+	/**
+	 * @return number of pages read so far
+	 */
+	public int getPages() {
+		return page;
+	}
+
+	/**
+	 * @return true if iteration ended on the last page of game state, false
+	 *         if it ended because source has no more pages
+	 */
+	public boolean isLastPageRead() {
+		return lastPage;
+	}
+
+	private Content advance() {
+		try {
+			while (true) {
+				if (parser == null && !openNextPage()) {
+					done = true;
+					return null;
+				}
+				JsonToken token = parser.nextToken();
+				if (inContent) {
+					if (token == JsonToken.START_OBJECT) {
+						pageHasContent = true;
+						return JsonUtil.CONTENT_READER.readValue(parser);
+					}
+					// end of content array
+					inContent = false;
+				} else if (token == null || token == JsonToken.END_OBJECT) {
+					closePage();
+				} else if (token == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					token = parser.nextToken();
+					if (CONTENT.equals(name) && token == JsonToken.START_ARRAY) {
+						inContent = true;
+					} else if (LAST.equals(name) && token.isBoolean()) {
+						last = parser.getBooleanValue();
+					} else {
+						parser.skipChildren();
+					}
+				}
+			}
+		} catch (IOException e) {
+			closeQuietly();
+			done = true;
+			throw new IllegalStateException("error in reading game state page "
+					+ page, e);
+		}
+	}
+
+	private boolean openNextPage() throws IOException {
+		if (done) {
+			return false;
+		}
+		InputStream in = source.openPage(page + 1);
+		if (in == null) {
+			return false;
+		}
+		page++;
+		parser = JsonUtil.mapper().getFactory().createParser(in);
+		inContent = false;
+		pageHasContent = false;
+		last = null;
+		return true;
+	}
+
+	private void closePage() throws IOException {
+		parser.close();
+		parser = null;
+		// a page without last flag and without players is the end too
+		if (Boolean.TRUE.equals(last) || (last == null && !pageHasContent)) {
+			logger.debug("read " + page + " pages of game state");
+			lastPage = true;
+			done = true;
+		}
+	}
+
+	private void closeQuietly() {
+		if (parser != null) {
+			try {
+				parser.close();
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+			parser = null;
+		}
+	}
+}
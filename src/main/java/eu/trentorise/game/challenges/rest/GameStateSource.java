@@ -0,0 +1,154 @@
+package eu.trentorise.game.challenges.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A source of game state, as {@link Paginator} JSON pages returned by
+ * gamification engine for state/{gameId}. Every source is parsed by
+ * {@link GameStateIterator}, whether pages come from gamification engine or
+ * from a dump on filesystem
+ * 
+ * @see RestGameStateSource
+ * @see FileGameStateSource
+ */
+public abstract class GameStateSource implements GameStateIterator.PageSource {
+
+	/**
+	 * @return an {@link Iterator} of players, parsed one at a time, to be
+	 *         closed by caller
+	 */
+	public GameStateIterator stream() {
+		return new GameStateIterator(this);
+	}
+
+	/**
+	 * Read all players, parsing at most as many pages concurrently as
+	 * available processors
+	 * 
+	 * @return a list of {@link Content}
+	 * @throws IllegalStateException
+	 *             when game state cannot be read
+	 * @see #read(int)
+	 */
+	public List<Content> read() {
+		return read(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Read all players. When the number of pages is known in advance pages
+	 * are parsed concurrently, players are returned in page order anyway and
+	 * pages after the one flagged as last are ignored, as {@link #stream()}
+	 * does
+	 * 
+	 * @param parallelism
+	 *            max number of pages parsed concurrently, 1 to parse pages
+	 *            sequentially
+	 * @return a list of {@link Content}
+	 * @throws IllegalStateException
+	 *             when game state cannot be read
+	 */
+	public List<Content> read(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"parallelism must be at least 1");
+		}
+		int pages = getPages();
+		if (parallelism == 1 || pages < 2) {
+			return drain(stream()).players;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				parallelism, pages));
+		try {
+			List<Future<Page>> parsed = new ArrayList<Future<Page>>(pages);
+			for (int i = 1; i <= pages; i++) {
+				final int page = i;
+				parsed.add(executor.submit(new Callable<Page>() {
+					@Override
+					public Page call() throws Exception {
+						return drain(new GameStateIterator(singlePage(page)));
+					}
+				}));
+			}
+			List<Content> result = new ArrayList<Content>();
+			for (Future<Page> page : parsed) {
+				Page p = page.get();
+				result.addAll(p.players);
+				if (p.last) {
+					break;
+				}
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted reading game state",
+					e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("error in reading game state",
+					e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param gameId
+	 * @return name under which snapshots of game read from this source are
+	 *         stored, gameId by default
+	 * @see eu.trentorise.game.challenges.snapshot.GameSnapshotStore
+	 */
+	public String getSnapshotKey(String gameId) {
+		return gameId;
+	}
+
+	/**
+	 * @return number of pages of this source, -1 if it isn't known in advance
+	 */
+	public int getPages() {
+		return -1;
+	}
+
+	private GameStateIterator.PageSource singlePage(final int page) {
+		return new GameStateIterator.PageSource() {
+			@Override
+			public InputStream openPage(int p) throws IOException {
+				return p == 1 ? GameStateSource.this.openPage(page) : null;
+			}
+		};
+	}
+
+	private static Page drain(GameStateIterator players) {
+		try {
+			Page result = new Page();
+			while (players.hasNext()) {
+				result.players.add(players.next());
+			}
+			result.last = players.isLastPageRead();
+			return result;
+		} finally {
+			players.close();
+		}
+	}
+
+	/**
+	 * Players read from one or more pages
+	 */
+	private static class Page {
+		private final List<Content> players = new ArrayList<Content>();
+		/**
+		 * true if reading ended on the last page of game state
+		 */
+		private boolean last;
+	}
+}
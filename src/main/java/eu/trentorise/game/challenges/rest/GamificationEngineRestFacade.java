@@ -1,12 +1,21 @@
 package eu.trentorise.game.challenges.rest;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
@@ -17,13 +26,14 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
+import org.glassfish.jersey.jackson.JacksonFeature;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import eu.trentorise.game.challenges.api.Constants;
 import eu.trentorise.game.challenges.model.ChallengeDataDTO;
 import eu.trentorise.game.challenges.model.ChallengeModel;
+import eu.trentorise.game.challenges.util.JsonUtil;
 
 /**
  * A facade for handling logic for Gamification Engine Rest api
@@ -47,7 +57,17 @@ public class GamificationEngineRestFacade {
 
 	private static final String CHALLENGE = "challenge";
 
+	private static final String PAGE = "page";
+	private static final String SIZE = "size";
+
+	/**
+	 * Default number of game state pages requested concurrently
+	 */
+	public static final int DEFAULT_PARALLELISM = 4;
+
 	private WebTarget target;
+	private int pageSize = 0;
+	private int parallelism = DEFAULT_PARALLELISM;
 
 	/**
 	 * Create gamification engine rest facade on selected endpoint
@@ -59,7 +79,7 @@ public class GamificationEngineRestFacade {
 			throw new NullPointerException("Endpoint cannot be null");
 		}
 		logger.debug("GamificationEngineRestFacade created with no authentication");
-		target = ClientBuilder.newClient().target(endpoint);
+		target = newClient().target(endpoint);
 	}
 
 	/**
@@ -84,30 +104,67 @@ public class GamificationEngineRestFacade {
 		// with htt p basic authentication
 		HttpAuthenticationFeature feature = HttpAuthenticationFeature
 				.basicBuilder().credentials(username, password).build();
-		Client client = ClientBuilder.newClient();
+		Client client = newClient();
 		client.register(feature);
 		target = client.target(endpoint);
 		logger.debug("created endpoint for " + endpoint);
 	}
 
+	/**
+	 * @return a client reading and writing JSON with shared configuration
+	 * @see JsonUtil
+	 */
+	private static Client newClient() {
+		return ClientBuilder.newClient().register(JacksonFeature.class)
+				.register(new ObjectMapperResolver());
+	}
+
 	/**
 	 * @return {@link WebTarget} to be used by facade
 	 */
-	private WebTarget getTarget() {
+	WebTarget getTarget() {
 		return target;
 	}
 
 	/**
-	 * Read game state
+	 * Read game state, using page size and parallelism configured on this
+	 * facade
 	 * 
 	 * @param gameId
 	 * @return a list of {@link Content}, null if error
+	 * @see #readGameState(String, int, int)
 	 */
 	public List<Content> readGameState(String gameId) {
+		return readGameState(gameId, pageSize, parallelism);
+	}
+
+	/**
+	 * Read game state. First page is read to know how many pages are
+	 * available, remaining pages are fetched using at most parallelism
+	 * requests in flight and reassembled in page order
+	 * 
+	 * @param gameId
+	 * @param pageSize
+	 *            number of players for page, 0 to use gamification engine
+	 *            default
+	 * @param parallelism
+	 *            max number of concurrent page requests, 1 to read pages
+	 *            sequentially
+	 * @return a list of {@link Content}, null if error
+	 */
+	public List<Content> readGameState(String gameId, int pageSize,
+			int parallelism) {
 		if (gameId == null) {
 			throw new IllegalArgumentException("gameId cannot be null");
 		}
+		if (pageSize < 0 || parallelism < 1) {
+			throw new IllegalArgumentException(
+					"pageSize must be positive and parallelism at least 1");
+		}
 		WebTarget target = getTarget().path(STATE).path(gameId);
+		if (pageSize > 0) {
+			target = target.queryParam(SIZE, pageSize);
+		}
 		// for testing pagination: target.queryParam("page",
 		// 1).queryParam("size", 1).request().get(Paginator.class);
 		Paginator response = target.request().get(Paginator.class);
@@ -119,13 +176,33 @@ public class GamificationEngineRestFacade {
 			logger.info("service return only one page of result");
 			return response.getContent();
 		}
-		List<Content> result = new ArrayList<Content>();
+		List<Content> result;
+		if (response.getTotalElements() != null) {
+			result = new ArrayList<Content>(response.getTotalElements());
+		} else {
+			result = new ArrayList<Content>();
+		}
+		result.addAll(response.getContent());
 		int page = 2;
+		if (parallelism > 1 && response.getTotalPages() != null
+				&& response.getTotalPages() > page) {
+			Boolean last = readPages(target, page, response.getTotalPages(),
+					parallelism, result);
+			if (last == null) {
+				return null;
+			}
+			if (last) {
+				logger.debug("service return " + response.getTotalPages()
+						+ " pages of result");
+				return result;
+			}
+			// game grown during reading, continue sequentially
+			page = response.getTotalPages() + 1;
+		}
 		boolean end = false;
 		Paginator pageResponse;
-		result.addAll(response.getContent());
 		while (!end) {
-			pageResponse = target.queryParam("page", page).request()
+			pageResponse = target.queryParam(PAGE, page).request()
 					.get(Paginator.class);
 			if (pageResponse != null) {
 				result.addAll(pageResponse.getContent());
@@ -140,6 +217,138 @@ public class GamificationEngineRestFacade {
 		return result;
 	}
 
+	/**
+	 * Read game state as a stream of players: pages are requested one at a
+	 * time while iterating and every {@link Content} is parsed only when
+	 * reached, so memory used is bounded by page size instead of game size
+	 * 
+	 * @param gameId
+	 * @param pageSize
+	 *            number of players for page, 0 to use gamification engine
+	 *            default
+	 * @return an {@link Iterator} of {@link Content}, to be closed by caller
+	 * @see GameStateIterator
+	 */
+	public GameStateIterator streamGameState(final String gameId,
+			final int pageSize) {
+		if (gameId == null) {
+			throw new IllegalArgumentException("gameId cannot be null");
+		}
+		if (pageSize < 0) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		return new GameStateIterator(new GameStateIterator.PageSource() {
+			@Override
+			public InputStream openPage(int page) throws IOException {
+				return openGameStatePage(gameId, page, pageSize);
+			}
+		});
+	}
+
+	/**
+	 * Open a game state page, content is {@link Paginator} JSON as returned
+	 * by gamification engine
+	 * 
+	 * @param gameId
+	 * @param page
+	 *            page number, first page is 1
+	 * @param pageSize
+	 *            number of players for page, 0 to use gamification engine
+	 *            default
+	 * @return page content, to be closed by caller
+	 */
+	public InputStream openGameStatePage(String gameId, int page, int pageSize) {
+		if (gameId == null) {
+			throw new IllegalArgumentException("gameId cannot be null");
+		}
+		if (page < 1 || pageSize < 0) {
+			throw new IllegalArgumentException(
+					"page must be at least 1 and pageSize positive");
+		}
+		WebTarget target = getTarget().path(STATE).path(gameId);
+		if (pageSize > 0) {
+			target = target.queryParam(SIZE, pageSize);
+		}
+		// first page is read without page parameter, as in readGameState
+		if (page > 1) {
+			target = target.queryParam(PAGE, page);
+		}
+		return target.request().get(InputStream.class);
+	}
+
+	/**
+	 * Read pages from first to last (inclusive) using a bounded pool of
+	 * threads, content is appended to result in page order
+	 * 
+	 * @return last flag of last read page, null if error
+	 */
+	private Boolean readPages(final WebTarget target, int first, int last,
+			int parallelism, List<Content> result) {
+		int pages = last - first + 1;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				parallelism, pages));
+		try {
+			List<Future<Paginator>> responses = new ArrayList<Future<Paginator>>(
+					pages);
+			for (int i = first; i <= last; i++) {
+				final int page = i;
+				responses.add(executor.submit(new Callable<Paginator>() {
+					@Override
+					public Paginator call() throws Exception {
+						return target.queryParam(PAGE, page).request()
+								.get(Paginator.class);
+					}
+				}));
+			}
+			Paginator pageResponse = null;
+			for (int i = 0; i < pages; i++) {
+				pageResponse = responses.get(i).get();
+				if (pageResponse == null) {
+					logger.error("error in reading game state page "
+							+ (first + i));
+					return null;
+				}
+				result.addAll(pageResponse.getContent());
+			}
+			return pageResponse.getLast();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("interrupted reading game state");
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new ProcessingException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param pageSize
+	 *            number of players for game state page, 0 to use
+	 *            gamification engine default
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize < 0) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @param parallelism
+	 *            max number of concurrent game state page requests
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
 	/**
 	 * Insert given rule inside gamification engine
 	 * 
@@ -221,12 +430,13 @@ public class GamificationEngineRestFacade {
 		values.put("gameId", gameId);
 		values.put("playerId", playerId);
 		values.putAll(customData);
-		ObjectMapper mapper = new ObjectMapper();
-		try {
-			logger.debug(mapper.writeValueAsString(values));
-		} catch (JsonProcessingException e) {
-			logger.error(e);
-			return false;
+		if (logger.isDebugEnabled()) {
+			try {
+				logger.debug(JsonUtil.mapper().writeValueAsString(values));
+			} catch (JsonProcessingException e) {
+				logger.error(e);
+				return false;
+			}
 		}
 		WebTarget target = getTarget().path(GAME).path(gameId).path(PLAYER)
 				.path(playerId);
@@ -280,13 +490,19 @@ public class GamificationEngineRestFacade {
 		WebTarget target = getTarget().path(gameId).path("player")
 				.path(playerId).path("challenges");
 		Response response = target.request().post(Entity.json(cdd));
-		if (response.getStatus() == Response.Status.OK.getStatusCode()) {
-			logger.debug("response code: " + response.getStatus());
-			return true;
+		try {
+			if (response.getStatus() == Response.Status.OK.getStatusCode()) {
+				logger.debug("response code: " + response.getStatus());
+				return true;
+			}
+			logger.error("response code: " + response.getStatus()
+					+ " , reason="
+					+ response.getStatusInfo().getReasonPhrase());
+			return false;
+		} finally {
+			// give connection back to keep alive pool
+			response.close();
 		}
-		logger.error("response code: " + response.getStatus() + " , reason="
-				+ response.getStatusInfo().getReasonPhrase());
-		return false;
 	}
 
 	public Set<ChallengeModel> readChallengesModel(String gameId) {
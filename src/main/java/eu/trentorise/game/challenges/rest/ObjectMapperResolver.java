@@ -0,0 +1,22 @@
+package eu.trentorise.game.challenges.rest;
+
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+/**
+ * Let Jersey client read and write JSON with the shared {@link ObjectMapper}
+ * 
+ * @see JsonUtil
+ */
+@Provider
+public class ObjectMapperResolver implements ContextResolver<ObjectMapper> {
+
+	@Override
+	public ObjectMapper getContext(Class<?> type) {
+		return JsonUtil.mapper();
+	}
+}
@@ -0,0 +1,36 @@
+package eu.trentorise.game.challenges.rest;
+
+/**
+ * Which score of a {@link PointConcept} period to read
+ */
+public enum PeriodScoreType {
+	/**
+	 * score of the period instance containing execution moment
+	 */
+	CURRENT,
+	/**
+	 * score of the instance before the current one
+	 */
+	PREVIOUS,
+	/**
+	 * max score among all period instances
+	 */
+	MAX;
+
+	/**
+	 * @param value
+	 *            current, previous or max, case insensitive
+	 * @return corresponding type, null if value is not a valid type
+	 */
+	public static PeriodScoreType fromString(String value) {
+		if (value == null) {
+			return null;
+		}
+		for (PeriodScoreType type : values()) {
+			if (type.name().equalsIgnoreCase(value.trim())) {
+				return type;
+			}
+		}
+		return null;
+	}
+}
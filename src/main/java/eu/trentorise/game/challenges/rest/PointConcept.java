@@ -1,11 +1,14 @@
 package eu.trentorise.game.challenges.rest;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -14,21 +17,30 @@ import java.util.TreeMap;
 import javax.annotation.Generated;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 import org.joda.time.LocalDateTime;
+import org.joda.time.chrono.ISOChronology;
 import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @Generated("org.jsonschema2pojo")
 @JsonPropertyOrder({"name", "score", "instances", "id"})
+@JsonDeserialize(using = PointConcept.Deserializer.class)
 public class PointConcept {
 
     @JsonProperty("name")
@@ -152,6 +164,39 @@ public class PointConcept {
         return getPeriodScore(periodIdentifier, 1);
     }
 
+    /**
+     * @param periodIdentifier
+     * @return max score among all instances of period, 0 if period doesn't exist
+     */
+    public Double getPeriodMaxScore(String periodIdentifier) {
+        double max = 0d;
+        PeriodInternal p = periods.get(periodIdentifier);
+        if (p != null) {
+            for (int i = 0; i < p.getInstanceCount(); i++) {
+                max = Math.max(max, p.getInstanceScore(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param periodIdentifier
+     * @param type
+     * @return requested score of period, 0 if period doesn't exist
+     */
+    public Double getPeriodScore(String periodIdentifier, PeriodScoreType type) {
+        switch (type) {
+            case CURRENT:
+                return getPeriodCurrentScore(periodIdentifier);
+            case PREVIOUS:
+                return getPeriodPreviousScore(periodIdentifier);
+            case MAX:
+                return getPeriodMaxScore(periodIdentifier);
+            default:
+                throw new IllegalArgumentException("Unsupported score type " + type);
+        }
+    }
+
     public PeriodInstance getPeriodPreviousInstance(String periodIdentifier) {
         return getPeriodInstance(periodIdentifier, 1);
     }
@@ -167,14 +212,8 @@ public class PointConcept {
     }
 
     public Double getPeriodScore(String periodIdentifier, int instanceIndex) {
-        Double result = 0d;
         PeriodInternal p = periods.get(periodIdentifier);
-        if (p != null) {
-            PeriodInstance instance = getPeriodInstance(periodIdentifier, instanceIndex);
-            result = instance != null ? instance.getScore() : 0d;
-        }
-
-        return result;
+        return p != null ? p.getScoreByIndex(instanceIndex) : 0d;
     }
 
     public PeriodInstance getPeriodInstance(String periodIdentifier, int instanceIndex) {
@@ -190,6 +229,36 @@ public class PointConcept {
         return result;
     }
 
+    /**
+     * Instance keys are local date times, local time millis are handled as
+     * UTC to do arithmetic on them
+     */
+    private static final Chronology LOCAL_CHRONOLOGY = ISOChronology.getInstanceUTC();
+
+    private static final long[] EMPTY_KEYS = new long[0];
+    private static final double[] EMPTY_SCORES = new double[0];
+    private static final int[] EMPTY_INDEXES = new int[0];
+
+    private static final DateTimeFormatter KEY_FORMAT =
+            DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss").withZoneUTC();
+
+    /**
+     * @param key
+     *            instance key in yyyy-MM-dd'T'HH:mm:ss format
+     * @return local date time of key in millis
+     */
+    static long parseKey(String key) {
+        return KEY_FORMAT.parseMillis(key);
+    }
+
+    private static long toLocal(long instant) {
+        return DateTimeZone.getDefault().convertUTCToLocal(instant);
+    }
+
+    private static long toInstant(long local) {
+        return DateTimeZone.getDefault().convertLocalToUTC(local, false);
+    }
+
     public interface Period {
         public Date getStart();
 
@@ -215,16 +284,14 @@ public class PointConcept {
         private int capacity;
 
         /*
-         * JsonDeserialize is used by convertValue method of ObjectMapper field of PlayerState. In
-         * constructor of playerState the StatePersistence object is deserialized.
-         * 
-         * convertValue method invoked PointConcept constructor annotated with JsonCreator.
-         * 
-         * Improve this flow. Use PointConceptTest.persistPeriod() as example
+         * Instances are kept in parallel arrays sorted by key, the local date time of instance
+         * start in millis. Instance start and end are derived from key and period, as done when
+         * instances are created.
          */
-        @JsonDeserialize(keyUsing = LocalDateTimeDeserializer.class)
-        // @JsonSerialize(keyUsing = LocalDateTimeSerializer.class)
-        private TreeMap<LocalDateTime, PeriodInstanceImpl> instances = new TreeMap<>();
+        private long[] keys = EMPTY_KEYS;
+        private double[] scores = EMPTY_SCORES;
+        private int[] indexes = EMPTY_INDEXES;
+        private int size;
 
         public PeriodInternal(String identifier, Date start, long period) {
             this.start = start;
@@ -243,7 +310,7 @@ public class PointConcept {
             if (jsonProps != null) {
                 Object startField = jsonProps.get("start");
                 if (startField != null) {
-                    start = new Date((long) startField);
+                    start = new Date(((Number) startField).longValue());
                 }
                 Object periodField = jsonProps.get("period");
                 if (periodField != null) {
@@ -264,10 +331,9 @@ public class PointConcept {
                 if (tempInstances != null) {
                     Set<Entry<String, Map<String, Object>>> entries = tempInstances.entrySet();
                     for (Entry<String, Map<String, Object>> entry : entries) {
-                        instances.put(
-                                DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss")
-                                        .parseLocalDateTime(entry.getKey()),
-                                new PeriodInstanceImpl(entry.getValue()));
+                        PeriodInstanceImpl instance = new PeriodInstanceImpl(entry.getValue());
+                        putInstance(parseKey(entry.getKey()), instance.getScore(),
+                                instance.getIndex());
                     }
                 }
             }
@@ -279,42 +345,196 @@ public class PointConcept {
 
         @JsonIgnore
         public Double getCurrentScore() {
-            try {
-                return getCurrentInstance().getScore();
-            } catch (IllegalArgumentException e) {
-                return 0d;
-            }
+            return getScore(executionMoment);
         }
 
         public Double getScore(long moment) {
-            try {
-                return retrieveInstance(moment).getScore();
-            } catch (NullPointerException e) {
+            int slot = findSlot(moment);
+            return slot >= 0 ? scores[slot] : 0d;
+        }
+
+        /**
+         * @param index
+         * @return score of instance index, 0 if instance doesn't exist
+         */
+        public Double getScoreByIndex(int index) {
+            if (start == null || index < 0) {
                 return 0d;
             }
+            // same lookup of a moment, from the local start of instance
+            return getScore(toInstant(toLocal(start.getTime()) + index * period));
         }
 
         public Double increaseScore(Double value, long moment) {
             try {
-                PeriodInstanceImpl instance = retrieveInstance(moment);
-                return instance.increaseScore(value);
+                int slot = retrieveSlot(moment);
+                if (slot < 0) {
+                    // instance evicted by capacity
+                    return value;
+                }
+                scores[slot] += value;
+                return scores[slot];
             } catch (IllegalArgumentException e) {
                 return 0d;
             }
         }
 
+        /**
+         * Read only lookup, instances are never created or changed, so a period can be read by
+         * many threads at once
+         * 
+         * @param moment
+         * @return slot of instance containing moment, negative if it doesn't exist
+         */
+        private int findSlot(long moment) {
+            if (start == null || start.getTime() > moment) {
+                return -1;
+            }
+            long key = toLocal(start.getTime()) + resolveIndex(moment) * period;
+            int slot = Arrays.binarySearch(keys, 0, size, key);
+            if (slot < 0 && isMisaligned(moment, key)) {
+                slot = Arrays.binarySearch(keys, 0, size, stepKey(moment));
+            }
+            return slot;
+        }
+
         private PeriodInstanceImpl retrieveInstance(long moment) {
-            LocalDateTime momentDate = new LocalDateTime(moment);
-            if (start.after(momentDate.toDate())) {
+            return toInstance(retrieveSlot(moment));
+        }
+
+        /**
+         * @param moment
+         * @return slot of instance containing moment, created if it doesn't exist
+         */
+        private int retrieveSlot(long moment) {
+            if (start.getTime() > moment) {
                 throw new IllegalArgumentException("moment is previous than startDate of period");
             }
+            int index = resolveIndex(moment);
+            long key = toLocal(start.getTime()) + index * period;
+            int slot = Arrays.binarySearch(keys, 0, size, key);
+            if (slot < 0) {
+                if (isMisaligned(moment, key)) {
+                    return stepSlot(moment);
+                }
+                slot = addInstance(key, 0d, index);
+            }
+            return slot;
+        }
+
+        /**
+         * Instances created by engine start at start date plus a multiple of period, an instance
+         * starting between the computed one and moment means instances are not aligned to period
+         * start
+         */
+        private boolean isMisaligned(long moment, long key) {
+            int floor = floorSlot(toLocal(moment));
+            return floor >= 0 && keys[floor] > key;
+        }
 
-            PeriodInstanceImpl instance = null;
-            LocalDateTime key = null;
-            LocalDateTime lowerBoundDate = instances.floorKey(momentDate);
-            if (lowerBoundDate == null) {
-                lowerBoundDate = new LocalDateTime(start.getTime());
+        private int floorSlot(long key) {
+            int slot = Arrays.binarySearch(keys, 0, size, key);
+            return slot >= 0 ? slot : -slot - 2;
+        }
+
+        /**
+         * Index of the instance containing moment. Period length is fixed in local time, so index
+         * is computed in local time millis and checked against instant bounds, stepping one period
+         * at a time only when local time is ambiguous (daylight saving changes)
+         */
+        private int resolveIndex(long moment) {
+            if (period > 0) {
+                long localStart = toLocal(start.getTime());
+                long offset = toLocal(moment) - localStart;
+                if (offset >= 0 && offset / period <= Integer.MAX_VALUE) {
+                    long index = offset / period;
+                    long instanceStart = localStart + index * period;
+                    if (toInstant(instanceStart) <= moment
+                            && moment < toInstant(instanceStart + period)) {
+                        return (int) index;
+                    }
+                }
             }
+            return getInstanceIndex(new LocalDateTime(start.getTime()),
+                    new org.joda.time.Period(period), new LocalDateTime(moment));
+        }
+
+        /**
+         * Add an instance respecting capacity
+         * 
+         * @return slot of the new instance, negative if it has been evicted
+         */
+        private int addInstance(long key, double score, int index) {
+            int slot = putInstance(key, score, index);
+            if (capacity > 0 && size > capacity) {
+                removeSlot(0);
+                slot--;
+            }
+            return slot;
+        }
+
+        private int putInstance(long key, double score, int index) {
+            int slot = Arrays.binarySearch(keys, 0, size, key);
+            if (slot >= 0) {
+                scores[slot] = score;
+                indexes[slot] = index;
+                return slot;
+            }
+            slot = -slot - 1;
+            if (size == keys.length) {
+                int length = Math.max(4, size + (size >> 1));
+                keys = Arrays.copyOf(keys, length);
+                scores = Arrays.copyOf(scores, length);
+                indexes = Arrays.copyOf(indexes, length);
+            }
+            System.arraycopy(keys, slot, keys, slot + 1, size - slot);
+            System.arraycopy(scores, slot, scores, slot + 1, size - slot);
+            System.arraycopy(indexes, slot, indexes, slot + 1, size - slot);
+            keys[slot] = key;
+            scores[slot] = score;
+            indexes[slot] = index;
+            size++;
+            return slot;
+        }
+
+        private void removeSlot(int slot) {
+            System.arraycopy(keys, slot + 1, keys, slot, size - slot - 1);
+            System.arraycopy(scores, slot + 1, scores, slot, size - slot - 1);
+            System.arraycopy(indexes, slot + 1, indexes, slot, size - slot - 1);
+            size--;
+        }
+
+        /**
+         * Release unused array capacity, used once instances are read
+         */
+        private void trim() {
+            if (size < keys.length) {
+                keys = Arrays.copyOf(keys, size);
+                scores = Arrays.copyOf(scores, size);
+                indexes = Arrays.copyOf(indexes, size);
+            }
+        }
+
+        private int stepSlot(long moment) {
+            long key = stepKey(moment);
+            int slot = Arrays.binarySearch(keys, 0, size, key);
+            if (slot < 0) {
+                slot = addInstance(key, 0d, getInstanceIndex(new LocalDateTime(start.getTime()),
+                        new org.joda.time.Period(period), new LocalDateTime(moment)));
+            }
+            return slot;
+        }
+
+        /**
+         * Step one period at a time from floor instance or period start
+         * 
+         * @return key of instance containing moment, instances are not changed
+         */
+        private long stepKey(long moment) {
+            int floor = floorSlot(toLocal(moment));
+            LocalDateTime lowerBoundDate = floor >= 0
+                    ? new LocalDateTime(keys[floor], LOCAL_CHRONOLOGY)
+                    : new LocalDateTime(start.getTime());
             org.joda.time.Period jodaPeriod = new org.joda.time.Period(period);
             Interval interval = null;
             do {
@@ -322,21 +542,7 @@ public class PointConcept {
                         lowerBoundDate.withPeriodAdded(jodaPeriod, 1).toDateTime());
                 lowerBoundDate = interval.getEnd().toLocalDateTime();
             } while (!interval.contains(moment));
-
-            instance = instances.get(interval.getStart().toLocalDateTime());
-            if (instance == null) {
-                instance =
-                        new PeriodInstanceImpl(interval.getStartMillis(), interval.getEndMillis());
-                instance.setIndex(getInstanceIndex(new LocalDateTime(start.getTime()), jodaPeriod,
-                        momentDate));
-                key = interval.getStart().toLocalDateTime();
-                instances.put(key, instance);
-                if (capacity > 0 && instances.size() > capacity) {
-                    instances.pollFirstEntry();
-                }
-            }
-
-            return instance;
+            return toLocal(interval.getStartMillis());
         }
 
         private int getInstanceIndex(LocalDateTime start, org.joda.time.Period period,
@@ -355,6 +561,17 @@ public class PointConcept {
             return index;
         }
 
+        private PeriodInstanceImpl toInstance(int slot) {
+            if (slot < 0) {
+                return null;
+            }
+            PeriodInstanceImpl instance =
+                    new PeriodInstanceImpl(toInstant(keys[slot]), toInstant(keys[slot] + period));
+            instance.setScore(scores[slot]);
+            instance.setIndex(indexes[slot]);
+            return instance;
+        }
+
         public Date getStart() {
             return start;
         }
@@ -371,12 +588,56 @@ public class PointConcept {
             this.period = period;
         }
 
+        /**
+         * @return copy of instances by start local date time, changes to it are not reflected to
+         *         the period
+         */
         public TreeMap<LocalDateTime, PeriodInstanceImpl> getInstances() {
-            return instances;
+            TreeMap<LocalDateTime, PeriodInstanceImpl> result = new TreeMap<>();
+            for (int i = 0; i < size; i++) {
+                result.put(new LocalDateTime(keys[i], LOCAL_CHRONOLOGY), toInstance(i));
+            }
+            return result;
         }
 
         public void setInstances(TreeMap<LocalDateTime, PeriodInstanceImpl> instances) {
-            this.instances = instances;
+            size = 0;
+            for (Entry<LocalDateTime, PeriodInstanceImpl> entry : instances.entrySet()) {
+                putInstance(entry.getKey().toDateTime(DateTimeZone.UTC).getMillis(),
+                        entry.getValue().getScore(), entry.getValue().getIndex());
+            }
+        }
+
+        /**
+         * @return number of instances
+         */
+        @JsonIgnore
+        public int getInstanceCount() {
+            return size;
+        }
+
+        /**
+         * @param i
+         *            position of instance in start order
+         * @return score of instance
+         */
+        public double getInstanceScore(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("instance " + i + ", size " + size);
+            }
+            return scores[i];
+        }
+
+        /**
+         * @param i
+         *            position of instance in start order
+         * @return index of instance, counted from period start
+         */
+        public int getInstanceIndex(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("instance " + i + ", size " + size);
+            }
+            return indexes[i];
         }
 
         public void setIdentifier(String identifier) {
@@ -535,6 +796,16 @@ public class PointConcept {
         return name;
     }
 
+    /**
+     * Point concept names are compared ignoring case and surrounding spaces
+     * 
+     * @param name
+     * @return name in the form used for lookups, null if name is null
+     */
+    public static String normalizeName(String name) {
+        return name == null ? null : name.trim().toLowerCase(Locale.ROOT);
+    }
+
     public void setName(String name) {
         this.name = name;
     }
@@ -546,4 +817,95 @@ public class PointConcept {
     public void setId(String id) {
         this.id = id;
     }
+
+    /**
+     * Read point concept JSON directly into period instance arrays, without
+     * building intermediate maps
+     */
+    public static class Deserializer extends JsonDeserializer<PointConcept> {
+
+        @Override
+        public PointConcept deserialize(JsonParser parser, DeserializationContext ctxt)
+                throws IOException {
+            if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+                throw ctxt.mappingException(PointConcept.class);
+            }
+            PointConcept pc = new PointConcept((String) null);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("id".equals(field)) {
+                    pc.id = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else if ("name".equals(field)) {
+                    pc.name = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else if ("score".equals(field) && token.isNumeric()) {
+                    pc.score = parser.getDoubleValue();
+                } else if ("periods".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String key = parser.getCurrentName();
+                        if (parser.nextToken() == JsonToken.START_OBJECT) {
+                            pc.periods.put(key, readPeriod(parser, pc));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return pc;
+        }
+
+        private PeriodInternal readPeriod(JsonParser parser, PointConcept pc) throws IOException {
+            PeriodInternal p = pc.new PeriodInternal(null, null, 0);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("start".equals(field) && token.isNumeric()) {
+                    p.start = new Date(parser.getLongValue());
+                } else if ("period".equals(field) && token.isNumeric()) {
+                    p.period = parser.getLongValue();
+                } else if ("identifier".equals(field)) {
+                    p.identifier =
+                            token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else if ("capacity".equals(field) && token.isNumeric()) {
+                    p.capacity = parser.getIntValue();
+                } else if ("instances".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        long key = parseKey(parser.getCurrentName());
+                        if (parser.nextToken() == JsonToken.START_OBJECT) {
+                            readInstance(parser, p, key);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            p.trim();
+            return p;
+        }
+
+        /*
+         * start and end of instance are not kept, they are derived from key and period
+         */
+        private void readInstance(JsonParser parser, PeriodInternal p, long key)
+                throws IOException {
+            double score = 0d;
+            int index = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("score".equals(field) && token.isNumeric()) {
+                    score = parser.getDoubleValue();
+                } else if ("index".equals(field) && token.isNumeric()) {
+                    index = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            p.putInstance(key, score, index);
+        }
+    }
 }
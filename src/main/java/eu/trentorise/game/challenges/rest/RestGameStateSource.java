@@ -0,0 +1,70 @@
+package eu.trentorise.game.challenges.rest;
+
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Game state read from gamification engine
+ */
+public class RestGameStateSource extends GameStateSource {
+
+	private final GamificationEngineRestFacade facade;
+	private final String gameId;
+	private final int pageSize;
+
+	/**
+	 * @param facade
+	 * @param gameId
+	 * @param pageSize
+	 *            number of players for page, 0 to use gamification engine
+	 *            default
+	 */
+	public RestGameStateSource(GamificationEngineRestFacade facade,
+			String gameId, int pageSize) {
+		if (facade == null || gameId == null) {
+			throw new IllegalArgumentException(
+					"facade and gameId must be not null");
+		}
+		if (pageSize < 0) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		this.facade = facade;
+		this.gameId = gameId;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public InputStream openPage(int page) {
+		return facade.openGameStatePage(gameId, page, pageSize);
+	}
+
+	/**
+	 * Read all players with
+	 * {@link GamificationEngineRestFacade#DEFAULT_PARALLELISM} requests in
+	 * flight
+	 */
+	@Override
+	public List<Content> read() {
+		return read(GamificationEngineRestFacade.DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Pages are requested concurrently as in
+	 * {@link GamificationEngineRestFacade#readGameState(String, int, int)}
+	 */
+	@Override
+	public List<Content> read(int parallelism) {
+		List<Content> result = facade.readGameState(gameId, pageSize,
+				parallelism);
+		if (result == null) {
+			throw new IllegalStateException("error in reading game state of "
+					+ gameId);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "host " + facade.getTarget().getUri();
+	}
+}
@@ -1,6 +1,5 @@
 package eu.trentorise.game.challenges.rest;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +15,14 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+/**
+ * Player state, concepts are kept as read from gamification engine and bound
+ * to their types only on first access, then the typed lists are reused. A
+ * state can be read by many threads: concepts are bound once, under lock, and
+ * published through volatile fields
+ */
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @Generated("org.jsonschema2pojo")
 @JsonPropertyOrder({"BadgeCollectionConcept", "PointConcept"})
@@ -23,62 +30,68 @@ public class State extends HashMap<String, List<Object>> {
 
     private static final long serialVersionUID = -338854568693735588L;
 
-    private ObjectMapper mapper = new ObjectMapper();
+    private static final String BADGE_COLLECTION_CONCEPT = "BadgeCollectionConcept";
+    private static final String POINT_CONCEPT = "PointConcept";
+    private static final String CHALLENGE_CONCEPT = "ChallengeConcept";
+
+    private static final ObjectMapper mapper = JsonUtil.mapper();
+    private static final JavaType BADGE_COLLECTION_CONCEPT_TYPE = mapper.getTypeFactory()
+            .constructCollectionType(List.class,
+                    eu.trentorise.game.challenges.rest.BadgeCollectionConcept.class);
+    private static final JavaType POINT_CONCEPT_TYPE = mapper.getTypeFactory()
+            .constructCollectionType(List.class,
+                    eu.trentorise.game.challenges.rest.PointConcept.class);
+    private static final JavaType CHALLENGE_CONCEPT_TYPE = mapper.getTypeFactory()
+            .constructCollectionType(List.class,
+                    eu.trentorise.game.challenges.rest.ChallengeConcept.class);
 
-    @JsonProperty("BadgeCollectionConcept")
-    private List<eu.trentorise.game.challenges.rest.BadgeCollectionConcept> BadgeCollectionConcept =
-            new ArrayList<eu.trentorise.game.challenges.rest.BadgeCollectionConcept>();
-    @JsonProperty("PointConcept")
-    private List<eu.trentorise.game.challenges.rest.PointConcept> PointConcept =
-            new ArrayList<eu.trentorise.game.challenges.rest.PointConcept>();
-    @JsonProperty("ChallengeConcept")
-    private List<eu.trentorise.game.challenges.rest.ChallengeConcept> ChallengeConcept =
-            new ArrayList<eu.trentorise.game.challenges.rest.ChallengeConcept>();
+    @JsonIgnore
+    private transient volatile List<eu.trentorise.game.challenges.rest.BadgeCollectionConcept> BadgeCollectionConcept;
+    @JsonIgnore
+    private transient volatile List<eu.trentorise.game.challenges.rest.PointConcept> PointConcept;
+    @JsonIgnore
+    private transient volatile List<eu.trentorise.game.challenges.rest.ChallengeConcept> ChallengeConcept;
     @JsonIgnore
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
     /**
-     * 
+     *
      * @return The BadgeCollectionConcept
      */
     @JsonProperty("BadgeCollectionConcept")
     public List<eu.trentorise.game.challenges.rest.BadgeCollectionConcept> getBadgeCollectionConcept() {
-        JavaType type = mapper.getTypeFactory().constructCollectionType(List.class,
-                eu.trentorise.game.challenges.rest.BadgeCollectionConcept.class);
-        return mapper.convertValue(get("BadgeCollectionConcept"), type);
+        List<eu.trentorise.game.challenges.rest.BadgeCollectionConcept> concepts = BadgeCollectionConcept;
+        if (concepts == null) {
+            synchronized (this) {
+                concepts = BadgeCollectionConcept;
+                if (concepts == null) {
+                    concepts = bind(BADGE_COLLECTION_CONCEPT, BADGE_COLLECTION_CONCEPT_TYPE);
+                    BadgeCollectionConcept = concepts;
+                }
+            }
+        }
+        return concepts;
     }
 
     /**
-     * 
-     * @param BadgeCollectionConcept The BadgeCollectionConcept
-     */
-    // @JsonProperty("BadgeCollectionConcept")
-    // public void setBadgeCollectionConcept(
-    // List<eu.trentorise.game.challenges.rest.BadgeCollectionConcept> BadgeCollectionConcept) {
-    // this.BadgeCollectionConcept = BadgeCollectionConcept;
-    // }
-
-    /**
-     * 
+     *
      * @return The PointConcept
      */
     @JsonProperty("PointConcept")
     public List<eu.trentorise.game.challenges.rest.PointConcept> getPointConcept() {
-        JavaType type = mapper.getTypeFactory().constructCollectionType(List.class,
-                eu.trentorise.game.challenges.rest.PointConcept.class);
-        return mapper.convertValue(get("PointConcept"), type);
+        List<eu.trentorise.game.challenges.rest.PointConcept> concepts = PointConcept;
+        if (concepts == null) {
+            synchronized (this) {
+                concepts = PointConcept;
+                if (concepts == null) {
+                    concepts = bind(POINT_CONCEPT, POINT_CONCEPT_TYPE);
+                    PointConcept = concepts;
+                }
+            }
+        }
+        return concepts;
     }
 
-    /**
-     * 
-     * @param PointConcept The PointConcept
-     */
-    // @JsonProperty("PointConcept")
-    // public void setPointConcept(
-    // List<eu.trentorise.game.challenges.rest.PointConcept> PointConcept) {
-    // this.PointConcept = PointConcept;
-    // }
-
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -91,15 +104,54 @@ public class State extends HashMap<String, List<Object>> {
 
     @JsonProperty("ChallengeConcept")
     public List<eu.trentorise.game.challenges.rest.ChallengeConcept> getChallengeConcept() {
-        JavaType type = mapper.getTypeFactory().constructCollectionType(List.class,
-                eu.trentorise.game.challenges.rest.ChallengeConcept.class);
-        return mapper.convertValue(get("ChallengeConcept"), type);
+        List<eu.trentorise.game.challenges.rest.ChallengeConcept> concepts = ChallengeConcept;
+        if (concepts == null) {
+            synchronized (this) {
+                concepts = ChallengeConcept;
+                if (concepts == null) {
+                    concepts = bind(CHALLENGE_CONCEPT, CHALLENGE_CONCEPT_TYPE);
+                    ChallengeConcept = concepts;
+                }
+            }
+        }
+        return concepts;
     }
 
-    // @JsonProperty("ChallengeConcept")
-    // public void setChallengeConcept(
-    // List<eu.trentorise.game.challenges.rest.ChallengeConcept> challengeConcept) {
-    // ChallengeConcept = challengeConcept;
-    // }
+    private <T> List<T> bind(String key, JavaType type) {
+        return mapper.convertValue(get(key), type);
+    }
+
+    /**
+     * Drop bound concepts, they will be bound again from raw values on next access
+     */
+    private synchronized void unbind() {
+        BadgeCollectionConcept = null;
+        PointConcept = null;
+        ChallengeConcept = null;
+    }
+
+    @Override
+    public List<Object> put(String key, List<Object> value) {
+        unbind();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends List<Object>> m) {
+        unbind();
+        super.putAll(m);
+    }
+
+    @Override
+    public List<Object> remove(Object key) {
+        unbind();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        unbind();
+        super.clear();
+    }
 
 }
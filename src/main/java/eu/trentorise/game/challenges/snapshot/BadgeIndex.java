@@ -0,0 +1,264 @@
+package eu.trentorise.game.challenges.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import eu.trentorise.game.challenges.rest.PointConcept;
+
+/**
+ * Badge collections of a snapshot. For every collection it keeps the number of
+ * badges earned by every row and a dictionary of the badges earned by any
+ * player, numbered in order of first appearance; badges earned by a row are
+ * a bitset over the dictionary, packed in a single array of longs. Badge
+ * criteria and earned badge checks are array lookups instead of walks of
+ * {@link eu.trentorise.game.challenges.rest.BadgeCollectionConcept} lists.
+ * The dictionary only holds badges earned by players of the snapshot, it is
+ * not the definition of the collection.
+ *
+ * Collection names are case insensitive, see
+ * {@link PointConcept#normalizeName(String)}. Arrays returned are shared and
+ * must not be modified.
+ */
+public class BadgeIndex {
+
+	private final Map<String, CollectionColumns> collections;
+
+	BadgeIndex(Map<String, CollectionColumns> collections) {
+		this.collections = collections;
+	}
+
+	/**
+	 * @return normalized names of badge collections
+	 */
+	public Set<String> getCollections() {
+		return Collections.unmodifiableSet(collections.keySet());
+	}
+
+	/**
+	 * @param collection
+	 * @return number of badges earned by row, -1 for players without the
+	 *         collection, null if collection is unknown
+	 */
+	public int[] getCounts(String collection) {
+		CollectionColumns c = get(collection);
+		return c != null ? c.counts : null;
+	}
+
+	/**
+	 * @param collection
+	 * @return badges earned by any player, in order of first appearance, empty
+	 *         if collection is unknown
+	 */
+	public List<String> getBadges(String collection) {
+		CollectionColumns c = get(collection);
+		return c != null ? Collections.unmodifiableList(Arrays
+				.asList(c.badges)) : Collections.<String> emptyList();
+	}
+
+	/**
+	 * @param row
+	 * @param collection
+	 * @return number of badges earned, -1 if player doesn't have the
+	 *         collection
+	 */
+	public int count(int row, String collection) {
+		CollectionColumns c = get(collection);
+		return c != null ? c.counts[row] : -1;
+	}
+
+	/**
+	 * @param row
+	 * @param collection
+	 * @param badge
+	 * @return true if player has earned badge
+	 */
+	public boolean hasEarned(int row, String collection, String badge) {
+		CollectionColumns c = get(collection);
+		if (c == null) {
+			return false;
+		}
+		Integer id = c.ids.get(badge);
+		return id != null && c.isEarned(row, id);
+	}
+
+	/**
+	 * @param row
+	 * @param collection
+	 * @return indexes in {@link #getBadges(String)} of badges earned by player
+	 */
+	public BitSet getEarned(int row, String collection) {
+		CollectionColumns c = get(collection);
+		if (c == null || c.words == 0) {
+			return new BitSet();
+		}
+		return BitSet.valueOf(Arrays.copyOfRange(c.earned, row * c.words,
+				(row + 1) * c.words));
+	}
+
+	Map<String, CollectionColumns> getCollectionColumns() {
+		return collections;
+	}
+
+	private CollectionColumns get(String collection) {
+		return collections.get(PointConcept.normalizeName(collection));
+	}
+
+	static class CollectionColumns {
+		final int[] counts;
+		final String[] badges;
+		/**
+		 * longs of every row in earned
+		 */
+		final int words;
+		final long[] earned;
+		private final Map<String, Integer> ids;
+
+		CollectionColumns(int[] counts, String[] badges, int words,
+				long[] earned) {
+			this.counts = counts;
+			this.badges = badges;
+			this.words = words;
+			this.earned = earned;
+			ids = new HashMap<String, Integer>(badges.length * 2);
+			for (int i = 0; i < badges.length; i++) {
+				ids.put(badges[i], i);
+			}
+		}
+
+		private boolean isEarned(int row, int id) {
+			return (earned[row * words + (id >>> 6)] & (1L << id)) != 0;
+		}
+	}
+
+	/**
+	 * Collect badges one player at a time, collections and badges are
+	 * discovered while players are added
+	 */
+	static class Builder {
+		private final Map<String, CollectionBuilder> collections = new LinkedHashMap<String, CollectionBuilder>();
+
+		/**
+		 * @param row
+		 * @param collection
+		 * @param earned
+		 *            badges earned, null if none
+		 */
+		void add(int row, String collection, List<String> earned) {
+			String key = PointConcept.normalizeName(collection);
+			if (key == null) {
+				return;
+			}
+			CollectionBuilder c = collection(key);
+			// first collection with a given name wins
+			if (c.count(row) >= 0) {
+				return;
+			}
+			BitSet bits = new BitSet();
+			if (earned != null) {
+				for (String badge : earned) {
+					bits.set(c.id(badge));
+				}
+			}
+			c.set(row, earned != null ? earned.size() : 0, bits);
+		}
+
+		/**
+		 * Copy badges of a row of another index
+		 */
+		void add(int target, BadgeIndex source, int row) {
+			for (Entry<String, CollectionColumns> e : source.collections
+					.entrySet()) {
+				CollectionColumns sc = e.getValue();
+				if (sc.counts[row] < 0) {
+					continue;
+				}
+				CollectionBuilder c = collection(e.getKey());
+				BitSet bits = new BitSet();
+				for (int id = 0; id < sc.badges.length; id++) {
+					if (sc.isEarned(row, id)) {
+						bits.set(c.id(sc.badges[id]));
+					}
+				}
+				c.set(target, sc.counts[row], bits);
+			}
+		}
+
+		BadgeIndex build(int size) {
+			Map<String, CollectionColumns> result = new LinkedHashMap<String, CollectionColumns>();
+			for (Entry<String, CollectionBuilder> e : collections.entrySet()) {
+				result.put(e.getKey(), e.getValue().build(size));
+			}
+			return new BadgeIndex(result);
+		}
+
+		private CollectionBuilder collection(String key) {
+			CollectionBuilder c = collections.get(key);
+			if (c == null) {
+				c = new CollectionBuilder();
+				collections.put(key, c);
+			}
+			return c;
+		}
+	}
+
+	private static class CollectionBuilder {
+		private int[] counts = new int[0];
+		private final List<BitSet> earned = new ArrayList<BitSet>();
+		private final List<String> badges = new ArrayList<String>();
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		private int count(int row) {
+			return row < counts.length ? counts[row] : -1;
+		}
+
+		private int id(String badge) {
+			Integer id = ids.get(badge);
+			if (id == null) {
+				id = badges.size();
+				badges.add(badge);
+				ids.put(badge, id);
+			}
+			return id;
+		}
+
+		private void set(int row, int count, BitSet bits) {
+			if (row >= counts.length) {
+				int length = counts.length;
+				counts = Arrays.copyOf(counts,
+						Math.max(row + 1, Math.max(16, length * 2)));
+				Arrays.fill(counts, length, counts.length, -1);
+			}
+			counts[row] = count;
+			while (earned.size() <= row) {
+				earned.add(null);
+			}
+			earned.set(row, bits);
+		}
+
+		private CollectionColumns build(int size) {
+			int words = (badges.size() + 63) >>> 6;
+			long[] packed = new long[size * words];
+			for (int row = 0; row < earned.size() && row < size; row++) {
+				BitSet bits = earned.get(row);
+				if (bits != null) {
+					long[] w = bits.toLongArray();
+					System.arraycopy(w, 0, packed, row * words, w.length);
+				}
+			}
+			int[] result = Arrays.copyOf(counts, size);
+			if (counts.length < size) {
+				Arrays.fill(result, counts.length, size, -1);
+			}
+			return new CollectionColumns(result, badges.toArray(new String[badges
+					.size()]), words, packed);
+		}
+	}
+}
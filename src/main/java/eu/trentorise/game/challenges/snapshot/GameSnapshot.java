@@ -0,0 +1,532 @@
+package eu.trentorise.game.challenges.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import eu.trentorise.game.challenges.rest.BadgeCollectionConcept;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.rest.PointConcept.PeriodInternal;
+
+/**
+ * Columnar, read only view of a game state. Every player is a row, identified
+ * by its position; point concept scores, period scores and badges (see
+ * {@link BadgeIndex}) are kept in primitive columns indexed by row, so passes
+ * over all players read contiguous arrays instead of walking {@link Content}
+ * objects.
+ *
+ * Concept and badge collection names are case insensitive, see
+ * {@link PointConcept#normalizeName(String)}. Columns returned are shared and
+ * must not be modified.
+ */
+public class GameSnapshot {
+
+	private final long moment;
+	private final String[] playerIds;
+	private final String[] gameIds;
+	private final Map<String, Integer> rows;
+	private final Map<String, ConceptColumns> concepts;
+	private final BadgeIndex badges;
+
+	GameSnapshot(long moment, String[] playerIds, String[] gameIds,
+			Map<String, ConceptColumns> concepts, BadgeIndex badges) {
+		this.moment = moment;
+		this.playerIds = playerIds;
+		this.gameIds = gameIds;
+		this.concepts = concepts;
+		this.badges = badges;
+		rows = new HashMap<String, Integer>(playerIds.length * 2);
+		for (int i = 0; i < playerIds.length; i++) {
+			// first row of a player wins
+			if (!rows.containsKey(playerIds[i])) {
+				rows.put(playerIds[i], i);
+			}
+		}
+	}
+
+	/**
+	 * @param players
+	 * @return snapshot with a row for every player, in the given order
+	 */
+	public static GameSnapshot build(List<Content> players) {
+		if (players == null) {
+			throw new IllegalArgumentException("players must be not null");
+		}
+		return build(players.iterator());
+	}
+
+	/**
+	 * @param players
+	 *            i.e. a game state stream
+	 * @return snapshot with a row for every player, in the given order
+	 */
+	public static GameSnapshot build(Iterator<Content> players) {
+		if (players == null) {
+			throw new IllegalArgumentException("players must be not null");
+		}
+		Builder builder = new Builder();
+		while (players.hasNext()) {
+			builder.add(players.next());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return number of players
+	 */
+	public int size() {
+		return playerIds.length;
+	}
+
+	public String getPlayerId(int row) {
+		return playerIds[row];
+	}
+
+	public String getGameId(int row) {
+		return gameIds[row];
+	}
+
+	/**
+	 * @return time in millis when period scores were read
+	 */
+	public long getMoment() {
+		return moment;
+	}
+
+	/**
+	 * @param now
+	 * @return true if current and previous period scores are still valid at
+	 *         given moment, i.e. no period has moved to a new instance since
+	 *         snapshot has been taken
+	 */
+	public boolean isCurrent(long now) {
+		if (now < moment) {
+			return false;
+		}
+		for (ConceptColumns c : concepts.values()) {
+			for (PeriodColumns p : c.periods.values()) {
+				if (p.length > 0
+						&& (moment - p.start) / p.length != (now - p.start)
+								/ p.length) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param playerId
+	 * @return row of player, -1 if player is not in snapshot
+	 */
+	public int getRow(String playerId) {
+		Integer row = rows.get(playerId);
+		return row != null ? row : -1;
+	}
+
+	/**
+	 * @return normalized names of point concepts
+	 */
+	public Set<String> getConcepts() {
+		return Collections.unmodifiableSet(concepts.keySet());
+	}
+
+	/**
+	 * @param concept
+	 * @return period identifiers of point concept, empty if concept is unknown
+	 */
+	public Set<String> getPeriods(String concept) {
+		ConceptColumns c = concepts.get(PointConcept.normalizeName(concept));
+		return c != null ? Collections.unmodifiableSet(c.periods.keySet())
+				: Collections.<String> emptySet();
+	}
+
+	/**
+	 * @param row
+	 * @param concept
+	 * @return true if player has point concept
+	 */
+	public boolean hasConcept(int row, String concept) {
+		double[] scores = getScores(concept);
+		return scores != null && !Double.isNaN(scores[row]);
+	}
+
+	/**
+	 * @param concept
+	 * @return total score of point concept by row, NaN for players without the
+	 *         concept, null if concept is unknown
+	 */
+	public double[] getScores(String concept) {
+		ConceptColumns c = concepts.get(PointConcept.normalizeName(concept));
+		return c != null ? c.total : null;
+	}
+
+	/**
+	 * @param concept
+	 * @param period
+	 *            period identifier, i.e. weekly
+	 * @param type
+	 * @return period score of point concept by row, 0 for players without
+	 *         concept or period, null if concept or period are unknown
+	 */
+	public double[] getPeriodScores(String concept, String period,
+			PeriodScoreType type) {
+		PeriodColumns p = getPeriodColumns(concept, period);
+		if (p == null || type == null) {
+			return null;
+		}
+		switch (type) {
+		case CURRENT:
+			return p.current;
+		case PREVIOUS:
+			return p.previous;
+		case MAX:
+			return p.max;
+		default:
+			throw new IllegalArgumentException("Unsupported score type " + type);
+		}
+	}
+
+	/**
+	 * @param concept
+	 * @param period
+	 * @return scores of period instances, first by instance index then by
+	 *         row, 0 where player doesn't have the instance, null if concept
+	 *         or period are unknown
+	 */
+	public double[][] getInstanceScores(String concept, String period) {
+		PeriodColumns p = getPeriodColumns(concept, period);
+		return p != null ? p.instances : null;
+	}
+
+	/**
+	 * @param collection
+	 *            badge collection name
+	 * @return number of badges earned by row, -1 for players without the
+	 *         collection, null if collection is unknown
+	 */
+	public int[] getBadgeCounts(String collection) {
+		return badges.getCounts(collection);
+	}
+
+	/**
+	 * @return badges earned by players
+	 */
+	public BadgeIndex getBadges() {
+		return badges;
+	}
+
+	/**
+	 * @param row
+	 * @param concept
+	 * @return total score of point concept, 0 if player doesn't have it
+	 * @see Content#score(String)
+	 */
+	public double score(int row, String concept) {
+		double[] scores = getScores(concept);
+		return scores != null && !Double.isNaN(scores[row]) ? scores[row] : 0d;
+	}
+
+	/**
+	 * @param row
+	 * @param concept
+	 * @param period
+	 * @param type
+	 * @return period score, 0 if player doesn't have point concept or period
+	 * @see Content#periodScore(String, String, PeriodScoreType)
+	 */
+	public double periodScore(int row, String concept, String period,
+			PeriodScoreType type) {
+		double[] scores = getPeriodScores(concept, period, type);
+		return scores != null ? scores[row] : 0d;
+	}
+
+	/**
+	 * @param row
+	 * @param collection
+	 * @return number of badges earned, -1 if player doesn't have the
+	 *         collection
+	 */
+	public int badgeCount(int row, String collection) {
+		return badges.count(row, collection);
+	}
+
+	private PeriodColumns getPeriodColumns(String concept, String period) {
+		ConceptColumns c = concepts.get(PointConcept.normalizeName(concept));
+		return c != null ? c.periods.get(period) : null;
+	}
+
+	Map<String, ConceptColumns> getConceptColumns() {
+		return concepts;
+	}
+
+	static class ConceptColumns {
+		final double[] total;
+		final Map<String, PeriodColumns> periods;
+
+		ConceptColumns(double[] total, Map<String, PeriodColumns> periods) {
+			this.total = total;
+			this.periods = periods;
+		}
+	}
+
+	static class PeriodColumns {
+		final long start;
+		final long length;
+		final double[] current;
+		final double[] previous;
+		final double[] max;
+		final double[][] instances;
+
+		PeriodColumns(long start, long length, double[] current,
+				double[] previous, double[] max, double[][] instances) {
+			this.start = start;
+			this.length = length;
+			this.current = current;
+			this.previous = previous;
+			this.max = max;
+			this.instances = instances;
+		}
+	}
+
+	/**
+	 * Build a snapshot adding one player at a time, concepts are discovered
+	 * while players are added
+	 */
+	public static class Builder {
+
+		private final long moment = System.currentTimeMillis();
+		private List<String> playerIds = new ArrayList<String>();
+		private List<String> gameIds = new ArrayList<String>();
+		private Map<String, ConceptBuilder> concepts = new LinkedHashMap<String, ConceptBuilder>();
+		private BadgeIndex.Builder badges = new BadgeIndex.Builder();
+
+		/**
+		 * @param player
+		 * @return this builder
+		 */
+		public Builder add(Content player) {
+			if (player == null) {
+				throw new IllegalArgumentException("player must be not null");
+			}
+			int row = playerIds.size();
+			playerIds.add(player.getPlayerId());
+			gameIds.add(player.getGameId());
+			if (player.getState() == null) {
+				return this;
+			}
+			List<PointConcept> pcs = player.getState().getPointConcept();
+			if (pcs != null) {
+				for (PointConcept pc : pcs) {
+					addConcept(row, pc);
+				}
+			}
+			List<BadgeCollectionConcept> bcs = player.getState()
+					.getBadgeCollectionConcept();
+			if (bcs != null) {
+				for (BadgeCollectionConcept bc : bcs) {
+					badges.add(row, bc.getName(), bc.getBadgeEarned());
+				}
+			}
+			return this;
+		}
+
+		private void addConcept(int row, PointConcept pc) {
+			String key = PointConcept.normalizeName(pc.getName());
+			if (key == null) {
+				return;
+			}
+			ConceptBuilder c = concept(key);
+			// first concept with a given name wins, as in Content lookup
+			if (!Double.isNaN(c.total.get(row))) {
+				return;
+			}
+			c.total.set(row, pc.getScore() != null ? pc.getScore() : 0d);
+			for (Entry<String, PeriodInternal> entry : pc.getPeriods()
+					.entrySet()) {
+				String period = entry.getKey();
+				PeriodInternal instances = entry.getValue();
+				PeriodBuilder p = c.period(period);
+				if (p.length == 0 && instances.getStart() != null) {
+					p.start = instances.getStart().getTime();
+					p.length = instances.getPeriod();
+				}
+				p.current.set(row,
+						pc.getPeriodScore(period, PeriodScoreType.CURRENT));
+				p.previous.set(row,
+						pc.getPeriodScore(period, PeriodScoreType.PREVIOUS));
+				p.max.set(row, pc.getPeriodScore(period, PeriodScoreType.MAX));
+				for (int i = 0; i < instances.getInstanceCount(); i++) {
+					if (instances.getInstanceIndex(i) < 0) {
+						continue;
+					}
+					p.instance(instances.getInstanceIndex(i)).set(row,
+							instances.getInstanceScore(i));
+				}
+			}
+		}
+
+		/**
+		 * Copy a row of another snapshot
+		 * 
+		 * @param source
+		 * @param row
+		 * @return this builder
+		 */
+		public Builder add(GameSnapshot source, int row) {
+			int target = playerIds.size();
+			playerIds.add(source.playerIds[row]);
+			gameIds.add(source.gameIds[row]);
+			for (Entry<String, ConceptColumns> c : source.concepts.entrySet()) {
+				ConceptColumns columns = c.getValue();
+				if (Double.isNaN(columns.total[row])) {
+					continue;
+				}
+				ConceptBuilder cb = concept(c.getKey());
+				cb.total.set(target, columns.total[row]);
+				for (Entry<String, PeriodColumns> p : columns.periods
+						.entrySet()) {
+					PeriodColumns pc = p.getValue();
+					PeriodBuilder pb = cb.period(p.getKey());
+					if (pb.length == 0) {
+						pb.start = pc.start;
+						pb.length = pc.length;
+					}
+					pb.current.set(target, pc.current[row]);
+					pb.previous.set(target, pc.previous[row]);
+					pb.max.set(target, pc.max[row]);
+					for (int i = 0; i < pc.instances.length; i++) {
+						if (pc.instances[i][row] != 0d) {
+							pb.instance(i).set(target, pc.instances[i][row]);
+						}
+					}
+				}
+			}
+			badges.add(target, source.badges, row);
+			return this;
+		}
+
+		/**
+		 * @return number of players added so far
+		 */
+		public int size() {
+			return playerIds.size();
+		}
+
+		private ConceptBuilder concept(String key) {
+			ConceptBuilder c = concepts.get(key);
+			if (c == null) {
+				c = new ConceptBuilder();
+				concepts.put(key, c);
+			}
+			return c;
+		}
+
+		public GameSnapshot build() {
+			int size = playerIds.size();
+			Map<String, ConceptColumns> conceptColumns = new LinkedHashMap<String, ConceptColumns>();
+			for (Entry<String, ConceptBuilder> c : concepts.entrySet()) {
+				Map<String, PeriodColumns> periodColumns = new LinkedHashMap<String, PeriodColumns>();
+				for (Entry<String, PeriodBuilder> p : c.getValue().periods
+						.entrySet()) {
+					PeriodBuilder pb = p.getValue();
+					double[][] instances = new double[pb.instances.size()][];
+					for (int i = 0; i < instances.length; i++) {
+						DoubleColumn instance = pb.instances.get(i);
+						instances[i] = instance != null ? instance
+								.toArray(size) : new double[size];
+					}
+					periodColumns.put(p.getKey(), new PeriodColumns(pb.start,
+							pb.length, pb.current.toArray(size),
+							pb.previous.toArray(size), pb.max.toArray(size),
+							instances));
+				}
+				conceptColumns.put(c.getKey(), new ConceptColumns(c.getValue().total
+						.toArray(size), periodColumns));
+			}
+			return new GameSnapshot(moment,
+					playerIds.toArray(new String[size]),
+					gameIds.toArray(new String[size]), conceptColumns,
+					badges.build(size));
+		}
+	}
+
+	private static class ConceptBuilder {
+		private final DoubleColumn total = new DoubleColumn(Double.NaN);
+		private final Map<String, PeriodBuilder> periods = new LinkedHashMap<String, PeriodBuilder>();
+
+		private PeriodBuilder period(String period) {
+			PeriodBuilder p = periods.get(period);
+			if (p == null) {
+				p = new PeriodBuilder();
+				periods.put(period, p);
+			}
+			return p;
+		}
+	}
+
+	private static class PeriodBuilder {
+		private long start;
+		private long length;
+		private final DoubleColumn current = new DoubleColumn(0d);
+		private final DoubleColumn previous = new DoubleColumn(0d);
+		private final DoubleColumn max = new DoubleColumn(0d);
+		private final List<DoubleColumn> instances = new ArrayList<DoubleColumn>();
+
+		private DoubleColumn instance(int index) {
+			while (instances.size() <= index) {
+				instances.add(null);
+			}
+			DoubleColumn column = instances.get(index);
+			if (column == null) {
+				column = new DoubleColumn(0d);
+				instances.set(index, column);
+			}
+			return column;
+		}
+	}
+
+	/**
+	 * Growable column, rows never set hold the missing value
+	 */
+	private static class DoubleColumn {
+		private final double missing;
+		private double[] values = new double[0];
+
+		private DoubleColumn(double missing) {
+			this.missing = missing;
+		}
+
+		private double get(int row) {
+			return row < values.length ? values[row] : missing;
+		}
+
+		private void set(int row, double value) {
+			ensureCapacity(row + 1);
+			values[row] = value;
+		}
+
+		private double[] toArray(int size) {
+			ensureCapacity(size);
+			return Arrays.copyOf(values, size);
+		}
+
+		private void ensureCapacity(int size) {
+			if (size > values.length) {
+				int length = values.length;
+				values = Arrays.copyOf(values,
+						Math.max(size, Math.max(16, length * 2)));
+				Arrays.fill(values, length, values.length, missing);
+			}
+		}
+	}
+}
@@ -0,0 +1,534 @@
+package eu.trentorise.game.challenges.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import eu.trentorise.game.challenges.rest.GameStateIterator;
+import eu.trentorise.game.challenges.rest.GameStateSource;
+import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
+import eu.trentorise.game.challenges.rest.Paginator;
+import eu.trentorise.game.challenges.rest.RestGameStateSource;
+import eu.trentorise.game.challenges.snapshot.BadgeIndex.CollectionColumns;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot.ConceptColumns;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot.PeriodColumns;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+/**
+ * Keep a {@link GameSnapshot} for every game in a binary file, so that runs
+ * against the same game can start from disk. A file is read at once into
+ * heap columns and closed, so that a refresh can replace it.
+ *
+ * Together with the snapshot the SHA-256 digest of players of every game state
+ * page it has been built from is stored: on refresh pages are downloaded again
+ * but only changed ones are parsed, players of unchanged pages are copied from
+ * stored snapshot. Only the content array of a page is digested, other page
+ * fields (i.e. totalElements) change for every page as soon as a player joins
+ * the game.
+ */
+public class GameSnapshotStore {
+
+	private static final Logger logger = LogManager
+			.getLogger(GameSnapshotStore.class);
+
+	private static final int MAGIC = 0x47534e50;
+	private static final int VERSION = 4;
+	private static final String CONTENT = "content";
+	private static final String LAST = "last";
+	private static final String EXTENSION = ".snapshot";
+	private static final int DIGEST_LENGTH = 32;
+
+	private final File directory;
+	private int reusedPages;
+	private int parsedPages;
+
+	/**
+	 * @param directory
+	 *            where snapshot files are kept, created if it doesn't exist
+	 */
+	public GameSnapshotStore(File directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory must be not null");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * @param gameId
+	 * @return stored snapshot of game, null if there isn't a valid one
+	 */
+	public GameSnapshot load(String gameId) {
+		Stored stored = read(gameId);
+		return stored != null ? stored.snapshot : null;
+	}
+
+	/**
+	 * Store a snapshot without page checksums, next refresh will parse every
+	 * page
+	 *
+	 * @param gameId
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	public void save(String gameId, GameSnapshot snapshot) throws IOException {
+		write(gameId, snapshot, new ArrayList<Page>());
+	}
+
+	/**
+	 * Read game state from gamification engine and store its snapshot
+	 *
+	 * @param gameId
+	 * @param facade
+	 * @param pageSize
+	 *            number of players for page, 0 to use gamification engine
+	 *            default
+	 * @return up to date snapshot of game
+	 * @throws IllegalStateException
+	 *             when game state cannot be read
+	 * @see #refresh(String, GameStateSource)
+	 */
+	public GameSnapshot refresh(String gameId,
+			GamificationEngineRestFacade facade, int pageSize) {
+		return refresh(gameId, new RestGameStateSource(facade, gameId,
+				pageSize));
+	}
+
+	/**
+	 * Read game state from source and store its snapshot. Pages unchanged
+	 * since stored snapshot are not parsed, unless a period has moved to a new
+	 * instance in the meantime. Stored pages are looked up by digest: a page
+	 * with the same digest has the same players, so its rows are copied
+	 * whatever its position in stored snapshot. Snapshot is stored under
+	 * {@link GameStateSource#getSnapshotKey(String)}, so that a dump of game
+	 * state doesn't overwrite the snapshot of the live game
+	 *
+	 * @param gameId
+	 * @param source
+	 * @return up to date snapshot of game
+	 * @throws IllegalStateException
+	 *             when game state cannot be read
+	 */
+	public GameSnapshot refresh(String gameId, final GameStateSource source) {
+		if (gameId == null || source == null) {
+			throw new IllegalArgumentException(
+					"gameId and source must be not null");
+		}
+		String key = source.getSnapshotKey(gameId);
+		Stored stored = read(key);
+		final Stored previous = stored != null
+				&& stored.snapshot.isCurrent(System.currentTimeMillis()) ? stored
+				: null;
+		final GameSnapshot.Builder builder = new GameSnapshot.Builder();
+		// rows and digest of every page
+		final List<Page> pages = new ArrayList<Page>();
+		reusedPages = 0;
+		parsedPages = 0;
+		GameStateIterator players = new GameStateIterator(
+				new GameStateIterator.PageSource() {
+					@Override
+					public InputStream openPage(int page) throws IOException {
+						if (page > 1) {
+							pages.get(page - 2).to = builder.size();
+						}
+						InputStream in = source.openPage(page);
+						if (in == null) {
+							return null;
+						}
+						byte[] content;
+						try {
+							content = IOUtils.toByteArray(in);
+						} finally {
+							in.close();
+						}
+						Page current = new Page();
+						current.from = builder.size();
+						Boolean last = digest(content, current);
+						pages.add(current);
+						Page stored = previous != null ? previous
+								.find(current.digest) : null;
+						if (stored != null) {
+							for (int row = stored.from; row < stored.to; row++) {
+								builder.add(previous.snapshot, row);
+							}
+							reusedPages++;
+							// players already copied, only tell if it is the
+							// last page
+							String stub = "{\"" + LAST + "\":"
+									+ Boolean.TRUE.equals(last) + "}";
+							return new ByteArrayInputStream(stub
+									.getBytes(StandardCharsets.UTF_8));
+						}
+						parsedPages++;
+						return new ByteArrayInputStream(content);
+					}
+				});
+		try {
+			while (players.hasNext()) {
+				builder.add(players.next());
+			}
+		} finally {
+			players.close();
+		}
+		if (!pages.isEmpty()) {
+			pages.get(pages.size() - 1).to = builder.size();
+		}
+		GameSnapshot snapshot = builder.build();
+		logger.info("game " + gameId + " snapshot " + key + " refreshed: "
+				+ parsedPages + " pages parsed, " + reusedPages + " unchanged");
+		try {
+			write(key, snapshot, pages);
+		} catch (IOException e) {
+			logger.error("error in writing snapshot of game " + gameId, e);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return number of pages copied from stored snapshot by last refresh
+	 */
+	public int getReusedPages() {
+		return reusedPages;
+	}
+
+	/**
+	 * @return number of pages parsed by last refresh
+	 */
+	public int getParsedPages() {
+		return parsedPages;
+	}
+
+	private File file(String gameId) {
+		if (gameId == null) {
+			throw new IllegalArgumentException("gameId must be not null");
+		}
+		return new File(directory, gameId + EXTENSION);
+	}
+
+	private void write(String gameId, GameSnapshot snapshot,
+			List<Page> pages) throws IOException {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must be not null");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create directory " + directory);
+		}
+		File target = file(gameId);
+		File tmp = new File(directory, gameId + EXTENSION + ".tmp");
+		int size = snapshot.size();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(snapshot.getMoment());
+			out.writeInt(size);
+			out.writeInt(pages.size());
+			for (Page page : pages) {
+				out.writeInt(page.to);
+				out.writeBoolean(page.digest != null);
+				if (page.digest != null) {
+					out.write(page.digest);
+				}
+			}
+			for (int row = 0; row < size; row++) {
+				writeString(out, snapshot.getPlayerId(row));
+				writeString(out, snapshot.getGameId(row));
+			}
+			Map<String, ConceptColumns> concepts = snapshot.getConceptColumns();
+			out.writeInt(concepts.size());
+			for (Entry<String, ConceptColumns> c : concepts.entrySet()) {
+				writeString(out, c.getKey());
+				writeDoubles(out, c.getValue().total);
+				out.writeInt(c.getValue().periods.size());
+				for (Entry<String, PeriodColumns> p : c.getValue().periods
+						.entrySet()) {
+					PeriodColumns columns = p.getValue();
+					writeString(out, p.getKey());
+					out.writeLong(columns.start);
+					out.writeLong(columns.length);
+					writeDoubles(out, columns.current);
+					writeDoubles(out, columns.previous);
+					writeDoubles(out, columns.max);
+					out.writeInt(columns.instances.length);
+					for (double[] instance : columns.instances) {
+						writeDoubles(out, instance);
+					}
+				}
+			}
+			Map<String, CollectionColumns> badges = snapshot.getBadges()
+					.getCollectionColumns();
+			out.writeInt(badges.size());
+			for (Entry<String, CollectionColumns> b : badges.entrySet()) {
+				CollectionColumns collection = b.getValue();
+				writeString(out, b.getKey());
+				for (int count : collection.counts) {
+					out.writeInt(count);
+				}
+				out.writeInt(collection.badges.length);
+				for (String badge : collection.badges) {
+					writeString(out, badge);
+				}
+				out.writeInt(collection.words);
+				for (long word : collection.earned) {
+					out.writeLong(word);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), target.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		logger.debug("written snapshot " + target);
+	}
+
+	private Stored read(String gameId) {
+		File source = file(gameId);
+		if (!source.isFile()) {
+			return null;
+		}
+		// columns are copied to heap arrays: file is closed on return, so
+		// that write can replace it
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(source)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				logger.warn("ignored snapshot " + source
+						+ ", unknown file format");
+				return null;
+			}
+			long moment = in.readLong();
+			int size = in.readInt();
+			if (size < 0) {
+				throw new IllegalArgumentException("invalid size " + size);
+			}
+			Stored stored = new Stored();
+			int pageCount = in.readInt();
+			stored.pages = new ArrayList<Page>(pageCount);
+			int from = 0;
+			for (int i = 0; i < pageCount; i++) {
+				Page page = new Page();
+				page.from = from;
+				page.to = in.readInt();
+				if (in.readBoolean()) {
+					page.digest = new byte[DIGEST_LENGTH];
+					in.readFully(page.digest);
+				}
+				if (page.from > page.to || page.to > size) {
+					throw new IllegalArgumentException("invalid page " + i);
+				}
+				from = page.to;
+				stored.add(page);
+			}
+			String[] playerIds = new String[size];
+			String[] gameIds = new String[size];
+			for (int row = 0; row < size; row++) {
+				playerIds[row] = readString(in);
+				gameIds[row] = readString(in);
+			}
+			int conceptCount = in.readInt();
+			Map<String, ConceptColumns> concepts = new LinkedHashMap<String, ConceptColumns>();
+			for (int i = 0; i < conceptCount; i++) {
+				String name = readString(in);
+				double[] total = readDoubles(in, size);
+				int periodCount = in.readInt();
+				Map<String, PeriodColumns> periods = new LinkedHashMap<String, PeriodColumns>();
+				for (int j = 0; j < periodCount; j++) {
+					String period = readString(in);
+					long start = in.readLong();
+					long length = in.readLong();
+					double[] current = readDoubles(in, size);
+					double[] previous = readDoubles(in, size);
+					double[] max = readDoubles(in, size);
+					double[][] instances = new double[in.readInt()][];
+					for (int k = 0; k < instances.length; k++) {
+						instances[k] = readDoubles(in, size);
+					}
+					periods.put(period, new PeriodColumns(start, length,
+							current, previous, max, instances));
+				}
+				concepts.put(name, new ConceptColumns(total, periods));
+			}
+			int badgeCount = in.readInt();
+			Map<String, CollectionColumns> badges = new LinkedHashMap<String, CollectionColumns>();
+			for (int i = 0; i < badgeCount; i++) {
+				String name = readString(in);
+				int[] counts = new int[size];
+				read(in, 4 * size).asIntBuffer().get(counts);
+				String[] dictionary = new String[in.readInt()];
+				for (int j = 0; j < dictionary.length; j++) {
+					dictionary[j] = readString(in);
+				}
+				int words = in.readInt();
+				long[] earned = new long[size * words];
+				read(in, 8 * earned.length).asLongBuffer().get(earned);
+				badges.put(name, new CollectionColumns(counts, dictionary,
+						words, earned));
+			}
+			stored.snapshot = new GameSnapshot(moment, playerIds, gameIds,
+					concepts, new BadgeIndex(badges));
+			logger.debug("read snapshot " + source + " of " + size
+					+ " players");
+			return stored;
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("ignored snapshot " + source + ", cannot be read: "
+					+ e.getMessage());
+			return null;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values)
+			throws IOException {
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+
+	private static double[] readDoubles(DataInputStream in, int size)
+			throws IOException {
+		double[] values = new double[size];
+		read(in, 8 * size).asDoubleBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * @return next length bytes of in, to be read in bulk as big endian
+	 *         values as written by {@link DataOutputStream}
+	 */
+	private static ByteBuffer read(DataInputStream in, int length)
+			throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Digest players of a page, the bytes of its content array as sent by
+	 * gamification engine
+	 *
+	 * @param content
+	 *            page in {@link Paginator} JSON format
+	 * @param page
+	 *            where digest is set, null if page has no players
+	 * @return last flag of page, null if page doesn't have it
+	 * @throws IOException
+	 */
+	private static Boolean digest(byte[] content, Page page) throws IOException {
+		Boolean last = null;
+		JsonParser parser = JsonUtil.mapper().getFactory().createParser(content);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if (CONTENT.equals(name) && token == JsonToken.START_ARRAY) {
+					int from = (int) parser.getTokenLocation().getByteOffset();
+					boolean players = false;
+					while (parser.nextToken() != JsonToken.END_ARRAY) {
+						parser.skipChildren();
+						players = true;
+					}
+					int to = (int) parser.getCurrentLocation().getByteOffset();
+					if (players) {
+						MessageDigest sha = MessageDigest.getInstance("SHA-256");
+						sha.update(content, from, to - from);
+						page.digest = sha.digest();
+					}
+				} else if (LAST.equals(name) && token.isBoolean()) {
+					last = parser.getBooleanValue();
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return last;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Rows of snapshot built from a game state page, and digest of its players
+	 */
+	private static class Page {
+		private int from;
+		private int to;
+		/**
+		 * null if page has no players, or it cannot be reused
+		 */
+		private byte[] digest;
+	}
+
+	/**
+	 * Snapshot as read from file, with digests of pages it has been built
+	 * from
+	 */
+	private static class Stored {
+		private GameSnapshot snapshot;
+		private List<Page> pages;
+		private final Map<ByteBuffer, Page> byDigest = new HashMap<ByteBuffer, Page>();
+
+		private void add(Page page) {
+			pages.add(page);
+			if (page.digest != null) {
+				ByteBuffer key = ByteBuffer.wrap(page.digest);
+				if (!byDigest.containsKey(key)) {
+					byDigest.put(key, page);
+				}
+			}
+		}
+
+		/**
+		 * @param digest
+		 * @return stored page with digest, null if none
+		 */
+		private Page find(byte[] digest) {
+			return digest != null ? byDigest.get(ByteBuffer.wrap(digest)) : null;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package eu.trentorise.game.challenges.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+
+/**
+ * Match all challenges of a {@link ChallengeRules} at once. Challenge
+ * definitions repeat the same comparisons across rows (i.e.
+ * <code>green leaves > 100</code>): every distinct variable and comparison is
+ * evaluated once for every player, then criteria of every challenge are
+ * combined from sets of matching players. Comparisons of a variable with a
+ * constant (i.e. <code>green leaves &gt;= 50</code>) are answered once for the
+ * whole snapshot by a {@link ThresholdIndex} of the variable.
+ */
+public class BatchMatcher {
+
+	private static final Logger logger = LogManager
+			.getLogger(BatchMatcher.class);
+
+	private static final int THRESHOLD = 4096;
+
+	private final List<ChallengeRuleRow> challenges;
+	private final List<SelectionCriteria> criteria;
+	/**
+	 * number of distinct comparisons among all criteria
+	 */
+	private final int comparisons;
+
+	/**
+	 * @param rules
+	 * @throws IllegalArgumentException
+	 *             if a challenge doesn't define any criteria
+	 * @see Matcher#Matcher(ChallengeRuleRow)
+	 */
+	public BatchMatcher(ChallengeRules rules) {
+		if (rules == null) {
+			throw new IllegalArgumentException("rules must be not null");
+		}
+		challenges = new ArrayList<ChallengeRuleRow>(rules.getChallenges());
+		criteria = new ArrayList<SelectionCriteria>(challenges.size());
+		Set<String> keys = new HashSet<String>();
+		for (ChallengeRuleRow challenge : challenges) {
+			SelectionCriteria c = new Matcher(challenge).getCriteria();
+			if (c != null) {
+				c.comparisons(keys);
+			}
+			criteria.add(c);
+		}
+		comparisons = keys.size();
+	}
+
+	/**
+	 * Match challenges using a {@link ForkJoinPool} with a thread for every
+	 * available processor
+	 *
+	 * @param snapshot
+	 * @return players eligible for every challenge
+	 */
+	public Result match(GameSnapshot snapshot) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return match(snapshot, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Match challenges splitting rows of snapshot in ranges evaluated as
+	 * independent tasks, every task with its own values of variables and
+	 * comparisons, sharing indexes of variables compared with constants.
+	 * Result doesn't depend on scheduling
+	 *
+	 * @param snapshot
+	 * @param pool
+	 * @return players eligible for every challenge
+	 */
+	public Result match(GameSnapshot snapshot, ForkJoinPool pool) {
+		if (snapshot == null || pool == null) {
+			throw new IllegalArgumentException(
+					"snapshot and pool must be not null");
+		}
+		SelectionCriteria.Thresholds thresholds = new SelectionCriteria.Thresholds();
+		List<BitSet> rows = pool.invoke(new RangeTask<List<BitSet>>(
+				new Selection(snapshot, thresholds), 0, snapshot.size(),
+				THRESHOLD));
+		logger.debug(challenges.size() + " challenges matched evaluating "
+				+ comparisons + " distinct comparisons, "
+				+ thresholds.getIndexes() + " variables indexed");
+		return new Result(challenges, rows, snapshot.size(), comparisons);
+	}
+
+	/**
+	 * Eligible players of every challenge, both by challenge and by player.
+	 * Challenges of a player are read from sets of players of every
+	 * challenge, nothing is kept by player
+	 */
+	public static class Result {
+		private final List<ChallengeRuleRow> challenges;
+		private final List<BitSet> rows;
+		private final int size;
+		private final int comparisons;
+
+		private Result(List<ChallengeRuleRow> challenges, List<BitSet> rows,
+				int size, int comparisons) {
+			this.challenges = challenges;
+			this.rows = rows;
+			this.size = size;
+			this.comparisons = comparisons;
+		}
+
+		/**
+		 * @return challenges in definition order
+		 */
+		public List<ChallengeRuleRow> getChallenges() {
+			return challenges;
+		}
+
+		/**
+		 * @param challenge
+		 *            index of challenge in definition order
+		 * @return rows of snapshot eligible for challenge
+		 */
+		public BitSet getPlayers(int challenge) {
+			return rows.get(challenge);
+		}
+
+		/**
+		 * @param row
+		 *            row of player in snapshot
+		 * @return indexes of challenges player is eligible for, empty if none
+		 * @see #getChallenges(int, BitSet)
+		 */
+		public BitSet getChallenges(int row) {
+			return getChallenges(row, new BitSet(rows.size()));
+		}
+
+		/**
+		 * Fill a set with challenges of a player, so that one set can be
+		 * reused for every player
+		 *
+		 * @param row
+		 *            row of player in snapshot
+		 * @param challenges
+		 *            cleared, then filled with indexes of challenges player is
+		 *            eligible for
+		 * @return challenges
+		 */
+		public BitSet getChallenges(int row, BitSet challenges) {
+			if (row < 0 || row >= size) {
+				throw new IndexOutOfBoundsException("row " + row
+						+ " out of " + size + " players");
+			}
+			challenges.clear();
+			for (int i = 0; i < rows.size(); i++) {
+				if (rows.get(i).get(row)) {
+					challenges.set(i);
+				}
+			}
+			return challenges;
+		}
+
+		/**
+		 * @return number of rows of snapshot matched
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return number of distinct comparisons among all criteria
+		 */
+		public int getComparisons() {
+			return comparisons;
+		}
+	}
+
+	/**
+	 * Select rows of a range matching every challenge
+	 */
+	private class Selection implements RangeTask.Range<List<BitSet>> {
+		private final GameSnapshot snapshot;
+		private final SelectionCriteria.Thresholds thresholds;
+
+		private Selection(GameSnapshot snapshot,
+				SelectionCriteria.Thresholds thresholds) {
+			this.snapshot = snapshot;
+			this.thresholds = thresholds;
+		}
+
+		@Override
+		public List<BitSet> compute(int from, int to) {
+			SelectionCriteria.Batch batch = new SelectionCriteria.Batch(
+					snapshot, from, to, thresholds);
+			List<BitSet> rows = new ArrayList<BitSet>(criteria.size());
+			for (SelectionCriteria c : criteria) {
+				rows.add(c == null ? new BitSet() : c.select(batch));
+			}
+			return rows;
+		}
+
+		@Override
+		public List<BitSet> merge(List<BitSet> left, List<BitSet> right) {
+			for (int i = 0; i < left.size(); i++) {
+				left.get(i).or(right.get(i));
+			}
+			return left;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package eu.trentorise.game.challenges.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import eu.trentorise.game.challenges.model.ChallengeDataInternalDto;
+import eu.trentorise.game.challenges.rest.Content;
+
+/**
+ * Shared Jackson configuration. A single {@link ObjectMapper} is used for all
+ * JSON read and written by the tools, so serializers and deserializers are
+ * built once and cached for the whole run. Readers and writers for the types
+ * read and written on every run are created upfront: they are immutable and
+ * thread safe, and their root (de)serializer is resolved on creation.
+ */
+public final class JsonUtil {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static final ObjectReader CONTENT_READER = MAPPER
+			.reader(Content.class);
+
+	/**
+	 * Reader of a single {@link ChallengeDataInternalDto}, to read generated
+	 * challenges file one challenge at a time with
+	 * {@link ObjectReader#readValues(java.io.File)}
+	 */
+	public static final ObjectReader CHALLENGE_READER = MAPPER
+			.reader(ChallengeDataInternalDto.class);
+
+	/**
+	 * Writer of a single {@link ChallengeDataInternalDto}, to write generated
+	 * challenges file one challenge at a time with a {@link JsonGenerator}.
+	 * Generator is not flushed after every challenge
+	 */
+	public static final ObjectWriter CHALLENGE_WRITER = MAPPER.writerFor(
+			ChallengeDataInternalDto.class).without(
+			SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+	/**
+	 * Writer of indented JSON, using fields of objects instead of getters
+	 */
+	public static final ObjectWriter FIELDS_WRITER = new ObjectMapper()
+			.setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+			.writer(SerializationFeature.INDENT_OUTPUT);
+
+	private JsonUtil() {
+	}
+
+	/**
+	 * @return shared {@link ObjectMapper}, must not be reconfigured
+	 */
+	public static ObjectMapper mapper() {
+		return MAPPER;
+	}
+
+	/**
+	 * @param out
+	 * @return generator writing to out, closing generator closes out
+	 * @throws IOException
+	 */
+	public static JsonGenerator generator(OutputStream out) throws IOException {
+		return MAPPER.getFactory().createGenerator(out);
+	}
+}
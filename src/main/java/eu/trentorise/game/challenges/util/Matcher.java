@@ -1,48 +1,52 @@
 package eu.trentorise.game.challenges.util;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import eu.trentorise.game.challenges.rest.BadgeCollectionConcept;
 import eu.trentorise.game.challenges.rest.Content;
-import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
 
 public class Matcher {
 
 	private static final Logger logger = LogManager.getLogger(Matcher.class);
 	private static final String[] operators = { "&&" };
-	private static final String[] comparisonOperator = { "==", "<=", ">=", "<",
-			">" };
+	private static final int BATCH = 1024;
 	private ChallengeRuleRow challenge;
-	private ScriptEngineManager manager;
-	private ScriptEngine engine;
+	/**
+	 * compiled criteria, null if criteria are not well written and no user
+	 * matches
+	 */
+	private SelectionCriteria criteria;
 
 	public Matcher(ChallengeRuleRow challenge) throws IllegalArgumentException {
 		this.challenge = challenge;
-		this.manager = new ScriptEngineManager();
-		this.engine = manager.getEngineByName("nashorn");
-		// this.engine = manager.getEngineFactories().get(0).getScriptEngine();
-		// check if at least one type of criteria is defined
-		// TODO: Do we need some sort of validation of criteria before use them
-		// ?
-		if (challenge.getSelectionCriteriaPoints() != null
-				&& !challenge.getSelectionCriteriaPoints().isEmpty()) {
-			// ok
-		} else if (challenge.getSelectionCriteriaBadges() != null
-				&& !challenge.getSelectionCriteriaBadges().isEmpty()) {
-			// ok
-		} else {
+		// check if at least one type of criteria is defined, points criteria
+		// take precedence
+		String points = challenge.getSelectionCriteriaPoints();
+		String badges = challenge.getSelectionCriteriaBadges();
+		if ((points == null || points.isEmpty())
+				&& (badges == null || badges.isEmpty())) {
 			throw new IllegalArgumentException(
 					"no criteria defined for challenge: " + challenge.getName());
 		}
+		try {
+			if (points != null && !points.isEmpty()) {
+				criteria = SelectionCriteria.points(points);
+			} else {
+				criteria = SelectionCriteria.badges(badges,
+						challenge.getGoalType());
+			}
+		} catch (IllegalArgumentException e) {
+			logger.warn("No user will match challenge " + challenge.getName()
+					+ ", " + e.getMessage());
+		}
 	}
 
 	public List<Content> match(List<Content> users) {
@@ -50,165 +54,78 @@ public class Matcher {
 			logger.warn("No users to match");
 			return new ArrayList<Content>();
 		}
+		return match(GameSnapshot.build(users), users);
+	}
+
+	/**
+	 * Match users a batch at a time, only matching users are retained: a
+	 * snapshot is built for every {@value #BATCH} users, so memory used is
+	 * bounded by batch size instead of game size
+	 * 
+	 * @param users
+	 *            i.e. a game state stream
+	 * @return matching users
+	 * @see GamificationEngineRestFacade#streamGameState(String, int)
+	 */
+	public List<Content> match(Iterator<Content> users) {
 		List<Content> result = new ArrayList<Content>();
-		for (Content user : users) {
-			if (challenge.getSelectionCriteriaPoints() != null
-					&& !challenge.getSelectionCriteriaPoints().isEmpty()) {
-				if (pointsMatch(user)) {
-					result.add(user);
-				}
-			} else if (challenge.getSelectionCriteriaBadges() != null
-					&& !challenge.getSelectionCriteriaBadges().isEmpty()) {
-				if (badgeMatch(user)) {
-					result.add(user);
+		List<Content> batch = new ArrayList<Content>(BATCH);
+		while (users.hasNext()) {
+			batch.add(users.next());
+			if (batch.size() == BATCH || !users.hasNext()) {
+				if (criteria != null) {
+					result.addAll(match(GameSnapshot.build(batch), batch));
 				}
+				batch.clear();
 			}
-
 		}
 		return result;
 	}
 
-	private boolean pointsMatch(Content user) {
-		String criteria = challenge.getSelectionCriteriaPoints();
-		logger.debug("criteria to evaluate: " + criteria);
-		if (criteria.equalsIgnoreCase("true")) {
-			return true;
-		}
-		// get current point type to evaluate
-		List<String> vars = getVariableFromPointCriteria(criteria);
-		if (vars.isEmpty()) {
-			logger.warn("Point type criteria malformed, empty point type found");
-			return false;
-		}
-
-		String newName = "";
-		// gather data
-		for (String var : vars) {
-			// absolute point concept value
-			if (!var.contains(".")) {
-				PointConcept absolute = PointConceptUtil.getPointConcept(user,
-						var);
-				if (absolute != null) {
-					// evaluate criteria
-					newName = StringUtils.replace(var, " ", "_");
-					engine.put(newName, absolute.getScore());
-					criteria = StringUtils.replace(criteria, var, newName);
-				} else {
-					logger.warn("User " + user.getPlayerId()
-							+ " don't have point concept with name " + var);
-					return false;
-				}
-			} else if (StringUtils.countMatches(var, ".") == 2) {
-				String[] values = StringUtils.split(var, ".");
-				Double score = 0d;
-				if (values[2].equals("previous")) {
-					score = PointConceptUtil.getScorePrevious(user, values[0],
-							values[1]);
-				} else if (values[2].equals("current")) {
-					score = PointConceptUtil.getScoreCurrent(user, values[0],
-							values[1]);
-				} else if (values[2].equals("max")) {
-					score = PointConceptUtil.getScoreMax(user, values[0],
-							values[1]);
-				}
-				// evaluate criteria
-				newName = StringUtils.replace(values[0], " ", "_");
-				engine.put(newName, score);
-				criteria = StringUtils.replace(criteria, var, newName);
-			} else {
-				logger.warn("Criteria not well written : " + criteria);
-				return false;
-			}
+	/**
+	 * Match users reading their scores from a snapshot, so that a snapshot can
+	 * be shared by all challenges
+	 * 
+	 * @param snapshot
+	 *            snapshot built from users
+	 * @param users
+	 *            users in snapshot rows order
+	 * @return matching users
+	 */
+	public List<Content> match(GameSnapshot snapshot, List<Content> users) {
+		if (snapshot == null || users == null
+				|| snapshot.size() != users.size()) {
+			throw new IllegalArgumentException(
+					"snapshot must be built from users");
 		}
-		// evaluate criteria
-		try {
-			Object result = engine.eval(criteria);
-			if (result instanceof Boolean) {
-				return (Boolean) result;
-			}
-			return false;
-		} catch (ScriptException e) {
-			logger.error(e.getMessage(), e);
+		List<Content> result = new ArrayList<Content>();
+		BitSet rows = match(snapshot);
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows
+				.nextSetBit(row + 1)) {
+			result.add(users.get(row));
 		}
-
-		return false;
+		return result;
 	}
 
-	private boolean badgeMatch(Content user) {
-		String criteria = challenge.getSelectionCriteriaBadges();
-		logger.debug("criteria to evaluate: " + criteria);
-		if (user.getState() != null
-				&& user.getState().getBadgeCollectionConcept() != null
-				&& !user.getState().getBadgeCollectionConcept().isEmpty()) {
-			// find right badge collection
-			for (BadgeCollectionConcept bc : user.getState()
-					.getBadgeCollectionConcept()) {
-				if (bc.getName().equalsIgnoreCase(challenge.getGoalType())) {
-					if (criteria.contains("size")) {
-						String value = getValueFromCriteria(criteria);
-						if (!value.isEmpty()) {
-							engine.put("size", bc.getBadgeEarned().size());
-							try {
-								Object result = engine.eval(criteria);
-								if (result instanceof Boolean) {
-									return (Boolean) result;
-								}
-								return false;
-							} catch (ScriptException e) {
-								logger.error(e.getMessage(), e);
-							}
-						}
-					}
-				}
-			}
+	/**
+	 * @param snapshot
+	 * @return rows of snapshot matching challenge criteria
+	 */
+	public BitSet match(GameSnapshot snapshot) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must be not null");
 		}
-		return false;
-	}
-
-	private String getValueFromCriteria(String criteria) {
 		if (criteria == null) {
-			return "";
-		}
-		for (String co : comparisonOperator) {
-			String[] elements = criteria.split(co);
-			if (elements != null && elements.length == 2) {
-				return StringUtils.stripStart(elements[1], null);
-			}
+			return new BitSet();
 		}
-		return "";
+		return criteria.select(snapshot);
 	}
 
-	private List<String> getVariableFromPointCriteria(String criteria) {
-		List<String> result = new ArrayList<String>();
-		for (String separator : operators) {
-			String[] expressions = criteria.split(separator);
-			if (expressions != null && expressions.length > 1) {
-				for (String exp : expressions) {
-					for (String operator : comparisonOperator) {
-						String[] exps = exp.split(operator);
-						if (exps != null && exps.length > 1) {
-							String v = StringUtils.stripEnd(exps[0], null);
-							v = StringUtils.stripStart(v, null);
-							if (!result.contains(v)) {
-								result.add(v);
-							}
-						}
-					}
-				}
-			} else {
-				for (String operator : comparisonOperator) {
-					String[] exps = expressions[0].split(operator);
-					if (exps != null && exps.length > 1) {
-						String v = StringUtils.stripEnd(exps[0], null);
-						v = StringUtils.stripStart(v, null);
-						if (!result.contains(v)) {
-							result.add(v);
-						}
-					}
-				}
-			}
-		}
-		return result;
+	/**
+	 * @return compiled criteria of challenge, null if no user matches
+	 */
+	SelectionCriteria getCriteria() {
+		return criteria;
 	}
 
 	/**
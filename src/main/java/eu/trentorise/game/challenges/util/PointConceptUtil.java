@@ -1,9 +1,9 @@
 package eu.trentorise.game.challenges.util;
 
 import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
 import eu.trentorise.game.challenges.rest.PointConcept;
-import eu.trentorise.game.challenges.rest.PointConcept.PeriodInstanceImpl;
-import eu.trentorise.game.challenges.rest.PointConcept.PeriodInternal;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
 
 /**
  * Utility class for {@link PointConcept}
@@ -22,20 +22,7 @@ public final class PointConceptUtil {
      * @return max value or 0
      */
     public static Double getScoreMax(Content user, String pointType, String periodIdentifier) {
-        PointConcept pc = getPointConcept(user, pointType);
-        if (pc != null) {
-            Double max = 0d;
-            PeriodInternal period = pc.getPeriods().get(periodIdentifier);
-            if (period != null) {
-                for (PeriodInstanceImpl inst : period.getInstances().values()) {
-                    if (inst.getScore() > max) {
-                        max = inst.getScore();
-                    }
-                }
-                return max;
-            }
-        }
-        return 0d;
+        return getScore(user, pointType, periodIdentifier, PeriodScoreType.MAX);
     }
 
     /**
@@ -46,14 +33,8 @@ public final class PointConceptUtil {
      * @return {@link PointConcept} or null
      */
     public static PointConcept getPointConcept(Content user, String pointType) {
-        if (user != null && user.getState() != null && user.getState().getPointConcept() != null
-                && pointType != null) {
-            for (PointConcept pc : user.getState().getPointConcept()) {
-                if (pc.getName().equalsIgnoreCase(pointType)) {
-                    return pc;
-                }
-            }
-            return null;
+        if (user != null && pointType != null) {
+            return user.getPointConcept(pointType);
         }
         return null;
     }
@@ -67,11 +48,7 @@ public final class PointConceptUtil {
      * @return
      */
     public static Double getScoreCurrent(Content user, String pointType, String periodIdentifier) {
-        PointConcept pc = getPointConcept(user, pointType);
-        if (pc != null) {
-            return pc.getPeriodCurrentScore(periodIdentifier);
-        }
-        return 0d;
+        return getScore(user, pointType, periodIdentifier, PeriodScoreType.CURRENT);
     }
 
     /**
@@ -82,12 +59,7 @@ public final class PointConceptUtil {
      * @return
      */
     public static Double getScoreFromConcept(Content user, String name) {
-        for (PointConcept pc : user.getState().getPointConcept()) {
-            if (pc.getName().equalsIgnoreCase(name)) {
-                return pc.getScore();
-            }
-        }
-        return 0d;
+        return user.score(name);
     }
 
     /**
@@ -99,11 +71,53 @@ public final class PointConceptUtil {
      * @return
      */
     public static Double getScorePrevious(Content user, String pointType, String periodIdentifier) {
-        PointConcept pc = getPointConcept(user, pointType);
-        if (pc != null) {
-            return pc.getPeriodPreviousScore(periodIdentifier);
+        return getScore(user, pointType, periodIdentifier, PeriodScoreType.PREVIOUS);
+    }
+
+    /**
+     * Return a score for a point concept of given type in a period for a user
+     * 
+     * @param user
+     * @param pointType
+     * @param periodIdentifier
+     * @param type
+     * @return score or 0
+     */
+    public static Double getScore(Content user, String pointType, String periodIdentifier,
+            PeriodScoreType type) {
+        if (user == null) {
+            return 0d;
         }
-        return 0d;
+        return user.periodScore(pointType, periodIdentifier, type);
+    }
+
+    /**
+     * Return value for a point concept with given name for a player of a snapshot
+     * 
+     * @param snapshot
+     * @param playerId
+     * @param name
+     * @return score or 0
+     */
+    public static Double getScoreFromConcept(GameSnapshot snapshot, String playerId, String name) {
+        int row = snapshot != null ? snapshot.getRow(playerId) : -1;
+        return row >= 0 ? snapshot.score(row, name) : 0d;
+    }
+
+    /**
+     * Return a score for a point concept of given type in a period for a player of a snapshot
+     * 
+     * @param snapshot
+     * @param playerId
+     * @param pointType
+     * @param periodIdentifier
+     * @param type
+     * @return score or 0
+     */
+    public static Double getScore(GameSnapshot snapshot, String playerId, String pointType,
+            String periodIdentifier, PeriodScoreType type) {
+        int row = snapshot != null ? snapshot.getRow(playerId) : -1;
+        return row >= 0 ? snapshot.periodScore(row, pointType, periodIdentifier, type) : 0d;
     }
 
 }
@@ -0,0 +1,86 @@
+package eu.trentorise.game.challenges.util;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task over a range of rows: a range larger than threshold is split
+ * in halves, the right half is forked while the left one is computed by the
+ * current thread, then their results are merged left first. Results don't
+ * depend on scheduling as long as {@link Range#merge(Object, Object)} only
+ * depends on its arguments
+ *
+ * @param <T>
+ *            result of a range
+ */
+public final class RangeTask<T> extends RecursiveTask<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Computation over rows of a range, shared by all tasks of a range split
+	 * in halves
+	 *
+	 * @param <T>
+	 *            result of a range
+	 */
+	public interface Range<T> {
+
+		/**
+		 * @param from
+		 *            first row, inclusive
+		 * @param to
+		 *            last row, exclusive
+		 * @return result of rows in range
+		 */
+		T compute(int from, int to);
+
+		/**
+		 * @param left
+		 *            result of first range
+		 * @param right
+		 *            result of the range following it
+		 * @return result of both ranges, left may be modified and returned
+		 */
+		T merge(T left, T right);
+	}
+
+	private final Range<T> range;
+	private final int from;
+	private final int to;
+	private final int threshold;
+
+	/**
+	 * @param range
+	 * @param from
+	 *            first row, inclusive
+	 * @param to
+	 *            last row, exclusive
+	 * @param threshold
+	 *            max number of rows computed without splitting
+	 */
+	public RangeTask(Range<T> range, int from, int to, int threshold) {
+		if (range == null) {
+			throw new IllegalArgumentException("range must be not null");
+		}
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold must be positive");
+		}
+		this.range = range;
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+	}
+
+	@Override
+	protected T compute() {
+		if (to - from <= threshold) {
+			return range.compute(from, to);
+		}
+		int middle = (from + to) >>> 1;
+		RangeTask<T> left = new RangeTask<T>(range, from, middle, threshold);
+		RangeTask<T> right = new RangeTask<T>(range, middle, to, threshold);
+		right.fork();
+		T result = left.compute();
+		return range.merge(result, right.join());
+	}
+}
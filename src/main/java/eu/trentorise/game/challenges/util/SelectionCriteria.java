@@ -0,0 +1,1006 @@
+package eu.trentorise.game.challenges.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+
+/**
+ * Selection criteria of a challenge rule, compiled once into a tree of typed
+ * nodes and evaluated against rows of a {@link GameSnapshot}. Criteria are
+ * written in the subset of javascript used by challenge definitions:
+ *
+ * <pre>
+ * or      := and ('||' and)*
+ * and     := not ('&amp;&amp;' not)*
+ * not     := '!' not | compare
+ * compare := sum (('==' | '!=' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=') sum)?
+ * sum     := product (('+' | '-') product)*
+ * product := unary (('*' | '/' | '%') unary)*
+ * unary   := '-' unary | primary
+ * primary := number | true | false | null | variable | '(' or ')'
+ * </pre>
+ *
+ * Variables of points criteria are point concept names, possibly containing
+ * spaces: <code>concept</code> is the total score, a player without the
+ * concept never matches; <code>concept.period.current|previous|max</code> is
+ * a period score, 0 when player doesn't have it. The only variable of badges
+ * criteria is <code>size</code>, the number of badges in goal collection, a
+ * player without the collection never matches. <code>null</code> is not a
+ * number: every comparison with it is false but <code>!=</code>, which is
+ * true, and arithmetic with it gives <code>null</code>. Unlike javascript,
+ * <code>null</code> is never converted to 0, so <code>null &gt;= 0</code> is
+ * false.
+ */
+public final class SelectionCriteria {
+
+	private static final String SIZE = "size";
+	private static final String[] COMPARISONS = { "==", "!=", "<=", ">=",
+			"<", ">" };
+	/**
+	 * operator of every comparison with operands swapped
+	 */
+	private static final int[] MIRRORED = { 0, 1, 3, 2, 5, 4 };
+
+	private final String criteria;
+	private final BoolNode root;
+	private final List<Variable> variables;
+	private final int[] required;
+
+	private SelectionCriteria(String criteria, BoolNode root,
+			List<Variable> variables) {
+		this.criteria = criteria;
+		this.root = root;
+		this.variables = variables;
+		int count = 0;
+		int[] slots = new int[variables.size()];
+		for (Variable v : variables) {
+			if (v.isRequired()) {
+				slots[count++] = v.slot;
+			}
+		}
+		this.required = Arrays.copyOf(slots, count);
+	}
+
+	/**
+	 * @param criteria
+	 *            points selection criteria
+	 * @return compiled criteria
+	 * @throws IllegalArgumentException
+	 *             if criteria is not well written
+	 */
+	public static SelectionCriteria points(String criteria) {
+		return new Parser(criteria, null).parse();
+	}
+
+	/**
+	 * @param criteria
+	 *            badges selection criteria
+	 * @param collection
+	 *            badge collection counted by size variable
+	 * @return compiled criteria
+	 * @throws IllegalArgumentException
+	 *             if criteria is not well written or doesn't use size
+	 */
+	public static SelectionCriteria badges(String criteria, String collection) {
+		if (collection == null) {
+			throw new IllegalArgumentException("collection must be not null");
+		}
+		SelectionCriteria result = new Parser(criteria, collection).parse();
+		if (result.variables.isEmpty()) {
+			throw new IllegalArgumentException("badges criteria must use "
+					+ SIZE + ": " + criteria);
+		}
+		return result;
+	}
+
+	/**
+	 * @param snapshot
+	 * @return rows of snapshot matching criteria
+	 */
+	public BitSet select(GameSnapshot snapshot) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must be not null");
+		}
+		return select(snapshot, 0, snapshot.size());
+	}
+
+	/**
+	 * @param snapshot
+	 * @param from
+	 *            first row, inclusive
+	 * @param to
+	 *            last row, exclusive
+	 * @return rows of snapshot in range matching criteria
+	 */
+	public BitSet select(GameSnapshot snapshot, int from, int to) {
+		BitSet result = new BitSet(to);
+		bind(snapshot).select(from, to, result);
+		return result;
+	}
+
+	/**
+	 * @param snapshot
+	 * @return criteria bound to columns of snapshot, to select rows of
+	 *         snapshot a range at a time
+	 */
+	public Binding bind(GameSnapshot snapshot) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("snapshot must be not null");
+		}
+		return new Binding(columns(snapshot));
+	}
+
+	/**
+	 * @param snapshot
+	 * @param row
+	 * @return true if row of snapshot matches criteria
+	 */
+	public boolean matches(GameSnapshot snapshot, int row) {
+		return select(snapshot, row, row + 1).get(row);
+	}
+
+	/**
+	 * Select rows of a batch. Values of variables and results of comparisons
+	 * are kept in batch, so they are computed once for all criteria selected
+	 * on same batch
+	 * 
+	 * @param batch
+	 * @return rows in range of batch matching criteria
+	 */
+	BitSet select(Batch batch) {
+		double[][] columns = new double[variables.size()][];
+		BitSet present = new BitSet();
+		present.set(batch.from, batch.to);
+		for (Variable v : variables) {
+			double[] column = batch.column(v);
+			if (column == null) {
+				return new BitSet();
+			}
+			columns[v.slot] = column;
+			if (v.isRequired()) {
+				present.and(batch.present(v, column));
+			}
+		}
+		BitSet result = root.select(columns, batch);
+		result.and(present);
+		return result;
+	}
+
+	/**
+	 * @param keys
+	 *            where every distinct comparison of criteria is added, as
+	 *            canonical text shared with equal comparisons of other
+	 *            criteria
+	 */
+	void comparisons(Set<String> keys) {
+		root.comparisons(keys);
+	}
+
+	@Override
+	public String toString() {
+		return criteria;
+	}
+
+	/**
+	 * @return column of every variable, null if a required one is missing in
+	 *         snapshot
+	 */
+	private double[][] columns(GameSnapshot snapshot) {
+		double[][] columns = new double[variables.size()][];
+		double[] zeros = null;
+		for (Variable v : variables) {
+			double[] column = v.column(snapshot);
+			if (column == null) {
+				if (v.isRequired()) {
+					return null;
+				}
+				if (zeros == null) {
+					zeros = new double[snapshot.size()];
+				}
+				column = zeros;
+			}
+			columns[v.slot] = column;
+		}
+		return columns;
+	}
+
+	/**
+	 * Criteria bound to columns of a snapshot. A binding is never modified, so
+	 * distinct row ranges can be selected concurrently
+	 */
+	public final class Binding {
+		/**
+		 * column of every variable, null if no row can match
+		 */
+		private final double[][] columns;
+
+		private Binding(double[][] columns) {
+			this.columns = columns;
+		}
+
+		/**
+		 * @param from
+		 *            first row, inclusive
+		 * @param to
+		 *            last row, exclusive
+		 * @param result
+		 *            where matching rows are set
+		 */
+		public void select(int from, int to, BitSet result) {
+			if (columns == null) {
+				return;
+			}
+			rows: for (int row = from; row < to; row++) {
+				for (int slot : required) {
+					if (Double.isNaN(columns[slot][row])) {
+						continue rows;
+					}
+				}
+				if (root.test(columns, row)) {
+					result.set(row);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Values shared by criteria evaluated on a range of rows of a snapshot:
+	 * columns of variables, rows where required variables are present and
+	 * rows matching every distinct comparison. A batch must be used by one
+	 * thread at a time
+	 */
+	static final class Batch {
+		private final GameSnapshot snapshot;
+		private final int from;
+		private final int to;
+		private final Thresholds thresholds;
+		private final Map<String, double[]> columns = new HashMap<String, double[]>();
+		private final Map<String, BitSet> present = new HashMap<String, BitSet>();
+		private final Map<String, BitSet> comparisons = new HashMap<String, BitSet>();
+		private double[] zeros;
+
+		/**
+		 * @param snapshot
+		 * @param from
+		 *            first row, inclusive
+		 * @param to
+		 *            last row, exclusive
+		 */
+		Batch(GameSnapshot snapshot, int from, int to) {
+			this(snapshot, from, to, null);
+		}
+
+		/**
+		 * @param snapshot
+		 * @param from
+		 *            first row, inclusive
+		 * @param to
+		 *            last row, exclusive
+		 * @param thresholds
+		 *            indexes of snapshot answering threshold comparisons, null
+		 *            to evaluate every comparison row by row
+		 */
+		Batch(GameSnapshot snapshot, int from, int to, Thresholds thresholds) {
+			this.snapshot = snapshot;
+			this.from = from;
+			this.to = to;
+			this.thresholds = thresholds;
+		}
+
+		/**
+		 * @return column of variable, zeros if an optional variable is
+		 *         missing, null if a required one is
+		 */
+		private double[] column(Variable v) {
+			String key = v.toString();
+			if (columns.containsKey(key)) {
+				return columns.get(key);
+			}
+			double[] column = thresholds != null ? thresholds.column(v,
+					snapshot) : v.column(snapshot);
+			if (column == null && !v.isRequired()) {
+				if (zeros == null) {
+					zeros = thresholds != null ? thresholds.zeros(snapshot)
+							: new double[snapshot.size()];
+				}
+				column = zeros;
+			}
+			columns.put(key, column);
+			return column;
+		}
+
+		private BitSet present(Variable v, double[] column) {
+			String key = v.toString();
+			BitSet rows = present.get(key);
+			if (rows == null) {
+				rows = new BitSet(to);
+				for (int row = from; row < to; row++) {
+					if (!Double.isNaN(column[row])) {
+						rows.set(row);
+					}
+				}
+				present.put(key, rows);
+			}
+			return rows;
+		}
+
+		private BitSet all() {
+			BitSet rows = new BitSet(to);
+			rows.set(from, to);
+			return rows;
+		}
+	}
+
+	/**
+	 * Comparisons of a variable with a constant answered on whole snapshot by
+	 * a {@link ThresholdIndex} of the variable, built once and shared by all
+	 * batches of snapshot. Matching rows outside range of a batch are removed
+	 * by criteria, since they are never present in it. Columns built from
+	 * snapshot, badge counts and zeros of missing optional variables, are
+	 * kept here too, so that they are built once for all batches. Thresholds
+	 * can be used by many threads at once
+	 */
+	static final class Thresholds {
+		private final Map<String, ThresholdIndex> indexes = new HashMap<String, ThresholdIndex>();
+		private final ConcurrentMap<String, BitSet> comparisons = new ConcurrentHashMap<String, BitSet>();
+		private final ConcurrentMap<String, double[]> columns = new ConcurrentHashMap<String, double[]>();
+		private double[] zeros;
+
+		/**
+		 * @return number of variables indexed
+		 */
+		synchronized int getIndexes() {
+			return indexes.size();
+		}
+
+		/**
+		 * @return rows of snapshot matching comparison, never to be modified
+		 */
+		private BitSet select(String key, Variable v, double[] column,
+				String operator, double value) {
+			BitSet rows = comparisons.get(key);
+			if (rows == null) {
+				rows = index(v, column).select(operator, value);
+				BitSet previous = comparisons.putIfAbsent(key, rows);
+				if (previous != null) {
+					rows = previous;
+				}
+			}
+			return rows;
+		}
+
+		/**
+		 * @return column of variable, null if snapshot doesn't have it
+		 */
+		private double[] column(Variable v, GameSnapshot snapshot) {
+			if (v.collection == null) {
+				// scores are columns of snapshot, nothing is built
+				return v.column(snapshot);
+			}
+			String key = v.toString();
+			double[] column = columns.get(key);
+			if (column == null) {
+				column = v.column(snapshot);
+				if (column == null) {
+					return null;
+				}
+				double[] previous = columns.putIfAbsent(key, column);
+				if (previous != null) {
+					column = previous;
+				}
+			}
+			return column;
+		}
+
+		private synchronized double[] zeros(GameSnapshot snapshot) {
+			if (zeros == null) {
+				zeros = new double[snapshot.size()];
+			}
+			return zeros;
+		}
+
+		private synchronized ThresholdIndex index(Variable v, double[] column) {
+			String key = v.toString();
+			ThresholdIndex index = indexes.get(key);
+			if (index == null) {
+				index = ThresholdIndex.build(column);
+				indexes.put(key, index);
+			}
+			return index;
+		}
+	}
+
+	private static final class Variable {
+		private final int slot;
+		private final String concept;
+		private final String period;
+		private final PeriodScoreType type;
+		private final String collection;
+
+		private Variable(int slot, String concept, String period,
+				PeriodScoreType type, String collection) {
+			this.slot = slot;
+			this.concept = concept;
+			this.period = period;
+			this.type = type;
+			this.collection = collection;
+		}
+
+		private boolean isRequired() {
+			return period == null;
+		}
+
+		/**
+		 * @return key identifying the column of variable
+		 */
+		@Override
+		public String toString() {
+			if (collection != null) {
+				return SIZE + "@" + collection;
+			}
+			return period == null ? concept : concept + "." + period + "."
+					+ type;
+		}
+
+		private double[] column(GameSnapshot snapshot) {
+			if (collection != null) {
+				int[] counts = snapshot.getBadgeCounts(collection);
+				if (counts == null) {
+					return null;
+				}
+				double[] column = new double[counts.length];
+				for (int row = 0; row < counts.length; row++) {
+					column[row] = counts[row] < 0 ? Double.NaN : counts[row];
+				}
+				return column;
+			}
+			if (period == null) {
+				return snapshot.getScores(concept);
+			}
+			return type == null ? null : snapshot.getPeriodScores(concept,
+					period, type);
+		}
+	}
+
+	/**
+	 * Every node has a canonical text, equal for equal expressions of
+	 * different criteria
+	 */
+	private abstract static class Node {
+	}
+
+	private abstract static class BoolNode extends Node {
+		abstract boolean test(double[][] columns, int row);
+
+		/**
+		 * @return new set of rows of batch matching node
+		 */
+		abstract BitSet select(double[][] columns, Batch batch);
+
+		/**
+		 * @param keys
+		 *            where canonical text of every comparison of node is added
+		 */
+		abstract void comparisons(Set<String> keys);
+	}
+
+	private abstract static class NumNode extends Node {
+		abstract double value(double[][] columns, int row);
+	}
+
+	private static final class Constant extends NumNode {
+		private final double value;
+
+		private Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		double value(double[][] columns, int row) {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(value);
+		}
+	}
+
+	private static final class Var extends NumNode {
+		private final Variable variable;
+		private final int slot;
+
+		private Var(Variable variable) {
+			this.variable = variable;
+			this.slot = variable.slot;
+		}
+
+		@Override
+		double value(double[][] columns, int row) {
+			return columns[slot][row];
+		}
+
+		@Override
+		public String toString() {
+			return "[" + variable + "]";
+		}
+	}
+
+	private static final class Literal extends BoolNode {
+		private final boolean value;
+
+		private Literal(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		boolean test(double[][] columns, int row) {
+			return value;
+		}
+
+		@Override
+		BitSet select(double[][] columns, Batch batch) {
+			return value ? batch.all() : new BitSet();
+		}
+
+		@Override
+		void comparisons(Set<String> keys) {
+		}
+	}
+
+	private static final class Not extends BoolNode {
+		private final BoolNode operand;
+
+		private Not(BoolNode operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		boolean test(double[][] columns, int row) {
+			return !operand.test(columns, row);
+		}
+
+		@Override
+		BitSet select(double[][] columns, Batch batch) {
+			BitSet rows = operand.select(columns, batch);
+			rows.flip(batch.from, batch.to);
+			return rows;
+		}
+
+		@Override
+		void comparisons(Set<String> keys) {
+			operand.comparisons(keys);
+		}
+	}
+
+	private static final class And extends BoolNode {
+		private final BoolNode left;
+		private final BoolNode right;
+
+		private And(BoolNode left, BoolNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(double[][] columns, int row) {
+			return left.test(columns, row) && right.test(columns, row);
+		}
+
+		@Override
+		BitSet select(double[][] columns, Batch batch) {
+			BitSet rows = left.select(columns, batch);
+			rows.and(right.select(columns, batch));
+			return rows;
+		}
+
+		@Override
+		void comparisons(Set<String> keys) {
+			left.comparisons(keys);
+			right.comparisons(keys);
+		}
+	}
+
+	private static final class Or extends BoolNode {
+		private final BoolNode left;
+		private final BoolNode right;
+
+		private Or(BoolNode left, BoolNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(double[][] columns, int row) {
+			return left.test(columns, row) || right.test(columns, row);
+		}
+
+		@Override
+		BitSet select(double[][] columns, Batch batch) {
+			BitSet rows = left.select(columns, batch);
+			rows.or(right.select(columns, batch));
+			return rows;
+		}
+
+		@Override
+		void comparisons(Set<String> keys) {
+			left.comparisons(keys);
+			right.comparisons(keys);
+		}
+	}
+
+	private static final class Compare extends BoolNode {
+		/**
+		 * index in {@link SelectionCriteria#COMPARISONS}
+		 */
+		private final int operator;
+		private final NumNode left;
+		private final NumNode right;
+
+		private Compare(int operator, NumNode left, NumNode right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(double[][] columns, int row) {
+			double l = left.value(columns, row);
+			double r = right.value(columns, row);
+			switch (operator) {
+			case 0:
+				return l == r;
+			case 1:
+				return l != r;
+			case 2:
+				return l <= r;
+			case 3:
+				return l >= r;
+			case 4:
+				return l < r;
+			default:
+				return l > r;
+			}
+		}
+
+		@Override
+		BitSet select(double[][] columns, Batch batch) {
+			String key = toString();
+			BitSet rows = batch.comparisons.get(key);
+			if (rows == null) {
+				if (batch.thresholds != null) {
+					rows = threshold(columns, batch, key);
+				}
+				if (rows == null) {
+					rows = new BitSet(batch.to);
+					for (int row = batch.from; row < batch.to; row++) {
+						if (test(columns, row)) {
+							rows.set(row);
+						}
+					}
+				}
+				batch.comparisons.put(key, rows);
+			}
+			return (BitSet) rows.clone();
+		}
+
+		@Override
+		void comparisons(Set<String> keys) {
+			keys.add(toString());
+		}
+
+		/**
+		 * @return rows of snapshot matching comparison if it compares a
+		 *         variable with a constant, null otherwise
+		 */
+		private BitSet threshold(double[][] columns, Batch batch, String key) {
+			if (left instanceof Var && right instanceof Constant) {
+				Var v = (Var) left;
+				return batch.thresholds.select(key, v.variable,
+						columns[v.slot], COMPARISONS[operator],
+						((Constant) right).value);
+			}
+			if (left instanceof Constant && right instanceof Var) {
+				Var v = (Var) right;
+				return batch.thresholds.select(key, v.variable,
+						columns[v.slot], COMPARISONS[MIRRORED[operator]],
+						((Constant) left).value);
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return left + " " + COMPARISONS[operator] + " " + right;
+		}
+	}
+
+	private static final class Arithmetic extends NumNode {
+		private final char operator;
+		private final NumNode left;
+		private final NumNode right;
+
+		private Arithmetic(char operator, NumNode left, NumNode right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		double value(double[][] columns, int row) {
+			double l = left.value(columns, row);
+			double r = right.value(columns, row);
+			switch (operator) {
+			case '+':
+				return l + r;
+			case '-':
+				return l - r;
+			case '*':
+				return l * r;
+			case '/':
+				return l / r;
+			default:
+				return l % r;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " " + operator + " " + right + ")";
+		}
+	}
+
+	private static final class Negate extends NumNode {
+		private final NumNode operand;
+
+		private Negate(NumNode operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		double value(double[][] columns, int row) {
+			return -operand.value(columns, row);
+		}
+
+		@Override
+		public String toString() {
+			return "-" + operand;
+		}
+	}
+
+	/**
+	 * Recursive descent parser of criteria, variables are collected while
+	 * parsing and numbered in order of first use
+	 */
+	private static final class Parser {
+		private final String criteria;
+		private final String collection;
+		private final Map<String, Variable> variables = new LinkedHashMap<String, Variable>();
+		private int pos;
+
+		private Parser(String criteria, String collection) {
+			if (criteria == null || criteria.trim().isEmpty()) {
+				throw new IllegalArgumentException("criteria must be not empty");
+			}
+			this.criteria = criteria;
+			this.collection = collection;
+		}
+
+		private SelectionCriteria parse() {
+			BoolNode root = bool(or());
+			skipSpaces();
+			if (pos < criteria.length()) {
+				throw error("unexpected " + criteria.charAt(pos));
+			}
+			return new SelectionCriteria(criteria, root,
+					new ArrayList<Variable>(variables.values()));
+		}
+
+		private Node or() {
+			Node left = and();
+			while (accept("||")) {
+				left = new Or(bool(left), bool(and()));
+			}
+			return left;
+		}
+
+		private Node and() {
+			Node left = not();
+			while (accept("&&")) {
+				left = new And(bool(left), bool(not()));
+			}
+			return left;
+		}
+
+		private Node not() {
+			if (!peek("!=") && accept("!")) {
+				return new Not(bool(not()));
+			}
+			return compare();
+		}
+
+		private Node compare() {
+			Node left = sum();
+			for (int i = 0; i < COMPARISONS.length; i++) {
+				if (accept(COMPARISONS[i])) {
+					return new Compare(i, num(left), num(sum()));
+				}
+			}
+			return left;
+		}
+
+		private Node sum() {
+			Node left = product();
+			while (true) {
+				if (accept("+")) {
+					left = new Arithmetic('+', num(left), num(product()));
+				} else if (accept("-")) {
+					left = new Arithmetic('-', num(left), num(product()));
+				} else {
+					return left;
+				}
+			}
+		}
+
+		private Node product() {
+			Node left = unary();
+			while (true) {
+				if (accept("*")) {
+					left = new Arithmetic('*', num(left), num(unary()));
+				} else if (accept("/")) {
+					left = new Arithmetic('/', num(left), num(unary()));
+				} else if (accept("%")) {
+					left = new Arithmetic('%', num(left), num(unary()));
+				} else {
+					return left;
+				}
+			}
+		}
+
+		private Node unary() {
+			if (accept("-")) {
+				return new Negate(num(unary()));
+			}
+			return primary();
+		}
+
+		private Node primary() {
+			skipSpaces();
+			if (accept("(")) {
+				Node node = or();
+				if (!accept(")")) {
+					throw error("missing )");
+				}
+				return node;
+			}
+			if (pos >= criteria.length()) {
+				throw error("unexpected end");
+			}
+			char c = criteria.charAt(pos);
+			if (Character.isDigit(c) || c == '.') {
+				return number();
+			}
+			if (Character.isLetter(c) || c == '_') {
+				return identifier();
+			}
+			throw error("unexpected " + c);
+		}
+
+		private Node number() {
+			int start = pos;
+			while (pos < criteria.length()
+					&& (Character.isDigit(criteria.charAt(pos)) || criteria
+							.charAt(pos) == '.')) {
+				pos++;
+			}
+			try {
+				return new Constant(Double.parseDouble(criteria.substring(
+						start, pos)));
+			} catch (NumberFormatException e) {
+				throw error("not a number " + criteria.substring(start, pos));
+			}
+		}
+
+		/**
+		 * identifiers are concept names, that can contain spaces
+		 */
+		private Node identifier() {
+			int start = pos;
+			while (pos < criteria.length()) {
+				char c = criteria.charAt(pos);
+				if (!Character.isLetterOrDigit(c) && c != '_' && c != '.'
+						&& c != ' ') {
+					break;
+				}
+				pos++;
+			}
+			String name = criteria.substring(start, pos).trim();
+			if (name.equalsIgnoreCase("true")) {
+				return new Literal(true);
+			}
+			if (name.equalsIgnoreCase("false")) {
+				return new Literal(false);
+			}
+			if (name.equals("null")) {
+				return new Constant(Double.NaN);
+			}
+			return new Var(variable(name));
+		}
+
+		private Variable variable(String name) {
+			Variable v = variables.get(name);
+			if (v != null) {
+				return v;
+			}
+			int slot = variables.size();
+			if (collection != null) {
+				if (!name.equals(SIZE)) {
+					throw error("unknown variable " + name);
+				}
+				v = new Variable(slot, null, null, null, collection);
+			} else if (!name.contains(".")) {
+				v = new Variable(slot, name, null, null, null);
+			} else {
+				String[] parts = StringUtils.split(name, ".");
+				if (parts.length != 3 || StringUtils.countMatches(name, ".") != 2) {
+					throw error("variable not well written " + name);
+				}
+				v = new Variable(slot, parts[0].trim(), parts[1].trim(),
+						PeriodScoreType.fromString(parts[2]), null);
+			}
+			variables.put(name, v);
+			return v;
+		}
+
+		private BoolNode bool(Node node) {
+			if (!(node instanceof BoolNode)) {
+				throw error("condition expected");
+			}
+			return (BoolNode) node;
+		}
+
+		private NumNode num(Node node) {
+			if (!(node instanceof NumNode)) {
+				throw error("number expected");
+			}
+			return (NumNode) node;
+		}
+
+		private boolean peek(String token) {
+			skipSpaces();
+			return criteria.startsWith(token, pos);
+		}
+
+		private boolean accept(String token) {
+			if (peek(token)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void skipSpaces() {
+			while (pos < criteria.length()
+					&& Character.isWhitespace(criteria.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("criteria not well written, "
+					+ message + " at " + pos + ": " + criteria);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package eu.trentorise.game.challenges.util;
+
+import java.util.BitSet;
+
+/**
+ * Rows of a column sorted by value, so that threshold comparisons like
+ * <code>X &gt; c</code> are answered by binary search: rows matching a
+ * comparison are a contiguous slice of sorted rows, and their number is known
+ * without visiting them. Rows with NaN value are not indexed.
+ */
+public final class ThresholdIndex {
+
+	private final int size;
+	private final int[] rows;
+	private final double[] values;
+
+	private ThresholdIndex(int size, int[] rows, double[] values) {
+		this.size = size;
+		this.rows = rows;
+		this.values = values;
+	}
+
+	/**
+	 * @param column
+	 *            value of every row
+	 * @return index of column
+	 */
+	public static ThresholdIndex build(double[] column) {
+		if (column == null) {
+			throw new IllegalArgumentException("column must be not null");
+		}
+		int count = 0;
+		int[] rows = new int[column.length];
+		for (int row = 0; row < column.length; row++) {
+			if (!Double.isNaN(column[row])) {
+				rows[count++] = row;
+			}
+		}
+		if (count < rows.length) {
+			int[] indexed = new int[count];
+			System.arraycopy(rows, 0, indexed, 0, count);
+			rows = indexed;
+		}
+		sort(rows, new int[count], 0, count, column);
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = column[rows[i]];
+		}
+		return new ThresholdIndex(column.length, rows, values);
+	}
+
+	/**
+	 * @param operator
+	 *            one of ==, !=, &lt;, &lt;=, &gt;, &gt;=
+	 * @param value
+	 * @return number of rows with <code>row operator value</code>
+	 */
+	public int count(String operator, double value) {
+		if (operator.equals("!=")) {
+			return size - count("==", value);
+		}
+		int[] slice = slice(operator, value);
+		return slice[1] - slice[0];
+	}
+
+	/**
+	 * @param operator
+	 *            one of ==, !=, &lt;, &lt;=, &gt;, &gt;=
+	 * @param value
+	 * @return rows with <code>row operator value</code>
+	 */
+	public BitSet select(String operator, double value) {
+		BitSet result = new BitSet(size);
+		if (operator.equals("!=")) {
+			result.set(0, size);
+			int[] slice = slice("==", value);
+			for (int i = slice[0]; i < slice[1]; i++) {
+				result.clear(rows[i]);
+			}
+			return result;
+		}
+		int[] slice = slice(operator, value);
+		for (int i = slice[0]; i < slice[1]; i++) {
+			result.set(rows[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return first and last (exclusive) position in sorted rows matching
+	 *         comparison
+	 */
+	private int[] slice(String operator, double value) {
+		if (Double.isNaN(value)) {
+			return new int[] { 0, 0 };
+		}
+		switch (operator) {
+		case "==":
+			return new int[] { lower(value), upper(value) };
+		case "<":
+			return new int[] { 0, lower(value) };
+		case "<=":
+			return new int[] { 0, upper(value) };
+		case ">":
+			return new int[] { upper(value), values.length };
+		case ">=":
+			return new int[] { lower(value), values.length };
+		default:
+			throw new IllegalArgumentException("unknown operator " + operator);
+		}
+	}
+
+	/**
+	 * @return first position with value greater or equal than value
+	 */
+	private int lower(double value) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return first position with value greater than value
+	 */
+	private int upper(double value) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Stable merge sort of rows from (inclusive) to (exclusive) by value
+	 */
+	private static void sort(int[] rows, int[] buffer, int from, int to,
+			double[] column) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sort(rows, buffer, from, middle, column);
+		sort(rows, buffer, middle, to, column);
+		if (column[rows[middle - 1]] <= column[rows[middle]]) {
+			return;
+		}
+		System.arraycopy(rows, from, buffer, from, to - from);
+		int i = from;
+		int j = middle;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < middle && column[buffer[i]] <= column[buffer[j]])) {
+				rows[k] = buffer[i++];
+			} else {
+				rows[k] = buffer[j++];
+			}
+		}
+	}
+}
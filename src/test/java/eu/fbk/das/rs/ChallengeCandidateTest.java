@@ -0,0 +1,122 @@
+package eu.fbk.das.rs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eu.fbk.das.rs.challengeGeneration.ChallengeCandidate;
+import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
+import eu.fbk.das.rs.sortfilter.Leaderboard;
+import eu.fbk.das.rs.sortfilter.LeaderboardPosition;
+import eu.fbk.das.rs.sortfilter.RecommendationSystemChallengeFilteringAndSorting;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+
+public class ChallengeCandidateTest {
+
+	private static final Date START = new Date(1000000000000L);
+	private static final Date END = new Date(START.getTime() + 604800000L);
+
+	@Test
+	public void percentageIncrementToDTO() {
+		ChallengeCandidate candidate = ChallengeCandidate.percentageIncrement(
+				"Walk_Trips", 10d, 0.15);
+		candidate.setDifficulty(2);
+		ChallengeDataDTO cdd = candidate.toDTO("w1_", START, END);
+		assertEquals(ChallengeCandidate.PERCENTAGE_INCREMENT,
+				cdd.getModelName());
+		assertTrue(cdd.getInstanceName().startsWith("w1_Walk_Trips_"));
+		assertEquals(START, cdd.getStart());
+		assertEquals(END, cdd.getEnd());
+		Map<String, Object> data = cdd.getData();
+		// trips are rounded
+		assertEquals(12d, data.get("target"));
+		assertEquals(10d, data.get("baseline"));
+		assertEquals(0.15, data.get("percentage"));
+		assertEquals(100d, data.get("bonusScore"));
+		assertEquals("Walk_Trips", data.get("counterName"));
+		assertEquals("w1_Walk_Trips_0.15", data.get("challengeName"));
+		assertEquals(2, data.get("difficulty"));
+		assertFalse(data.containsKey("wi"));
+	}
+
+	@Test
+	public void tryOnceToDTO() {
+		ChallengeDataDTO cdd = ChallengeCandidate.tryOnce("Bus_Km").toDTO(
+				"w1_", START, END);
+		assertEquals(ChallengeCandidate.ABSOLUTE_INCREMENT, cdd.getModelName());
+		assertTrue(cdd.getInstanceName().startsWith("w1_Bus_Km_try_"));
+		Map<String, Object> data = cdd.getData();
+		assertEquals(1, data.get("target"));
+		assertEquals("w1_Bus_Km_try", data.get("challengeName"));
+		assertFalse(data.containsKey("baseline"));
+		assertFalse(data.containsKey("percentage"));
+		assertFalse(data.containsKey("difficulty"));
+	}
+
+	@Test
+	public void readFromDTO() {
+		ChallengeDataDTO cdd = ChallengeCandidate.percentageIncrement(
+				"Bike_Km", 4d, 0.5).toDTO("w1_", START, END);
+		ChallengeCandidate candidate = ChallengeCandidate.of(cdd);
+		assertTrue(candidate.isPercentageIncrement());
+		assertEquals("Bike_Km", candidate.getCounterName());
+		assertEquals(4d, candidate.getBaseline(), 0d);
+		assertEquals(6d, candidate.getTarget(), 0d);
+		assertEquals(0.5, candidate.getPercentage(), 0d);
+		assertEquals(0, candidate.getDifficulty());
+		assertTrue(Double.isNaN(candidate.getWi()));
+		assertSame(cdd, candidate.toDTO("w2_", START, END));
+	}
+
+	@Test
+	public void writeBackToDTO() {
+		ChallengeDataDTO cdd = ChallengeCandidate.percentageIncrement(
+				"Bike_Km", 4d, 0.5).toDTO("w1_", START, END);
+		ChallengeCandidate candidate = ChallengeCandidate.of(cdd);
+		candidate.setDifficulty(3);
+		candidate.setBonusScore(250d);
+		candidate.setWi(0.4);
+		assertSame(cdd, candidate.toDTO("w2_", START, END));
+		Map<String, Object> data = cdd.getData();
+		assertEquals(3, data.get("difficulty"));
+		assertEquals(250d, data.get("bonusScore"));
+		assertEquals(0.4, data.get("wi"));
+		assertEquals("w1_Bike_Km_0.5", data.get("challengeName"));
+	}
+
+	@Test
+	public void sortByDifficultyAndWi() {
+		RecommendationSystemChallengeFilteringAndSorting filtering = new RecommendationSystemChallengeFilteringAndSorting(
+				new RecommendationSystemConfig(false, ""));
+		List<LeaderboardPosition> positions = new ArrayList<LeaderboardPosition>();
+		positions.add(new LeaderboardPosition(10, "1"));
+		ChallengeCandidate hard = candidate("Walk_Km", 0.2, 3);
+		ChallengeCandidate easy = candidate("Walk_Km", 0.1, 1);
+		ChallengeCandidate easyBetter = candidate("Walk_Km", 0.3, 1);
+		ChallengeCandidate duplicate = candidate("Walk_Km", 0.3, 1);
+		Map<String, List<ChallengeCandidate>> candidates = new HashMap<String, List<ChallengeCandidate>>();
+		candidates.put("1", Arrays.asList(hard, easy, easyBetter, duplicate));
+		List<ChallengeCandidate> sorted = filtering.filterAndSortCandidates(
+				candidates, new Leaderboard(positions)).get("1");
+		assertEquals(Arrays.asList(easyBetter, easy, hard), sorted);
+		assertTrue(easyBetter.getWi() > easy.getWi());
+	}
+
+	private static ChallengeCandidate candidate(String mode,
+			double percentage, int difficulty) {
+		ChallengeCandidate candidate = ChallengeCandidate.percentageIncrement(
+				mode, 10d, percentage);
+		candidate.setDifficulty(difficulty);
+		return candidate;
+	}
+}
@@ -43,6 +43,16 @@ public class DifficultyCalculatorTest {
 		DifficultyCalculator.computeDifficulty(quartiles, baseline, null);
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testNaNBaseline() {
+		Map<Integer, Double> quartiles = new HashMap<Integer, Double>();
+		quartiles.put(4, 3.99);
+		quartiles.put(7, 12.516551);
+		quartiles.put(9, 30.51);
+		Double target = 60.43;
+		DifficultyCalculator.computeDifficulty(quartiles, Double.NaN, target);
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testQuartilesLevelsTarget() {
 		Map<Integer, Double> quartiles = new HashMap<Integer, Double>();
@@ -0,0 +1,86 @@
+package eu.fbk.das.rs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
+import eu.fbk.das.rs.sortfilter.Leaderboard;
+import eu.fbk.das.rs.sortfilter.LeaderboardPosition;
+import eu.fbk.das.rs.sortfilter.RecommendationSystemChallengeFilteringAndSorting;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+
+public class LeaderboardTest {
+
+	@Test
+	public void ranksAndBetterScores() {
+		Leaderboard leaderboard = new Leaderboard(Arrays.asList(
+				new LeaderboardPosition(1000, "c"), new LeaderboardPosition(
+						3000, "a"), new LeaderboardPosition(1000, "d"),
+				new LeaderboardPosition(2000, "b"), new LeaderboardPosition(0,
+						"e")));
+		assertEquals(5, leaderboard.size());
+		assertEquals(0, leaderboard.rank("a"));
+		assertEquals(1, leaderboard.rank("b"));
+		// same score keep given order
+		assertEquals(2, leaderboard.rank("c"));
+		assertEquals(3, leaderboard.rank("d"));
+		assertEquals(4, leaderboard.rank("e"));
+		assertEquals(-1, leaderboard.rank("unknown"));
+		assertEquals(3, leaderboard.get(3).getIndex().intValue());
+
+		assertEquals(-1, leaderboard.betterRank(3000));
+		assertEquals(0, leaderboard.betterRank(2000));
+		assertEquals(1, leaderboard.betterRank(1000));
+		assertEquals(3, leaderboard.betterRank(0));
+		assertEquals(4, leaderboard.betterRank(-1));
+	}
+
+	@Test
+	public void equalScoresOutsideIntegerCache() {
+		// distinct Integer instances of the same value
+		LeaderboardPosition p = new LeaderboardPosition(new Integer(5000), "a");
+		LeaderboardPosition q = new LeaderboardPosition(new Integer(5000), "b");
+		assertEquals(0, p.compareTo(q));
+		assertEquals(0, q.compareTo(p));
+	}
+
+	@Test
+	public void improvingChallengesFirst() {
+		List<LeaderboardPosition> positions = new ArrayList<LeaderboardPosition>();
+		positions.add(new LeaderboardPosition(300, "top"));
+		positions.add(new LeaderboardPosition(200, "middle"));
+		positions.add(new LeaderboardPosition(100, "bottom"));
+		Map<String, List<ChallengeDataDTO>> challenges = new HashMap<String, List<ChallengeDataDTO>>();
+		challenges.put("bottom", Arrays.asList(challenge(50d), challenge(150d)));
+		challenges.put("top", Arrays.asList(challenge(10d)));
+
+		Map<String, List<ChallengeDataDTO>> result = new RecommendationSystemChallengeFilteringAndSorting(
+				new RecommendationSystemConfig(false, "")).filterAndSort(
+				challenges, positions);
+		// only the biggest prize overtakes middle player
+		assertEquals(150d, result.get("bottom").get(0).getData()
+				.get("bonusScore"));
+		assertEquals(1, result.get("top").size());
+	}
+
+	private static ChallengeDataDTO challenge(double prize) {
+		ChallengeDataDTO cdd = new ChallengeDataDTO();
+		cdd.setModelName("percentageIncrement");
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("baseline", 10d);
+		data.put("target", 11d);
+		data.put("percentage", 0.1);
+		data.put("counterName", "Walk_Km");
+		data.put("bonusScore", prize);
+		data.put("difficulty", 1);
+		cdd.setData(data);
+		return cdd;
+	}
+}
@@ -0,0 +1,160 @@
+package eu.fbk.das.rs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.fbk.das.rs.challengeGeneration.ModeFeatures;
+import eu.fbk.das.rs.challengeGeneration.RecommendationSystemChallengeGeneration;
+import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+public class ModeFeaturesTest {
+
+	private static final int PLAYERS = 5000;
+	private static final String[] MODES = { "Bike_Km", "Bus_Trips" };
+	// current weekly instance started half a week ago, at a whole second
+	private static final long START = (System.currentTimeMillis() - StubEngine.WEEK / 2)
+			/ 1000 * 1000;
+
+	private GameSnapshot snapshot;
+
+	@Before
+	public void setup() throws IOException {
+		GameSnapshot.Builder builder = new GameSnapshot.Builder();
+		for (int i = 0; i < PLAYERS; i++) {
+			Content c = JsonUtil.CONTENT_READER.readValue(player(i));
+			builder.add(c);
+		}
+		snapshot = builder.build();
+	}
+
+	@Test
+	public void extractScores() {
+		ModeFeatures features = ModeFeatures.extract(snapshot, MODES, null);
+		assertEquals(PLAYERS, features.size());
+		for (int m = 0; m < MODES.length; m++) {
+			double[] weekly = snapshot.getPeriodScores(MODES[m], "weekly",
+					PeriodScoreType.CURRENT);
+			for (int p = 0; p < PLAYERS; p++) {
+				int row = snapshot.getRow(features.getPlayerId(p));
+				if (snapshot.hasConcept(row, MODES[m])) {
+					assertEquals(weekly[row], features.getScore(m, p), 0d);
+				} else {
+					assertTrue(Double.isNaN(features.getScore(m, p)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void extractSelectedPlayers() {
+		ModeFeatures features = ModeFeatures.extract(snapshot, MODES,
+				new HashSet<String>(Arrays.asList("3", "7", "unknown")));
+		assertEquals(2, features.size());
+		assertEquals("3", features.getPlayerId(0));
+		assertEquals("7", features.getPlayerId(1));
+		// odd players don't have Bus_Trips
+		assertTrue(Double.isNaN(features.getScore(1, 0)));
+	}
+
+	@Test
+	public void sameChallengesForAnyParallelism() {
+		RecommendationSystemConfig configuration = new RecommendationSystemConfig(
+				false, "");
+		RecommendationSystemChallengeGeneration rs = new RecommendationSystemChallengeGeneration(
+				configuration);
+		Date start = new Date();
+		Date end = new Date(start.getTime() + StubEngine.WEEK);
+		Map<String, List<ChallengeDataDTO>> sequential = generate(rs, start,
+				end, 1);
+		Map<String, List<ChallengeDataDTO>> parallel = generate(rs, start,
+				end, 8);
+		assertEquals(sequential.keySet(), parallel.keySet());
+		for (String playerId : sequential.keySet()) {
+			assertEquals(names(sequential.get(playerId)),
+					names(parallel.get(playerId)));
+		}
+
+		ModeFeatures features = ModeFeatures.extract(snapshot,
+				configuration.getDefaultMode(), null);
+		for (int p = 0; p < features.size(); p++) {
+			int expected = 0;
+			boolean present = false;
+			for (int m = 0; m < features.getModeCount(); m++) {
+				double score = features.getScore(m, p);
+				if (Double.isNaN(score)) {
+					continue;
+				}
+				present = true;
+				if (score > 0) {
+					expected += configuration.getPercentage().length;
+				} else if (configuration.isDefaultMode(configuration
+						.getDefaultMode()[m])) {
+					expected++;
+				}
+			}
+			List<ChallengeDataDTO> challenges = parallel.get(features
+					.getPlayerId(p));
+			if (present) {
+				assertEquals(expected, challenges.size());
+			} else {
+				assertEquals(null, challenges);
+			}
+		}
+	}
+
+	private Map<String, List<ChallengeDataDTO>> generate(
+			RecommendationSystemChallengeGeneration rs, Date start, Date end,
+			int parallelism) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return rs.generate(snapshot, start, end, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static List<Object> names(List<ChallengeDataDTO> challenges) {
+		List<Object> names = new ArrayList<Object>();
+		for (ChallengeDataDTO c : challenges) {
+			names.add(c.getData().get("challengeName"));
+		}
+		return names;
+	}
+
+	/**
+	 * @return a player with Bike_Km, even players also with Bus_Trips, every
+	 *         tenth player without modes
+	 */
+	private static String player(int i) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"playerId\":\"" + i + "\",\"gameId\":\"rsGame\","
+				+ "\"state\":{\"PointConcept\":[");
+		if (i % 10 != 0) {
+			sb.append(StubEngine.concept("Bike_Km", i % 3, i % 3, START));
+			if (i % 2 == 0) {
+				sb.append(",").append(
+						StubEngine.concept("Bus_Trips", i % 4, i % 4, START));
+			}
+		}
+		sb.append("]}}");
+		return sb.toString();
+	}
+}
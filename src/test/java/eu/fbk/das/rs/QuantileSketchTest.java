@@ -0,0 +1,71 @@
+package eu.fbk.das.rs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.math.Quantiles;
+
+import eu.fbk.das.rs.valuator.QuantileSketch;
+
+public class QuantileSketchTest {
+
+	private static final int VALUES = 1000000;
+
+	@Test
+	public void exactForSmallGames() {
+		Random random = new Random(1);
+		double[] values = new double[5000];
+		QuantileSketch sketch = new QuantileSketch();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(100) + 1;
+			sketch.add(values[i]);
+		}
+		assertTrue(sketch.isExact());
+		assertEquals(Quantiles.scale(10).indexes(4, 7, 9).compute(values),
+				sketch.quantiles(10, 4, 7, 9));
+	}
+
+	@Test
+	public void mergedShardsWithinRankError() {
+		Random random = new Random(2);
+		double[] values = new double[VALUES];
+		QuantileSketch[] shards = new QuantileSketch[4];
+		for (int s = 0; s < shards.length; s++) {
+			shards[s] = new QuantileSketch();
+		}
+		for (int i = 0; i < VALUES; i++) {
+			values[i] = Math.exp(random.nextGaussian() * 2);
+			shards[i % shards.length].add(values[i]);
+		}
+		QuantileSketch merged = new QuantileSketch();
+		for (QuantileSketch shard : shards) {
+			merged.merge(shard);
+		}
+		assertFalse(merged.isExact());
+		assertEquals(VALUES, merged.count());
+
+		Arrays.sort(values);
+		Map<Integer, Double> quantiles = merged.quantiles(10, 4, 7, 9);
+		for (int index : new int[] { 4, 7, 9 }) {
+			int rank = Arrays.binarySearch(values, quantiles.get(index));
+			if (rank < 0) {
+				rank = -rank - 1;
+			}
+			double error = Math.abs(rank - (double) index * (VALUES - 1) / 10)
+					/ VALUES;
+			assertTrue("rank error " + error, error < 0.01);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void emptySketch() {
+		new QuantileSketch().quantiles(10, 4, 7, 9);
+	}
+}
@@ -0,0 +1,92 @@
+package eu.fbk.das.rs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eu.fbk.das.rs.challengeGeneration.RecommendationSystemConfig;
+import eu.fbk.das.rs.sortfilter.Leaderboard;
+import eu.fbk.das.rs.sortfilter.LeaderboardPosition;
+import eu.fbk.das.rs.sortfilter.RecommendationSystemChallengeFilteringAndSorting;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+
+public class RemoveDuplicatesTest {
+
+	private RecommendationSystemChallengeFilteringAndSorting filtering = new RecommendationSystemChallengeFilteringAndSorting(
+			new RecommendationSystemConfig(false, ""));
+
+	@Test
+	public void keepFirstOfEveryKey() {
+		ChallengeDataDTO a = challenge("percentageIncrement", "Walk_Trips", 2d);
+		ChallengeDataDTO b = challenge("percentageIncrement", "Walk_Trips", 2d);
+		ChallengeDataDTO c = challenge("percentageIncrement", "Walk_Trips", 3d);
+		ChallengeDataDTO d = challenge("absoluteIncrement", "Walk_Trips", 2);
+		ChallengeDataDTO e = challenge("absoluteIncrement", "Walk_Trips", 2d);
+		ChallengeDataDTO f = challenge("percentageIncrement", "Bus_Trips", 2d);
+		Map<String, List<ChallengeDataDTO>> challenges = new HashMap<String, List<ChallengeDataDTO>>();
+		challenges.put("1", new ArrayList<ChallengeDataDTO>(Arrays.asList(a,
+				b, c, d, e, f)));
+		challenges.put("2", new ArrayList<ChallengeDataDTO>(Arrays.asList(b)));
+		filtering.removeDuplicates(challenges);
+		assertEquals(Arrays.asList(a, c, d, f), challenges.get("1"));
+		// duplicates are by player
+		assertEquals(Arrays.asList(b), challenges.get("2"));
+	}
+
+	@Test
+	public void filterAndSortRemovesDuplicates() {
+		List<LeaderboardPosition> positions = new ArrayList<LeaderboardPosition>();
+		positions.add(new LeaderboardPosition(10, "1"));
+		ChallengeDataDTO a = challenge("percentageIncrement", "Walk_Trips", 2d);
+		ChallengeDataDTO b = challenge("percentageIncrement", "Walk_Trips", 2d);
+		Map<String, List<ChallengeDataDTO>> challenges = new HashMap<String, List<ChallengeDataDTO>>();
+		challenges.put("1", Arrays.asList(a, b));
+		List<ChallengeDataDTO> result = filtering.filterAndSort(challenges,
+				positions).get("1");
+		assertEquals(1, result.size());
+		assertSame(a, result.get(0));
+	}
+
+	@Test
+	public void missingTargetsAreDuplicates() {
+		ChallengeDataDTO a = challenge("absoluteIncrement", "Bus_Km", null);
+		ChallengeDataDTO b = challenge("absoluteIncrement", "Bus_Km", null);
+		ChallengeDataDTO c = challenge("absoluteIncrement", "Bus_Km", Double.NaN);
+		ChallengeDataDTO d = challenge("absoluteIncrement", "Walk_Km", null);
+		Map<String, List<ChallengeDataDTO>> challenges = new HashMap<String, List<ChallengeDataDTO>>();
+		challenges.put("1", new ArrayList<ChallengeDataDTO>(Arrays.asList(a,
+				b, c, d)));
+		List<ChallengeDataDTO> sorted = filtering.filterAndSort(challenges,
+				new Leaderboard(new ArrayList<LeaderboardPosition>())).get("1");
+		assertEquals(2, sorted.size());
+		assertEquals(new HashSet<Object>(Arrays.asList("Bus_Km", "Walk_Km")),
+				new HashSet<Object>(Arrays.asList(sorted.get(0).getData()
+						.get("counterName"), sorted.get(1).getData()
+						.get("counterName"))));
+		filtering.removeDuplicates(challenges);
+		assertEquals(Arrays.asList(a, d), challenges.get("1"));
+	}
+
+	private static ChallengeDataDTO challenge(String model, String counter,
+			Object target) {
+		ChallengeDataDTO cdd = new ChallengeDataDTO();
+		cdd.setModelName(model);
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("baseline", 1d);
+		data.put("target", target);
+		data.put("percentage", 0.5);
+		data.put("counterName", counter);
+		data.put("bonusScore", 100d);
+		data.put("difficulty", 1);
+		cdd.setData(data);
+		return cdd;
+	}
+}
@@ -0,0 +1,161 @@
+package eu.trentorise.challenge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.LocalDateTime;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal local gamification engine used by benchmarks: serves a paginated
+ * synthetic game state and accepts challenge assignments, every request is
+ * delayed by a fixed latency
+ */
+public final class StubEngine {
+
+	public static final String GAMEID = "stubGame";
+	public static final long WEEK = 604800000L;
+	private static final long START = 1483225200000L;
+	private static final int DEFAULT_PAGE_SIZE = 20;
+
+	private final HttpServer server;
+	private volatile int players;
+	private final long latency;
+	private final AtomicInteger requests = new AtomicInteger();
+
+	public StubEngine(int players, long latency) throws IOException {
+		this.players = players;
+		this.latency = latency;
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+
+	/**
+	 * @return host to be used as gamification engine host, with trailing
+	 *         slash
+	 */
+	public String getHost() {
+		return "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @param players
+	 *            number of players of game state served from now on
+	 */
+	public void setPlayers(int players) {
+		this.players = players;
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			Thread.sleep(latency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		InputStream in = exchange.getRequestBody();
+		IOUtils.toByteArray(in);
+		in.close();
+		String body = "{}";
+		if (exchange.getRequestURI().getPath().contains("/state/")) {
+			body = page(exchange.getRequestURI().getQuery());
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private String page(String query) {
+		int page = 1;
+		int size = DEFAULT_PAGE_SIZE;
+		if (query != null) {
+			for (String param : query.split("&")) {
+				String[] kv = param.split("=");
+				if (kv[0].equals("page")) {
+					page = Integer.valueOf(kv[1]);
+				} else if (kv[0].equals("size")) {
+					size = Integer.valueOf(kv[1]);
+				}
+			}
+		}
+		int totalPages = (players + size - 1) / size;
+		StringBuilder sb = new StringBuilder("{\"content\":[");
+		int from = (page - 1) * size;
+		int to = Math.min(players, from + size);
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				sb.append(',');
+			}
+			sb.append(player(i));
+		}
+		sb.append("],\"totalElements\":").append(players);
+		sb.append(",\"totalPages\":").append(totalPages);
+		sb.append(",\"last\":").append(page >= totalPages);
+		sb.append(",\"first\":").append(page == 1);
+		sb.append(",\"size\":").append(size);
+		sb.append(",\"number\":").append(page - 1);
+		sb.append(",\"numberOfElements\":").append(Math.max(0, to - from));
+		sb.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * @return a synthetic player with one point concept and one weekly
+	 *         instance
+	 */
+	public static String player(int i) {
+		return "{\"playerId\":\"" + i + "\",\"gameId\":\"" + GAMEID
+				+ "\",\"state\":{\"PointConcept\":["
+				+ concept("green leaves", i % 1000, i % 100, START)
+				+ "],\"BadgeCollectionConcept\":[{\"name\":"
+				+ "\"green leaves\",\"badgeEarned\":[\"10-point-green\"]}]}}";
+	}
+
+	/**
+	 * @param name
+	 * @param score
+	 *            total score of the concept
+	 * @param weeklyScore
+	 *            score of the weekly instance
+	 * @param start
+	 *            start of the weekly period and of its only instance
+	 * @return a point concept with a weekly period and one instance
+	 */
+	public static String concept(String name, double score,
+			double weeklyScore, long start) {
+		return "{\"name\":\"" + name + "\",\"score\":" + score
+				+ ",\"periods\":{\"weekly\":{\"start\":" + start
+				+ ",\"period\":" + WEEK + ",\"identifier\":\"weekly\","
+				+ "\"instances\":{\""
+				+ new LocalDateTime(start).toString("yyyy-MM-dd'T'HH:mm:ss")
+				+ "\":{\"score\":" + weeklyScore + ",\"start\":" + start
+				+ ",\"end\":" + (start + WEEK) + ",\"index\":0}}}}}";
+	}
+}
@@ -0,0 +1,89 @@
+package eu.trentorise.challenge.generation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.ChallengeAudience;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.BatchMatcher;
+import eu.trentorise.game.challenges.util.ChallengeRuleRow;
+import eu.trentorise.game.challenges.util.ChallengeRules;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+public class ChallengeAudienceTest {
+
+	private static final int PLAYERS = 50000;
+
+	private GameSnapshot snapshot;
+	private ChallengeRules rules = new ChallengeRules();
+
+	@Before
+	public void setup() throws IOException {
+		GameSnapshot.Builder builder = new GameSnapshot.Builder();
+		for (int i = 0; i < PLAYERS; i++) {
+			Content c = JsonUtil.CONTENT_READER.readValue(StubEngine.player(i));
+			builder.add(c);
+		}
+		snapshot = builder.build();
+		rule("all", "green leaves >= 0");
+		rule("half", "green leaves >= 500");
+		rule("low", "green leaves < 100");
+		rule("high", "green leaves >= 900");
+	}
+
+	@Test
+	public void cappedAudience() {
+		long start = System.currentTimeMillis();
+		ForkJoinPool pool = new ForkJoinPool();
+		ChallengeAudience audience;
+		try {
+			audience = ChallengeAudience.estimate(
+					new BatchMatcher(rules).match(snapshot, pool), 2, pool);
+		} finally {
+			pool.shutdown();
+		}
+		long time = System.currentTimeMillis() - start;
+		int k = PLAYERS / 1000;
+		assertEquals(PLAYERS, audience.getMatched(0));
+		assertEquals(PLAYERS, audience.getAssigned(0));
+		assertEquals(500 * k, audience.getAssigned(1));
+		assertEquals(100 * k, audience.getAssigned(2));
+		// high players already got all and half
+		assertEquals(100 * k, audience.getMatched(3));
+		assertEquals(0, audience.getAssigned(3));
+		assertEquals(100 * k, audience.getOverlap(3, 1));
+		assertEquals(0, audience.getOverlap(2, 1));
+		assertEquals(100 * k, audience.getShared(2));
+		assertArrayEquals(new int[] { 0, 400 * k, 500 * k, 100 * k, 0 },
+				audience.getPlayersByMatches());
+		System.out.println(audience.report());
+		System.out.println("dry run of " + PLAYERS + " players: " + time
+				+ " ms");
+	}
+
+	@Test
+	public void noLimit() {
+		ChallengeAudience audience = ChallengeAudience.estimate(
+				new BatchMatcher(rules).match(snapshot), Integer.MAX_VALUE,
+				new ForkJoinPool(1));
+		for (int i = 0; i < rules.getChallenges().size(); i++) {
+			assertEquals(audience.getMatched(i), audience.getAssigned(i));
+		}
+	}
+
+	private void rule(String name, String criteria) {
+		ChallengeRuleRow rule = new ChallengeRuleRow();
+		rule.setName(name);
+		rule.setGoalType("green leaves");
+		rule.setSelectionCriteriaPoints(criteria);
+		rules.getChallenges().add(rule);
+	}
+}
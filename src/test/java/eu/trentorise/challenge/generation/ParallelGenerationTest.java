@@ -0,0 +1,191 @@
+package eu.trentorise.challenge.generation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.ChallengeAudience;
+import eu.trentorise.game.challenges.ChallengeInstanceFactory;
+import eu.trentorise.game.challenges.ChallengesRulesGenerator;
+import eu.trentorise.game.challenges.api.Constants;
+import eu.trentorise.game.challenges.exception.UndefinedChallengeException;
+import eu.trentorise.game.challenges.model.ChallengeDataInternalDto;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.BatchMatcher;
+import eu.trentorise.game.challenges.util.ChallengeRuleRow;
+import eu.trentorise.game.challenges.util.ChallengeRules;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+public class ParallelGenerationTest {
+
+	private static final int PLAYERS = 20000;
+
+	private GameSnapshot snapshot;
+	private ChallengeRules rules = new ChallengeRules();
+	private File directory;
+
+	@Before
+	public void setup() throws IOException {
+		GameSnapshot.Builder builder = new GameSnapshot.Builder();
+		for (int i = 0; i < PLAYERS; i++) {
+			Content c = JsonUtil.CONTENT_READER.readValue(StubEngine.player(i));
+			builder.add(c);
+		}
+		snapshot = builder.build();
+		rule("all", "green leaves >= 0", null);
+		rule("half", "green leaves >= 500", "green leaves.weekly.max");
+		rule("low", "green leaves < 100", null);
+		rule("high", "green leaves >= 900", null);
+		directory = File.createTempFile("generation", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void cleanup() {
+		for (File f : directory.listFiles()) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void sameOutputForAnyParallelism() throws Exception {
+		List<ChallengeDataInternalDto> sequential = generate(1);
+		List<ChallengeDataInternalDto> parallel = generate(8);
+		assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < sequential.size(); i++) {
+			ChallengeDataInternalDto s = sequential.get(i);
+			ChallengeDataInternalDto p = parallel.get(i);
+			assertEquals(s.getPlayerId(), p.getPlayerId());
+			assertEquals(s.getDto().getModelName(), p.getDto().getModelName());
+			assertEquals(s.getDto().getData(), p.getDto().getData());
+		}
+	}
+
+	@Test
+	public void exactLimitInDefinitionOrder() throws Exception {
+		List<ChallengeDataInternalDto> generated = generate(8);
+		Map<String, Integer> byPlayer = new HashMap<String, Integer>();
+		for (ChallengeDataInternalDto c : generated) {
+			Integer n = byPlayer.get(c.getPlayerId());
+			byPlayer.put(c.getPlayerId(), n == null ? 1 : n + 1);
+		}
+		for (Integer n : byPlayer.values()) {
+			assertTrue(n <= 2);
+		}
+		ChallengeAudience audience = ChallengeAudience
+				.estimate(new BatchMatcher(rules).match(snapshot));
+		int assigned = 0;
+		for (int i = 0; i < rules.getChallenges().size(); i++) {
+			assigned += audience.getAssigned(i);
+		}
+		assertEquals(assigned, generated.size());
+		// header and a line for every challenge
+		assertEquals(generated.size() + 1,
+				FileUtils.readLines(new File(directory, "report-8.csv")).size());
+	}
+
+	@Test
+	public void failedChallengeReleasesLimit() throws Exception {
+		File output = new File(directory, "output.json");
+		ChallengesRulesGenerator crg = new ChallengesRulesGenerator(
+				new ChallengeInstanceFactory(), new File(directory,
+						"report.csv").getPath(), output.getPath(), 4);
+		BitSet rows = new BitSet();
+		rows.set(0, PLAYERS);
+		ChallengeRuleRow undefined = rules.getChallenges().get(0);
+		undefined.setModelName("undefined");
+		try {
+			crg.generateChallenges(undefined, snapshot, rows, new Date(),
+					new Date());
+		} catch (UndefinedChallengeException e) {
+			// expected, no challenge created
+		}
+		ChallengeRuleRow valid = rules.getChallenges().get(2);
+		for (int i = 0; i < 3; i++) {
+			crg.generateChallenges(valid, snapshot, rows, new Date(),
+					new Date());
+		}
+		crg.writeChallengesToFile();
+		// every player still gets the limit of challenges
+		assertEquals(2 * PLAYERS,
+				JsonUtil.CHALLENGE_READER.readValues(output).readAll().size());
+	}
+
+	@Test
+	public void abortDeletesPartialOutput() throws Exception {
+		File output = new File(directory, "output.json");
+		File report = new File(directory, "report.csv");
+		ChallengesRulesGenerator crg = new ChallengesRulesGenerator(
+				new ChallengeInstanceFactory(), report.getPath(),
+				output.getPath(), 4);
+		BitSet rows = new BitSet();
+		rows.set(0, 10);
+		crg.generateChallenges(rules.getChallenges().get(0), snapshot, rows,
+				new Date(), new Date());
+		crg.abort();
+		assertFalse(output.exists());
+		// header and a line for every challenge
+		assertEquals(11, FileUtils.readLines(report).size());
+	}
+
+	@Test
+	public void abortAfterWriteKeepsOutput() throws Exception {
+		File output = new File(directory, "output.json");
+		ChallengesRulesGenerator crg = new ChallengesRulesGenerator(
+				new ChallengeInstanceFactory(), new File(directory,
+						"report.csv").getPath(), output.getPath(), 4);
+		crg.writeChallengesToFile();
+		crg.abort();
+		assertTrue(JsonUtil.CHALLENGE_READER.readValues(output).readAll()
+				.isEmpty());
+	}
+
+	private List<ChallengeDataInternalDto> generate(int parallelism)
+			throws IOException, UndefinedChallengeException {
+		File output = new File(directory, "output-" + parallelism + ".json");
+		ChallengesRulesGenerator crg = new ChallengesRulesGenerator(
+				new ChallengeInstanceFactory(), new File(directory, "report-"
+						+ parallelism + ".csv").getPath(), output.getPath(),
+				parallelism);
+		BatchMatcher.Result matches = new BatchMatcher(rules).match(snapshot);
+		for (int i = 0; i < matches.getChallenges().size(); i++) {
+			BitSet rows = matches.getPlayers(i);
+			crg.generateChallenges(matches.getChallenges().get(i), snapshot,
+					rows, new Date(), new Date());
+		}
+		crg.writeChallengesToFile();
+		return JsonUtil.CHALLENGE_READER.<ChallengeDataInternalDto> readValues(
+				output).readAll();
+	}
+
+	private void rule(String name, String criteria, String baseline) {
+		ChallengeRuleRow rule = new ChallengeRuleRow();
+		rule.setName(name);
+		rule.setModelName(baseline == null ? Constants.ABSOLUTEINCREMENT
+				: Constants.PERCENTAGEINCREMENT);
+		rule.setGoalType("green leaves");
+		rule.setTarget(0.1d);
+		rule.setBonus(10d);
+		rule.setPointType("green leaves");
+		rule.setBaselineVar(baseline);
+		rule.setSelectionCriteriaPoints(criteria);
+		rules.getChallenges().add(rule);
+	}
+}
@@ -0,0 +1,96 @@
+package eu.trentorise.challenge.generation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.game.challenges.UploadJournal;
+
+public class UploadJournalTest {
+
+	private static final String HOST = "http://localhost:8080/gamification/";
+	private static final String GAMEID = "game";
+
+	private File input;
+
+	@Before
+	public void setup() throws IOException {
+		input = File.createTempFile("challenges", ".json");
+		FileUtils.writeStringToFile(input, "[]");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		UploadJournal.file(input, HOST, GAMEID).delete();
+		input.delete();
+	}
+
+	@Test
+	public void resumeIgnoresTornLine() throws IOException {
+		UploadJournal journal = UploadJournal.open(input, HOST, GAMEID, false);
+		journal.append("a");
+		journal.append("b");
+		journal.close();
+		// crash while writing third name
+		FileUtils.writeStringToFile(journal.getFile(), "c", true);
+
+		journal = UploadJournal.open(input, HOST, GAMEID, true);
+		assertEquals(2, journal.getAssigned());
+		assertTrue(journal.isAssigned("a"));
+		assertTrue(journal.isAssigned("b"));
+		assertFalse(journal.isAssigned("c"));
+		journal.append("d");
+		journal.close();
+		assertEquals("a\nb\nd\n",
+				FileUtils.readFileToString(journal.getFile()));
+	}
+
+	@Test
+	public void restartRefusesExistingJournal() throws IOException {
+		UploadJournal journal = UploadJournal.open(input, HOST, GAMEID, false);
+		journal.append("a");
+		journal.close();
+		try {
+			UploadJournal.open(input, HOST, GAMEID, false);
+			fail("journal overwritten");
+		} catch (FileAlreadyExistsException e) {
+			// expected
+		}
+		assertEquals("a\n", FileUtils.readFileToString(journal.getFile()));
+	}
+
+	@Test
+	public void timerSyncsPendingNames() throws Exception {
+		UploadJournal journal = UploadJournal.open(input, HOST, GAMEID, false);
+		try {
+			journal.append("a");
+			Thread.sleep(3 * UploadJournal.SYNC_MILLIS);
+			assertEquals("a\n",
+					FileUtils.readFileToString(journal.getFile()));
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void journalKeyedByUpload() throws IOException {
+		File before = UploadJournal.file(input, HOST, GAMEID);
+		assertEquals(before, UploadJournal.file(input, HOST, GAMEID));
+		assertNotEquals(before, UploadJournal.file(input, HOST, "other"));
+		assertNotEquals(before, UploadJournal.file(input,
+				"http://localhost:8081/gamification/", GAMEID));
+		FileUtils.writeStringToFile(input, "[ ]");
+		assertNotEquals(before, UploadJournal.file(input, HOST, GAMEID));
+	}
+}
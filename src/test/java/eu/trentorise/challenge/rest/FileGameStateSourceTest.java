@@ -0,0 +1,103 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.FileGameStateSource;
+
+public class FileGameStateSourceTest {
+
+	private static final int PAGES = 12;
+	private static final int PAGE_SIZE = 500;
+
+	private File directory;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("state", "");
+		directory.delete();
+		directory.mkdirs();
+		for (int page = 1; page <= PAGES; page++) {
+			FileUtils.writeStringToFile(new File(directory, "page-" + page
+					+ ".json"), page(page), StandardCharsets.UTF_8.name());
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void singleFile() {
+		FileGameStateSource source = new FileGameStateSource(new File(
+				directory, "page-2.json"));
+		assertEquals(1, source.getPages());
+		Iterator<Content> players = source.stream();
+		for (int i = PAGE_SIZE; i < 2 * PAGE_SIZE; i++) {
+			assertEquals(String.valueOf(i), players.next().getPlayerId());
+		}
+		assertEquals(false, players.hasNext());
+	}
+
+	@Test
+	public void directoryInPageOrder() {
+		FileGameStateSource source = new FileGameStateSource(directory);
+		assertEquals(PAGES, source.getPages());
+		List<Content> sequential = source.read(1);
+		List<Content> parallel = source.read(4);
+		assertEquals(PAGES * PAGE_SIZE, sequential.size());
+		assertEquals(PAGES * PAGE_SIZE, parallel.size());
+		for (int i = 0; i < PAGES * PAGE_SIZE; i++) {
+			assertEquals(String.valueOf(i), sequential.get(i).getPlayerId());
+			assertEquals(String.valueOf(i), parallel.get(i).getPlayerId());
+		}
+	}
+
+	@Test
+	public void stopOnLastPage() throws IOException {
+		// a stale page left in dump after the last one
+		FileUtils.writeStringToFile(new File(directory, "page-" + (PAGES + 1)
+				+ ".json"), page(PAGES + 1), StandardCharsets.UTF_8.name());
+		FileGameStateSource source = new FileGameStateSource(directory);
+		assertEquals(PAGES + 1, source.getPages());
+		assertEquals(PAGES * PAGE_SIZE, source.read(1).size());
+		assertEquals(PAGES * PAGE_SIZE, source.read(4).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingDump() {
+		new FileGameStateSource(new File(directory, "missing.json"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void dumpWithoutPages() {
+		File empty = new File(directory, "empty");
+		empty.mkdir();
+		new FileGameStateSource(empty);
+	}
+
+	private static String page(int page) {
+		StringBuilder sb = new StringBuilder("{\"content\":[");
+		for (int i = (page - 1) * PAGE_SIZE; i < page * PAGE_SIZE; i++) {
+			if (sb.charAt(sb.length() - 1) != '[') {
+				sb.append(',');
+			}
+			sb.append(StubEngine.player(i));
+		}
+		sb.append("],\"last\":").append(page == PAGES).append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,106 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.GameStateIterator;
+
+public class GameStateIteratorTest {
+
+	private static GameStateIterator.PageSource pages(final String... pages) {
+		return new GameStateIterator.PageSource() {
+			@Override
+			public InputStream openPage(int page) throws IOException {
+				if (page > pages.length) {
+					return null;
+				}
+				return new ByteArrayInputStream(
+						pages[page - 1].getBytes(StandardCharsets.UTF_8));
+			}
+		};
+	}
+
+	private static String page(int from, int to, boolean last) {
+		StringBuilder sb = new StringBuilder("{\"totalPages\":3,\"content\":[");
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				sb.append(',');
+			}
+			sb.append(StubEngine.player(i));
+		}
+		return sb.append("],\"sort\":null,\"last\":").append(last)
+				.append("}").toString();
+	}
+
+	@Test
+	public void iterateAllPagesInOrder() {
+		GameStateIterator iter = new GameStateIterator(pages(page(0, 3, false),
+				page(3, 6, false), page(6, 7, true)));
+		List<String> ids = new ArrayList<String>();
+		while (iter.hasNext()) {
+			Content c = iter.next();
+			ids.add(c.getPlayerId());
+			assertEquals(1, c.getState().getPointConcept().size());
+		}
+		assertEquals(7, ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(String.valueOf(i), ids.get(i));
+		}
+		assertEquals(3, iter.getPages());
+	}
+
+	@Test
+	public void stopOnLastPage() {
+		GameStateIterator iter = new GameStateIterator(pages(page(0, 2, true),
+				page(2, 4, true)));
+		int count = 0;
+		while (iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		assertEquals(2, count);
+	}
+
+	@Test
+	public void emptyGame() {
+		GameStateIterator iter = new GameStateIterator(
+				pages("{\"content\":[],\"last\":true}"));
+		assertFalse(iter.hasNext());
+	}
+
+	@Test
+	public void closeReleasesPage() {
+		final boolean[] closed = new boolean[1];
+		final String content = page(0, 3, true);
+		GameStateIterator iter = new GameStateIterator(
+				new GameStateIterator.PageSource() {
+					@Override
+					public InputStream openPage(int page) throws IOException {
+						return new ByteArrayInputStream(
+								content.getBytes(StandardCharsets.UTF_8)) {
+							@Override
+							public void close() throws IOException {
+								closed[0] = true;
+								super.close();
+							}
+						};
+					}
+				});
+		iter.next();
+		iter.close();
+		assertTrue(closed[0]);
+		assertFalse(iter.hasNext());
+	}
+}
@@ -0,0 +1,79 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+import eu.trentorise.game.challenges.model.ChallengeDataInternalDto;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+/**
+ * Cost of deserializing a player with a new {@link ObjectMapper} for every
+ * call, as done before {@link JsonUtil}, and with shared reader
+ */
+public class JsonBenchmarkTest {
+
+	private static final int PLAYERS = 2000;
+
+	private List<String> players = new ArrayList<String>();
+
+	@Before
+	public void setup() {
+		for (int i = 0; i < PLAYERS; i++) {
+			players.add(StubEngine.player(i));
+		}
+	}
+
+	@Test
+	public void challengesRoundTrip() throws IOException {
+		ChallengeDataInternalDto challenge = new ChallengeDataInternalDto();
+		challenge.setPlayerId("42");
+		challenge.setGameId(StubEngine.GAMEID);
+		challenge.setDto(new ChallengeDataDTO());
+		// challenges file is written and read one challenge at a time
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonGenerator generator = JsonUtil.generator(out);
+		generator.writeStartArray();
+		JsonUtil.CHALLENGE_WRITER.writeValue(generator, challenge);
+		generator.writeEndArray();
+		generator.close();
+		List<ChallengeDataInternalDto> read = JsonUtil.CHALLENGE_READER
+				.<ChallengeDataInternalDto> readValues(out.toByteArray())
+				.readAll();
+		assertEquals(1, read.size());
+		assertEquals("42", read.get(0).getPlayerId());
+		assertEquals(StubEngine.GAMEID, read.get(0).getGameId());
+	}
+
+	@Test
+	public void deserializationCost() throws IOException {
+		long begin = System.nanoTime();
+		for (String json : players) {
+			Content c = new ObjectMapper().readValue(json, Content.class);
+			c.getState().getPointConcept();
+		}
+		long perCall = System.nanoTime() - begin;
+		begin = System.nanoTime();
+		for (String json : players) {
+			Content c = JsonUtil.CONTENT_READER.readValue(json);
+			c.getState().getPointConcept();
+		}
+		long shared = System.nanoTime() - begin;
+		System.out.println("new ObjectMapper for every player: " + perCall
+				/ PLAYERS / 1000 + " us/player");
+		System.out.println("shared reader: " + shared / PLAYERS / 1000
+				+ " us/player");
+	}
+}
@@ -0,0 +1,181 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.PointConcept;
+import eu.trentorise.game.challenges.rest.PointConcept.PeriodInstanceImpl;
+
+public class PointConceptTest {
+
+	private static final int WEEKS = 60;
+
+	private static PointConcept weekly(LocalDateTime start) {
+		Map<String, Object> json = new HashMap<String, Object>();
+		json.put("name", "green leaves");
+		json.put("score", 0d);
+		PointConcept pc = new PointConcept(json);
+		pc.setExecutionMoment(start.toDate().getTime());
+		pc.addPeriod("weekly", start.toDate(), StubEngine.WEEK);
+		return pc;
+	}
+
+	@Test
+	public void resolveWeeklyInstances() {
+		LocalDateTime start = new LocalDateTime(2017, 1, 2, 0, 0);
+		PointConcept pc = weekly(start);
+		for (int w = 0; w < WEEKS; w++) {
+			pc.setExecutionMoment(start.plusWeeks(w).plusHours(1).toDate()
+					.getTime());
+			pc.increment((double) w + 1);
+		}
+		assertEquals(WEEKS, pc.getPeriods().get("weekly").getInstances()
+				.size());
+		for (int w = 0; w < WEEKS; w++) {
+			long moment = start.plusWeeks(w).plusDays(6).plusHours(23)
+					.toDate().getTime();
+			assertEquals(w + 1, pc.getPeriodScore("weekly", moment), 0);
+			assertEquals(w + 1, pc.getPeriodScore("weekly", w), 0);
+			assertEquals(w, pc.getPeriodInstance("weekly", moment).getIndex());
+			assertEquals(start.plusWeeks(w).toDate().getTime(), pc
+					.getPeriodInstance("weekly", moment).getStart());
+		}
+		pc.setExecutionMoment(start.plusWeeks(WEEKS - 1).toDate().getTime());
+		assertEquals(WEEKS, pc.getPeriodCurrentScore("weekly"), 0);
+	}
+
+	@Test
+	public void readDoesNotCreateInstances() {
+		LocalDateTime start = new LocalDateTime(2017, 1, 2, 0, 0);
+		PointConcept pc = weekly(start);
+		assertEquals(0, pc.getPeriodScore("weekly", start.plusWeeks(10)
+				.toDate().getTime()), 0);
+		assertEquals(0, pc.getPeriodScore("weekly", start.minusDays(1)
+				.toDate().getTime()), 0);
+		assertEquals(0, pc.getPeriodCurrentScore("weekly"), 0);
+		assertEquals(0, pc.getPeriods().get("weekly").getInstances().size());
+	}
+
+	@Test
+	public void lookupTime() {
+		LocalDateTime start = new LocalDateTime(2017, 1, 2, 0, 0);
+		PointConcept pc = weekly(start);
+		long moment = start.plusWeeks(52).toDate().getTime();
+		pc.setExecutionMoment(moment);
+		pc.increment(1d);
+		int lookups = 100000;
+		long begin = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			pc.getPeriodScore("weekly", moment + i % 1000);
+		}
+		long elapsed = System.nanoTime() - begin;
+		System.out.println("weekly period after one year: " + elapsed
+				/ lookups + " ns/lookup");
+	}
+
+	@Test
+	public void deserializeInstances() throws IOException {
+		long start = new LocalDateTime(2017, 1, 2, 0, 0).toDate().getTime();
+		String json = "{\"name\":\"green leaves\",\"score\":12,\"id\":3,\"periods\":"
+				+ "{\"weekly\":{\"start\":" + start + ",\"period\":604800000,"
+				+ "\"identifier\":\"weekly\",\"instances\":{"
+				+ "\"2017-01-09T00:00:00\":{\"score\":7.0,\"index\":1},"
+				+ "\"2017-01-02T00:00:00\":{\"score\":5,\"index\":0}}}}}";
+		PointConcept pc = new ObjectMapper().readValue(json, PointConcept.class);
+		assertEquals("green leaves", pc.getName());
+		assertEquals("3", pc.getId());
+		assertEquals(12, pc.getScore(), 0);
+		TreeMap<LocalDateTime, PeriodInstanceImpl> instances = pc.getPeriods()
+				.get("weekly").getInstances();
+		assertEquals(2, instances.size());
+		LocalDateTime second = new LocalDateTime(2017, 1, 9, 0, 0);
+		assertEquals(second, instances.lastKey());
+		assertEquals(7, instances.get(second).getScore(), 0);
+		assertEquals(1, instances.get(second).getIndex());
+		assertEquals(5, pc.getPeriodScore("weekly", 0), 0);
+		assertEquals(7, pc.getPeriodScore("weekly", second.plusDays(1)
+				.toDate().getTime()), 0);
+		assertEquals(7, pc.getPeriodMaxScore("weekly"), 0);
+	}
+
+	@Test
+	public void readMisalignedInstances() throws IOException {
+		long start = new LocalDateTime(2017, 1, 2, 0, 0).toDate().getTime();
+		// instances start on wednesday, period on monday
+		String json = "{\"name\":\"green leaves\",\"score\":12,\"periods\":"
+				+ "{\"weekly\":{\"start\":" + start + ",\"period\":604800000,"
+				+ "\"identifier\":\"weekly\",\"instances\":{"
+				+ "\"2017-01-04T00:00:00\":{\"score\":5,\"index\":0},"
+				+ "\"2017-01-11T00:00:00\":{\"score\":7,\"index\":1}}}}}";
+		PointConcept pc = new ObjectMapper().readValue(json, PointConcept.class);
+		assertEquals(7, pc.getPeriodScore("weekly", new LocalDateTime(2017, 1,
+				12, 0, 0).toDate().getTime()), 0);
+		assertEquals(0, pc.getPeriodScore("weekly", new LocalDateTime(2017, 1,
+				20, 0, 0).toDate().getTime()), 0);
+		// index lookup reads the moment instance starts
+		for (int i = 0; i < 3; i++) {
+			assertEquals(pc.getPeriodScore("weekly", new LocalDateTime(2017, 1,
+					2, 0, 0).plusWeeks(i).toDate().getTime()),
+					pc.getPeriodScore("weekly", i));
+		}
+		assertEquals(2, pc.getPeriods().get("weekly").getInstanceCount());
+	}
+
+	@Test
+	public void retainedHeap() {
+		LocalDateTime start = new LocalDateTime(2017, 1, 2, 0, 0);
+		int concepts = 2000;
+		int instances = 50;
+		long before = usedHeap();
+		List<TreeMap<LocalDateTime, PeriodInstanceImpl>> maps = new ArrayList<TreeMap<LocalDateTime, PeriodInstanceImpl>>();
+		PointConcept owner = weekly(start);
+		for (int c = 0; c < concepts; c++) {
+			TreeMap<LocalDateTime, PeriodInstanceImpl> map = new TreeMap<LocalDateTime, PeriodInstanceImpl>();
+			for (int i = 0; i < instances; i++) {
+				LocalDateTime key = start.plusWeeks(i);
+				PeriodInstanceImpl instance = owner.new PeriodInstanceImpl(key
+						.toDate().getTime(), key.plusWeeks(1).toDate().getTime());
+				instance.setScore(Double.valueOf(c + i));
+				instance.setIndex(i);
+				map.put(key, instance);
+			}
+			maps.add(map);
+		}
+		long treeMaps = usedHeap() - before;
+		before = usedHeap();
+		List<PointConcept> arrays = new ArrayList<PointConcept>();
+		for (int c = 0; c < concepts; c++) {
+			PointConcept pc = weekly(start);
+			pc.getPeriods().get("weekly").setInstances(maps.get(c));
+			arrays.add(pc);
+		}
+		long primitive = usedHeap() - before;
+		assertEquals(concepts, maps.size());
+		assertEquals(instances, arrays.get(0).getPeriods().get("weekly")
+				.getInstanceCount());
+		System.out.println("instances in TreeMap: " + treeMaps / concepts
+				+ " bytes/concept");
+		System.out.println("instances in arrays: " + primitive / concepts
+				+ " bytes/concept");
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,56 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
+
+/**
+ * Wall-clock time of game state reading against a local stub engine, varying
+ * the number of concurrent page requests
+ */
+public class ReadGameStateBenchmarkTest {
+
+	private static final int PLAYERS = 2000;
+	private static final int PAGE_SIZE = 50;
+	private static final long LATENCY = 50;
+
+	private StubEngine engine;
+	private GamificationEngineRestFacade facade;
+
+	@Before
+	public void setup() throws IOException {
+		engine = new StubEngine(PLAYERS, LATENCY);
+		facade = new GamificationEngineRestFacade(engine.getHost()
+				+ "gengine/");
+	}
+
+	@After
+	public void tearDown() {
+		engine.stop();
+	}
+
+	@Test
+	public void readGameStateParallelism() {
+		for (int parallelism : new int[] { 1, 2, 4, 8, 16 }) {
+			long start = System.currentTimeMillis();
+			List<Content> result = facade.readGameState(StubEngine.GAMEID,
+					PAGE_SIZE, parallelism);
+			long elapsed = System.currentTimeMillis() - start;
+			System.out.println("parallelism " + parallelism + ": " + elapsed
+					+ " ms");
+			assertEquals(PLAYERS, result.size());
+			for (int i = 0; i < PLAYERS; i++) {
+				assertEquals(String.valueOf(i), result.get(i).getPlayerId());
+			}
+		}
+	}
+}
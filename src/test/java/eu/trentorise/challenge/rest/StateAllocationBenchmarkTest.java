@@ -0,0 +1,77 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.PointConcept;
+
+/**
+ * Bytes allocated reading point concepts of every player repeatedly, as done
+ * by per mode loops of recommendation system, binding them at every call or
+ * once
+ */
+public class StateAllocationBenchmarkTest {
+
+	private static final int PLAYERS = 1000;
+	private static final int READS = 20;
+
+	private ObjectMapper mapper = new ObjectMapper();
+	private List<Content> players = new ArrayList<Content>();
+
+	@Before
+	public void setup() throws IOException {
+		for (int i = 0; i < PLAYERS; i++) {
+			players.add(mapper.readValue(StubEngine.player(i), Content.class));
+		}
+	}
+
+	@Test
+	public void pointConceptIsBoundOnce() {
+		Content c = players.get(0);
+		assertSame(c.getState().getPointConcept(), c.getState()
+				.getPointConcept());
+	}
+
+	@Test
+	public void allocationRate() {
+		JavaType type = mapper.getTypeFactory().constructCollectionType(
+				List.class, PointConcept.class);
+		long before = allocatedBytes();
+		for (int r = 0; r < READS; r++) {
+			for (Content c : players) {
+				// previous getter implementation
+				mapper.convertValue(c.getState().get("PointConcept"), type);
+			}
+		}
+		long convert = allocatedBytes() - before;
+		before = allocatedBytes();
+		for (int r = 0; r < READS; r++) {
+			for (Content c : players) {
+				c.getState().getPointConcept();
+			}
+		}
+		long memoized = allocatedBytes() - before;
+		System.out.println("convert on every call: " + convert / READS
+				/ PLAYERS + " bytes/player/read");
+		System.out.println("bound once: " + memoized / READS / PLAYERS
+				+ " bytes/player/read");
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+}
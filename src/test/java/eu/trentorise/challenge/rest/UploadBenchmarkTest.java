@@ -0,0 +1,178 @@
+package eu.trentorise.challenge.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.UploadJournal;
+import eu.trentorise.game.challenges.UploaderTool;
+import eu.trentorise.game.challenges.model.ChallengeDataDTO;
+import eu.trentorise.game.challenges.model.ChallengeDataInternalDto;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+/**
+ * Wall-clock time of challenges upload against a local stub engine, varying
+ * the number of assignment requests in flight
+ */
+public class UploadBenchmarkTest {
+
+	private static final int CHALLENGES = 500;
+	private static final long LATENCY = 20;
+
+	private StubEngine engine;
+	private File input;
+	private File report;
+
+	@Before
+	public void setup() throws IOException {
+		engine = new StubEngine(0, LATENCY);
+		input = File.createTempFile("challenges", ".json");
+		report = File.createTempFile("report", ".csv");
+		writeInput(-1);
+	}
+
+	/**
+	 * @param withoutPlayer
+	 *            index of the challenge without playerId, -1 for none
+	 */
+	private void writeInput(int withoutPlayer) throws IOException {
+		OutputStream out = new FileOutputStream(input);
+		JsonGenerator generator = JsonUtil.generator(out);
+		generator.writeStartArray();
+		for (int i = 0; i < CHALLENGES; i++) {
+			ChallengeDataDTO dto = new ChallengeDataDTO();
+			dto.setModelName("absoluteIncrement");
+			dto.setInstanceName("challenge_" + i);
+			dto.setData(new HashMap<String, Object>());
+			ChallengeDataInternalDto ch = new ChallengeDataInternalDto();
+			ch.setGameId(StubEngine.GAMEID);
+			if (i != withoutPlayer) {
+				ch.setPlayerId(String.valueOf(i));
+			}
+			ch.setDto(dto);
+			JsonUtil.CHALLENGE_WRITER.writeValue(generator, ch);
+		}
+		generator.writeEndArray();
+		generator.close();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		engine.stop();
+		UploadJournal.file(input, engine.getHost(),
+				StubEngine.GAMEID).delete();
+		input.delete();
+		report.delete();
+	}
+
+	@Test
+	public void uploadConnections() throws IOException {
+		for (int connections : new int[] { 1, 4, 16 }) {
+			// a new upload of the same input, not a resumed one
+			UploadJournal.file(input, engine.getHost(),
+					StubEngine.GAMEID).delete();
+			int before = engine.getRequests();
+			long start = System.currentTimeMillis();
+			String log = UploaderTool.upload(engine.getHost(),
+					StubEngine.GAMEID, input.getPath(), null, null,
+					connections, report.getPath());
+			long elapsed = System.currentTimeMillis() - start;
+			System.out.println("connections " + connections + ": " + elapsed
+					+ " ms");
+			assertTrue(log, log.contains("Challenges upload completed"));
+			assertEquals(CHALLENGES, engine.getRequests() - before);
+			// header and a line for every challenge
+			assertEquals(CHALLENGES + 1, FileUtils.readLines(report).size());
+		}
+	}
+
+	@Test
+	public void resumeSkipsAssigned() throws IOException {
+		int assigned = CHALLENGES * 9 / 10;
+		// journal of an upload failed at 90%
+		UploadJournal journal = UploadJournal.open(input, engine.getHost(),
+				StubEngine.GAMEID, false);
+		for (int i = 0; i < assigned; i++) {
+			journal.append("challenge_" + i);
+		}
+		journal.close();
+		long start = System.currentTimeMillis();
+		String log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+				input.getPath(), null, null, 1, report.getPath(), true);
+		System.out.println("resume at " + assigned + ": "
+				+ (System.currentTimeMillis() - start) + " ms");
+		assertTrue(log, log.contains("Challenges upload completed"));
+		assertEquals(CHALLENGES - assigned, engine.getRequests());
+		journal = UploadJournal.open(input, engine.getHost(),
+				StubEngine.GAMEID, true);
+		assertEquals(CHALLENGES, journal.getAssigned());
+		journal.close();
+
+		// nothing left to upload
+		log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+				input.getPath(), null, null, 1, report.getPath(), true);
+		assertTrue(log, log.contains("Challenges upload completed"));
+		assertEquals(CHALLENGES - assigned, engine.getRequests());
+	}
+
+	@Test
+	public void restartRequiresResume() throws IOException {
+		String log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+				input.getPath(), null, null, 4, report.getPath());
+		assertTrue(log, log.contains("Challenges upload completed"));
+		log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+				input.getPath(), null, null, 4, report.getPath());
+		assertTrue(log, log.contains("use -resume"));
+		assertEquals(CHALLENGES, engine.getRequests());
+	}
+
+	@Test
+	public void sameInputToTwoGamesAssignedTwice() throws IOException {
+		String staging = StubEngine.GAMEID + "-staging";
+		try {
+			String log = UploaderTool.upload(engine.getHost(), staging,
+					input.getPath(), null, null, 4, report.getPath());
+			assertTrue(log, log.contains("Challenges upload completed"));
+			log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+					input.getPath(), null, null, 4, report.getPath());
+			assertTrue(log, log.contains("Challenges upload completed"));
+			assertEquals(2 * CHALLENGES, engine.getRequests());
+		} finally {
+			UploadJournal.file(input, engine.getHost(), staging).delete();
+		}
+	}
+
+	@Test
+	public void challengeWithoutPlayerStopsUpload() throws IOException {
+		writeInput(CHALLENGES / 2);
+		String log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+				input.getPath(), null, null, 4, report.getPath());
+		assertFalse(log, log.contains("Challenges upload completed"));
+		assertTrue(log, log.contains("Error in uploading challenge instance "
+				+ "challenge_" + CHALLENGES / 2));
+		assertTrue(engine.getRequests() < CHALLENGES);
+	}
+
+	@Test
+	public void missingInput() {
+		String log = UploaderTool.upload(engine.getHost(), StubEngine.GAMEID,
+				new File(input.getPath() + ".missing").getPath(), null, null,
+				4, report.getPath());
+		assertTrue(log.contains("Error in reading input file"));
+		assertEquals(0, engine.getRequests());
+	}
+}
@@ -0,0 +1,103 @@
+package eu.trentorise.challenge.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.game.challenges.ChallengeInstanceFactory;
+import eu.trentorise.game.challenges.api.Constants;
+import eu.trentorise.game.challenges.exception.UndefinedChallengeException;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.snapshot.BadgeIndex;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.JsonUtil;
+
+public class BadgeIndexTest {
+
+	private List<Content> players = new ArrayList<Content>();
+	private GameSnapshot snapshot;
+
+	@Before
+	public void setup() throws IOException {
+		players.add(player("a", "\"green-1\",\"green-2\""));
+		players.add(player("b", "\"green-1\",\"green-2\",\"green-3\""));
+		players.add(player("c", ""));
+		Content empty = new Content();
+		empty.setPlayerId("d");
+		players.add(empty);
+		snapshot = GameSnapshot.build(players);
+	}
+
+	@Test
+	public void lookups() {
+		BadgeIndex badges = snapshot.getBadges();
+		assertEquals(Arrays.asList("green-1", "green-2", "green-3"),
+				badges.getBadges("Green Leaves"));
+		assertEquals(2, badges.count(0, "green leaves"));
+		assertEquals(0, badges.count(2, "green leaves"));
+		assertEquals(-1, badges.count(3, "green leaves"));
+		assertTrue(badges.hasEarned(0, "green leaves", "green-2"));
+		assertFalse(badges.hasEarned(0, "green leaves", "green-3"));
+		assertFalse(badges.hasEarned(0, "green leaves", "unknown"));
+		BitSet earned = new BitSet();
+		earned.set(0, 2);
+		assertEquals(earned, badges.getEarned(0, "green leaves"));
+		assertNull(badges.getCounts("unknown"));
+	}
+
+	@Test
+	public void copiedRows() {
+		GameSnapshot copy = new GameSnapshot.Builder().add(snapshot, 2)
+				.add(snapshot, 0).build();
+		BadgeIndex badges = copy.getBadges();
+		// dictionary of copy only holds badges of copied rows
+		assertEquals(Arrays.asList("green-1", "green-2"),
+				badges.getBadges("green leaves"));
+		assertEquals(2, badges.count(1, "green leaves"));
+		assertEquals(0, badges.count(0, "green leaves"));
+		assertTrue(badges.hasEarned(1, "green leaves", "green-2"));
+		assertFalse(badges.hasEarned(0, "green leaves", "green-1"));
+	}
+
+	@Test
+	public void nextBadgeStartsFromSameCount()
+			throws UndefinedChallengeException {
+		ChallengeInstanceFactory factory = new ChallengeInstanceFactory();
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put(Constants.NAME, "next");
+		params.put(Constants.TARGET, 1d);
+		params.put(Constants.BONUS_POINT_TYPE, "green leaves");
+		params.put(Constants.BONUS_SCORE, 10d);
+		// collection names are case insensitive
+		params.put(Constants.GOAL_TYPE, "Green Leaves");
+		for (int row = 0; row < players.size(); row++) {
+			assertEquals(
+					factory.createChallenge(Constants.NEXTBADGE, params,
+							snapshot, row).getData()
+							.get(Constants.INITIAL_BADGE_NUMBER),
+					factory.createChallenge(Constants.NEXTBADGE, params,
+							players.get(row)).getData()
+							.get(Constants.INITIAL_BADGE_NUMBER));
+		}
+	}
+
+	private static Content player(String id, String badges)
+			throws IOException {
+		Content c = JsonUtil.CONTENT_READER.readValue("{\"playerId\":\"" + id
+				+ "\",\"state\":{\"BadgeCollectionConcept\":[{\"name\":"
+				+ "\"green leaves\",\"badgeEarned\":[" + badges + "]}]}}");
+		return c;
+	}
+}
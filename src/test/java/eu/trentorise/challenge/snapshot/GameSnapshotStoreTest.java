@@ -0,0 +1,172 @@
+package eu.trentorise.challenge.snapshot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.FileGameStateSource;
+import eu.trentorise.game.challenges.rest.GamificationEngineRestFacade;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.snapshot.GameSnapshotStore;
+
+public class GameSnapshotStoreTest {
+
+	private static final int PLAYERS = 500;
+
+	private File directory;
+	private GameSnapshotStore store;
+
+	@Before
+	public void setup() throws IOException {
+		directory = File.createTempFile("snapshots", "");
+		directory.delete();
+		store = new GameSnapshotStore(directory);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		List<Content> players = new ArrayList<Content>();
+		for (int i = 0; i < PLAYERS; i++) {
+			players.add(mapper.readValue(StubEngine.player(i), Content.class));
+		}
+		GameSnapshot snapshot = GameSnapshot.build(players);
+		assertNull(store.load(StubEngine.GAMEID));
+		store.save(StubEngine.GAMEID, snapshot);
+		assertSameColumns(snapshot, store.load(StubEngine.GAMEID));
+	}
+
+	@Test
+	public void refreshReusesUnchangedPages() throws IOException {
+		StubEngine engine = new StubEngine(PLAYERS, 0);
+		try {
+			GamificationEngineRestFacade facade = new GamificationEngineRestFacade(
+					engine.getHost() + "gengine/");
+			GameSnapshot first = store.refresh(StubEngine.GAMEID, facade, 0);
+			assertEquals(0, store.getReusedPages());
+			assertTrue(store.getParsedPages() > 0);
+
+			GameSnapshot second = store.refresh(StubEngine.GAMEID, facade, 0);
+			assertEquals(0, store.getParsedPages());
+			assertTrue(store.getReusedPages() > 0);
+			assertSameColumns(first, second);
+		} finally {
+			engine.stop();
+		}
+	}
+
+	@Test
+	public void playerJoiningChangesLastPageOnly() throws IOException {
+		StubEngine engine = new StubEngine(PLAYERS, 0);
+		try {
+			GamificationEngineRestFacade facade = new GamificationEngineRestFacade(
+					engine.getHost() + "gengine/");
+			store.refresh(StubEngine.GAMEID, facade, 0);
+			int pages = store.getParsedPages();
+			engine.setPlayers(PLAYERS + 1);
+			GameSnapshot snapshot = store.refresh(StubEngine.GAMEID, facade, 0);
+			assertEquals(PLAYERS + 1, snapshot.size());
+			assertEquals(String.valueOf(PLAYERS), snapshot.getPlayerId(PLAYERS));
+			assertEquals(pages, store.getReusedPages());
+			assertEquals(1, store.getParsedPages());
+		} finally {
+			engine.stop();
+		}
+	}
+
+	@Test
+	public void reusePagesWhateverTheirPosition() throws IOException {
+		File dump = dump(3);
+		store.refresh(StubEngine.GAMEID, new FileGameStateSource(dump));
+		assertEquals(3, store.getParsedPages());
+		// remaining pages move one position back
+		new File(dump, "page-1.json").delete();
+		GameSnapshot snapshot = store.refresh(StubEngine.GAMEID,
+				new FileGameStateSource(dump));
+		assertEquals(0, store.getParsedPages());
+		assertEquals(2, store.getReusedPages());
+		assertEquals(20, snapshot.size());
+		assertEquals("10", snapshot.getPlayerId(0));
+		assertEquals("29", snapshot.getPlayerId(19));
+	}
+
+	@Test
+	public void dumpDoesNotOverwriteGameSnapshot() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		List<Content> players = new ArrayList<Content>();
+		for (int i = 0; i < PLAYERS; i++) {
+			players.add(mapper.readValue(StubEngine.player(i), Content.class));
+		}
+		store.save(StubEngine.GAMEID, GameSnapshot.build(players));
+		GameSnapshot replayed = store.refresh(StubEngine.GAMEID,
+				new FileGameStateSource(dump(1)));
+		assertEquals(10, replayed.size());
+		assertEquals(PLAYERS, store.load(StubEngine.GAMEID).size());
+	}
+
+	/**
+	 * @return directory with a page of 10 players for every page
+	 */
+	private File dump(int pages) throws IOException {
+		File dump = new File(directory, "dump");
+		for (int page = 1; page <= pages; page++) {
+			StringBuilder sb = new StringBuilder("{\"content\":[");
+			for (int i = (page - 1) * 10; i < page * 10; i++) {
+				if (i % 10 > 0) {
+					sb.append(',');
+				}
+				sb.append(StubEngine.player(i));
+			}
+			sb.append("],\"last\":").append(page == pages).append('}');
+			FileUtils.writeStringToFile(new File(dump, "page-" + page
+					+ ".json"), sb.toString(), StandardCharsets.UTF_8.name());
+		}
+		return dump;
+	}
+
+	private static void assertSameColumns(GameSnapshot expected,
+			GameSnapshot actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int row = 0; row < expected.size(); row++) {
+			assertEquals(expected.getPlayerId(row), actual.getPlayerId(row));
+			assertEquals(expected.getGameId(row), actual.getGameId(row));
+		}
+		assertArrayEquals(expected.getScores("green leaves"),
+				actual.getScores("green leaves"), 0);
+		assertArrayEquals(expected.getPeriodScores("green leaves", "weekly",
+				PeriodScoreType.CURRENT), actual.getPeriodScores(
+				"green leaves", "weekly", PeriodScoreType.CURRENT), 0);
+		assertArrayEquals(expected.getInstanceScores("green leaves", "weekly")[0],
+				actual.getInstanceScores("green leaves", "weekly")[0], 0);
+		assertArrayEquals(expected.getBadgeCounts("green leaves"),
+				actual.getBadgeCounts("green leaves"));
+		assertEquals(expected.getBadges().getBadges("green leaves"), actual
+				.getBadges().getBadges("green leaves"));
+		for (int row = 0; row < expected.size(); row++) {
+			assertEquals(expected.getBadges().getEarned(row, "green leaves"),
+					actual.getBadges().getEarned(row, "green leaves"));
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package eu.trentorise.challenge.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.rest.PeriodScoreType;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+
+public class GameSnapshotTest {
+
+	private static final int PLAYERS = 200;
+
+	private List<Content> players = new ArrayList<Content>();
+
+	@Before
+	public void setup() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		for (int i = 0; i < PLAYERS; i++) {
+			players.add(mapper.readValue(StubEngine.player(i), Content.class));
+		}
+		Content empty = new Content();
+		empty.setPlayerId("empty");
+		players.add(empty);
+	}
+
+	@Test
+	public void columnsMatchContent() {
+		GameSnapshot snapshot = GameSnapshot.build(players);
+		assertEquals(PLAYERS + 1, snapshot.size());
+		double[] total = snapshot.getScores("Green Leaves");
+		double[] current = snapshot.getPeriodScores("green leaves", "weekly",
+				PeriodScoreType.CURRENT);
+		double[][] instances = snapshot.getInstanceScores("green leaves",
+				"weekly");
+		int[] badges = snapshot.getBadgeCounts("green leaves");
+		assertEquals(1, instances.length);
+		for (int row = 0; row < PLAYERS; row++) {
+			Content c = players.get(row);
+			assertEquals(c.getPlayerId(), snapshot.getPlayerId(row));
+			assertEquals(row, snapshot.getRow(c.getPlayerId()));
+			assertEquals(c.score("green leaves"), total[row], 0);
+			assertEquals(c.periodScore("green leaves", "weekly",
+					PeriodScoreType.CURRENT), current[row], 0);
+			assertEquals(row % 100, instances[0][row], 0);
+			assertEquals(1, badges[row]);
+		}
+	}
+
+	@Test
+	public void missingValues() {
+		GameSnapshot snapshot = GameSnapshot.build(players);
+		int row = snapshot.getRow("empty");
+		assertEquals(PLAYERS, row);
+		assertFalse(snapshot.hasConcept(row, "green leaves"));
+		assertTrue(snapshot.hasConcept(0, "green leaves"));
+		assertTrue(Double.isNaN(snapshot.getScores("green leaves")[row]));
+		assertEquals(0, snapshot.score(row, "green leaves"), 0);
+		assertEquals(0, snapshot.periodScore(row, "green leaves", "weekly",
+				PeriodScoreType.MAX), 0);
+		assertEquals(-1, snapshot.badgeCount(row, "green leaves"));
+		assertNull(snapshot.getScores("Walk_Km"));
+		assertNull(snapshot.getPeriodScores("green leaves", "daily",
+				PeriodScoreType.CURRENT));
+		assertEquals(-1, snapshot.getRow("unknown"));
+	}
+}
@@ -0,0 +1,89 @@
+package eu.trentorise.challenge.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.BatchMatcher;
+import eu.trentorise.game.challenges.util.ChallengeRuleRow;
+import eu.trentorise.game.challenges.util.ChallengeRules;
+import eu.trentorise.game.challenges.util.JsonUtil;
+import eu.trentorise.game.challenges.util.Matcher;
+
+public class MatcherTest {
+
+	private static final int PLAYERS = 20000;
+	private static final int RULES = 40;
+
+	private List<Content> players = new ArrayList<Content>();
+	private GameSnapshot snapshot;
+	private ChallengeRules rules = new ChallengeRules();
+	private List<Matcher> matchers = new ArrayList<Matcher>();
+
+	@Before
+	public void setup() throws IOException {
+		GameSnapshot.Builder builder = new GameSnapshot.Builder();
+		for (int i = 0; i < PLAYERS; i++) {
+			Content c = JsonUtil.CONTENT_READER.readValue(StubEngine.player(i));
+			builder.add(c);
+			players.add(c);
+		}
+		snapshot = builder.build();
+		for (int r = 0; r < RULES; r++) {
+			ChallengeRuleRow rule = new ChallengeRuleRow();
+			rule.setName("rule " + r);
+			rule.setGoalType("green leaves");
+			if (r % 4 == 3) {
+				rule.setSelectionCriteriaBadges("size >= " + r % 2);
+			} else {
+				rule.setSelectionCriteriaPoints("green leaves > 100 && (green leaves >= "
+						+ r * 25 + " && green leaves < " + (r + 1) * 25
+						+ " || green leaves.weekly.max == " + r + ")");
+			}
+			rules.getChallenges().add(rule);
+			matchers.add(new Matcher(rule));
+		}
+	}
+
+	@Test
+	public void batchMatchesSequential() {
+		List<BitSet> sequential = new ArrayList<BitSet>();
+		for (Matcher matcher : matchers) {
+			sequential.add(matcher.match(snapshot));
+		}
+		BatchMatcher.Result result = new BatchMatcher(rules).match(snapshot);
+		for (int r = 0; r < RULES; r++) {
+			assertEquals(sequential.get(r), result.getPlayers(r));
+		}
+		for (int row = 0; row < PLAYERS; row++) {
+			BitSet challenges = result.getChallenges(row);
+			for (int r = 0; r < RULES; r++) {
+				assertEquals(sequential.get(r).get(row), challenges.get(r));
+			}
+		}
+		// green leaves > 100 and size >= 1 are shared by all rules
+		assertEquals(1 + 30 * 3 + 1, result.getComparisons());
+	}
+
+	@Test
+	public void streamMatchesSnapshot() {
+		for (Matcher matcher : matchers) {
+			List<Content> expected = new ArrayList<Content>();
+			BitSet rows = matcher.match(snapshot);
+			for (int row = rows.nextSetBit(0); row >= 0; row = rows
+					.nextSetBit(row + 1)) {
+				expected.add(players.get(row));
+			}
+			assertEquals(expected, matcher.match(players.iterator()));
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package eu.trentorise.challenge.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import eu.trentorise.game.challenges.util.RangeTask;
+
+public class RangeTaskTest {
+
+	private static final RangeTask.Range<List<Integer>> ROWS = new RangeTask.Range<List<Integer>>() {
+		@Override
+		public List<Integer> compute(int from, int to) {
+			List<Integer> rows = new ArrayList<Integer>();
+			for (int row = from; row < to; row++) {
+				rows.add(row);
+			}
+			return rows;
+		}
+
+		@Override
+		public List<Integer> merge(List<Integer> left, List<Integer> right) {
+			left.addAll(right);
+			return left;
+		}
+	};
+
+	@Test
+	public void rangesMergedInOrder() {
+		List<Integer> expected = ROWS.compute(3, 10000);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int threshold : new int[] { 1, 7, 4096, 20000 }) {
+				assertEquals(expected, pool.invoke(new RangeTask<List<Integer>>(
+						ROWS, 3, 10000, threshold)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void thresholdMustBePositive() {
+		new RangeTask<List<Integer>>(ROWS, 0, 10, 0);
+	}
+}
@@ -0,0 +1,133 @@
+package eu.trentorise.challenge.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
+import eu.trentorise.game.challenges.snapshot.GameSnapshot;
+import eu.trentorise.game.challenges.util.ChallengeRuleRow;
+import eu.trentorise.game.challenges.util.JsonUtil;
+import eu.trentorise.game.challenges.util.Matcher;
+import eu.trentorise.game.challenges.util.SelectionCriteria;
+
+public class SelectionCriteriaTest {
+
+	private static final int PLAYERS = 2000;
+
+	private GameSnapshot snapshot;
+
+	@Before
+	public void setup() throws IOException {
+		List<Content> players = new ArrayList<Content>();
+		for (int i = 0; i < PLAYERS; i++) {
+			Content c = JsonUtil.CONTENT_READER.readValue(StubEngine.player(i));
+			players.add(c);
+		}
+		snapshot = GameSnapshot.build(players);
+	}
+
+	@Test
+	public void absoluteScore() {
+		BitSet rows = SelectionCriteria.points(
+				"green leaves > 500 && green leaves <= 700").select(snapshot);
+		assertEquals(PLAYERS / 1000 * 200, rows.cardinality());
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows
+				.nextSetBit(row + 1)) {
+			int score = row % 1000;
+			assertEquals(true, score > 500 && score <= 700);
+		}
+		assertEquals(PLAYERS, count("TRUE"));
+		assertEquals(0, count("false"));
+		// players without concept never match
+		assertEquals(0, count("Walk_Km >= 0"));
+	}
+
+	@Test
+	public void periodScore() {
+		// no instance contains current moment, missing scores are 0
+		assertEquals(PLAYERS, count("green leaves.weekly.current == 0"));
+		assertEquals(PLAYERS, count("Walk_Km.weekly.current == 0"));
+		assertEquals(PLAYERS,
+				count("Walk_Km.weekly.current == 0 && Bike_km.weekly.current ==0"));
+		assertEquals(PLAYERS / 100 * 2, count("green leaves.weekly.max >= 98"));
+	}
+
+	@Test
+	public void expressions() {
+		assertEquals(PLAYERS / 1000 * 50,
+				count("(green leaves + 10) * 2 < 100 || !(green leaves < 990)"));
+		assertEquals(PLAYERS / 1000 * 500, count("green leaves % 2 == 0"));
+		assertEquals(PLAYERS / 1000, count("-green leaves >= 0"));
+		assertEquals(0, count("green leaves == null"));
+		assertEquals(PLAYERS, count("green leaves != null"));
+	}
+
+	@Test
+	public void badges() {
+		assertEquals(PLAYERS, SelectionCriteria
+				.badges("size >= 1", "green leaves").select(snapshot)
+				.cardinality());
+		assertEquals(0, SelectionCriteria.badges("size > 1", "green leaves")
+				.select(snapshot).cardinality());
+		assertEquals(0, SelectionCriteria.badges("size >= 0", "unknown")
+				.select(snapshot).cardinality());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingOperand() {
+		SelectionCriteria.points("green leaves >");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void assignment() {
+		SelectionCriteria.points("green leaves = 5");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void notACondition() {
+		SelectionCriteria.points("green leaves + 5");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badgesWithoutSize() {
+		SelectionCriteria.badges("green leaves >= 50", "green leaves");
+	}
+
+	@Test
+	public void malformedCriteriaMatchNobody() {
+		ChallengeRuleRow rule = new ChallengeRuleRow();
+		rule.setName("malformed");
+		rule.setGoalType("green leaves");
+		rule.setSelectionCriteriaBadges("green leaves >= 50 && green leaves < 300");
+		assertEquals(0, new Matcher(rule).match(snapshot).cardinality());
+	}
+
+	@Test
+	public void matchTime() {
+		ChallengeRuleRow rule = new ChallengeRuleRow();
+		rule.setName("time");
+		rule.setSelectionCriteriaPoints("green leaves > 200 && green leaves.weekly.current <= 600");
+		Matcher matcher = new Matcher(rule);
+		int runs = 100;
+		long begin = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			matcher.match(snapshot);
+		}
+		long elapsed = System.nanoTime() - begin;
+		System.out.println("compiled criteria: " + elapsed / runs / PLAYERS
+				+ " ns/player");
+	}
+
+	private int count(String criteria) {
+		return SelectionCriteria.points(criteria).select(snapshot)
+				.cardinality();
+	}
+}
@@ -0,0 +1,79 @@
+package eu.trentorise.challenge.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.trentorise.game.challenges.util.ThresholdIndex;
+
+public class ThresholdIndexTest {
+
+	private static final String[] OPERATORS = { "==", "!=", "<", "<=", ">",
+			">=" };
+
+	@Test
+	public void matchesScan() {
+		Random random = new Random(42);
+		double[] column = new double[5000];
+		for (int row = 0; row < column.length; row++) {
+			column[row] = row % 10 == 0 ? Double.NaN : random.nextInt(100);
+		}
+		ThresholdIndex index = ThresholdIndex.build(column);
+		double[] values = { -1, 0, 0.5, 37, 99, 100, Double.NaN };
+		for (String operator : OPERATORS) {
+			for (double value : values) {
+				BitSet expected = scan(column, operator, value);
+				assertEquals(operator + " " + value, expected,
+						index.select(operator, value));
+				assertEquals(operator + " " + value, expected.cardinality(),
+						index.count(operator, value));
+			}
+		}
+	}
+
+	@Test
+	public void emptyColumn() {
+		ThresholdIndex index = ThresholdIndex.build(new double[0]);
+		assertEquals(0, index.count(">=", 0));
+		assertEquals(new BitSet(), index.select("!=", 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownOperator() {
+		ThresholdIndex.build(new double[] { 1 }).count("=", 1);
+	}
+
+	private BitSet scan(double[] column, String operator, double value) {
+		BitSet rows = new BitSet();
+		for (int row = 0; row < column.length; row++) {
+			double v = column[row];
+			boolean match;
+			switch (operator) {
+			case "==":
+				match = v == value;
+				break;
+			case "!=":
+				match = v != value;
+				break;
+			case "<":
+				match = v < value;
+				break;
+			case "<=":
+				match = v <= value;
+				break;
+			case ">":
+				match = v > value;
+				break;
+			default:
+				match = v >= value;
+			}
+			if (match) {
+				rows.set(row);
+			}
+		}
+		return rows;
+	}
+}
@@ -1,5 +1,7 @@
 package eu.trentorise.challenge.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -9,6 +11,10 @@ import java.util.List;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.trentorise.challenge.StubEngine;
+import eu.trentorise.game.challenges.rest.Content;
 import eu.trentorise.game.challenges.util.ChallengeRules;
 import eu.trentorise.game.challenges.util.ChallengeRulesLoader;
 import eu.trentorise.game.challenges.util.ConverterUtil;
@@ -64,6 +70,20 @@ public class UtilTest {
 		assertNull(PointConceptUtil.getPointConcept(null, null));
 	}
 
+	@Test
+	public void pointConceptUtilLookupByName() throws IOException {
+		Content user = new ObjectMapper().readValue(StubEngine.player(42),
+				Content.class);
+		assertNotNull(PointConceptUtil.getPointConcept(user, "Green Leaves"));
+		assertNull(PointConceptUtil.getPointConcept(user, "Walk_Km"));
+		assertEquals(42d, PointConceptUtil.getScoreFromConcept(user,
+				"green leaves"), 0d);
+		assertEquals(42d, PointConceptUtil.getScoreMax(user, "green leaves",
+				"weekly"), 0d);
+		assertEquals(0d,
+				PointConceptUtil.getScoreMax(user, "Walk_Km", "weekly"), 0d);
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void buildRowChallengeNull() {
 		ExcelUtil.buildRow(null, null, null, null, null);